@@ -0,0 +1,213 @@
+package com.example.stocks;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident ledger of every active user's cash and shares, split into what is available and what is reserved by open orders.
+ * <p>
+ * Accepting a buy order reserves its full cost at the limit price and accepting a sell order reserves its shares, both
+ * with a compare-and-set on the available amount, so two orders can never spend the same money or shares and a pre-trade
+ * check is a memory read. A fill moves the reserved amounts to the other side (refunding the buyer any price improvement)
+ * and a cancel releases what the order still had reserved. Available plus reserved is what the Users and Portfolios rows
+ * hold once settlement has caught up.
+ * <p>
+ * A user is read from the database the first time they are touched. Every later change reaches the ledger before the
+ * settlement writer commits it, so the rows read are never ahead of the ledger.
+ */
+public class AccountLedger {
+    private final UserDAO userDAO;
+    private final PortfolioDAO portfolioDAO;
+    private final ConcurrentMap<Integer, Account> accounts=new ConcurrentHashMap<>();
+
+    public AccountLedger(UserDAO userDAO, PortfolioDAO portfolioDAO){
+        this.userDAO=userDAO;
+        this.portfolioDAO=portfolioDAO;
+    }
+
+    /**
+     * Reserves cash for a buy order.
+     *
+     * @throws IllegalArgumentException If the user does not exist or has less than {@code amountTicks} available.
+     */
+    public void reserveCash(int userId, long amountTicks) throws SQLException{
+        Account account=account(userId);
+        if(!take(account.availableCash,amountTicks)){
+            throw new IllegalArgumentException("Insufficient balance. Required "+Prices.toBigDecimal(amountTicks)+
+                    ", Available: "+Prices.toBigDecimal(account.availableCash.get()));
+        }
+        account.reservedCash.addAndGet(amountTicks);
+    }
+
+    /**
+     * Reserves shares for a sell order.
+     *
+     * @throws IllegalArgumentException If the user does not exist or has fewer than {@code quantity} shares available.
+     */
+    public void reserveShares(int userId, int stockId, int quantity) throws SQLException{
+        Holding holding=account(userId).holding(stockId);
+        if(!take(holding.available,quantity)){
+            throw new IllegalArgumentException("Insufficient shares. Required "+quantity+", Available: "+holding.available.get());
+        }
+        holding.reserved.addAndGet(quantity);
+    }
+
+    /**
+     * Gives back a reservation for an order that was never accepted, e.g. because saving it failed.
+     */
+    public void releaseCash(int userId, long amountTicks) throws SQLException{
+        Account account=account(userId);
+        account.reservedCash.addAndGet(-amountTicks);
+        account.availableCash.addAndGet(amountTicks);
+    }
+
+    public void releaseShares(int userId, int stockId, int quantity) throws SQLException{
+        Holding holding=account(userId).holding(stockId);
+        holding.reserved.addAndGet(-quantity);
+        holding.available.addAndGet(quantity);
+    }
+
+    /**
+     * Reserves what a resting order loaded at startup still needs. The order was accepted before the restart,
+     * so it is not checked again.
+     */
+    void reserveResting(Order order) throws SQLException{
+        Account account=account(order.getUserId());
+        if(order.getOrderType()==Order.OrderType.BUY){
+            long amount=Prices.notional(order.getPriceTicks(),order.getQuantity());
+            account.availableCash.addAndGet(-amount);
+            account.reservedCash.addAndGet(amount);
+        }else{
+            Holding holding=account.holding(order.getStockId());
+            holding.available.addAndGet(-order.getQuantity());
+            holding.reserved.addAndGet(order.getQuantity());
+        }
+    }
+
+    /**
+     * Applies a fill: the buyer's reservation at their limit price pays for the shares and any price improvement
+     * is returned to their available cash; the seller's reserved shares go to the buyer and the proceeds become available.
+     */
+    void onFill(Fill fill, long buyerLimitTicks) throws SQLException{
+        Account buyer=account(fill.getBuyerUserId());
+        long reserved=Prices.notional(buyerLimitTicks,fill.getQuantity());
+        buyer.reservedCash.addAndGet(-reserved);
+        buyer.availableCash.addAndGet(reserved-fill.getNotionalTicks());
+        buyer.holding(fill.getStockId()).available.addAndGet(fill.getQuantity());
+
+        Account seller=account(fill.getSellerUserId());
+        seller.holding(fill.getStockId()).reserved.addAndGet(-fill.getQuantity());
+        seller.availableCash.addAndGet(fill.getNotionalTicks());
+    }
+
+    /**
+     * Applies a fill recovered from the journal that the database has not settled yet. Its orders were loaded with only
+     * what they still have open, so nothing is reserved for it: the buyer pays from available cash and the seller's
+     * shares come out of their available ones. The exact reverse of onFillFailed.
+     */
+    void onRecoveredFill(Fill fill) throws SQLException{
+        Account buyer=account(fill.getBuyerUserId());
+        buyer.availableCash.addAndGet(-fill.getNotionalTicks());
+        buyer.holding(fill.getStockId()).available.addAndGet(fill.getQuantity());
+
+        Account seller=account(fill.getSellerUserId());
+        seller.holding(fill.getStockId()).available.addAndGet(-fill.getQuantity());
+        seller.availableCash.addAndGet(fill.getNotionalTicks());
+    }
+
+    /**
+     * Reverses a fill the database rejected, leaving both users as if the fill's quantity had been cancelled instead:
+     * the buyer gets back what they paid and loses the shares, the seller gets the shares back and loses the proceeds.
+     * What the two orders still have reserved is released separately, through onCancel.
+     */
+    void onFillFailed(Fill fill) throws SQLException{
+        Account buyer=account(fill.getBuyerUserId());
+        buyer.availableCash.addAndGet(fill.getNotionalTicks());
+        buyer.holding(fill.getStockId()).available.addAndGet(-fill.getQuantity());
+
+        Account seller=account(fill.getSellerUserId());
+        seller.holding(fill.getStockId()).available.addAndGet(fill.getQuantity());
+        seller.availableCash.addAndGet(-fill.getNotionalTicks());
+    }
+
+    /**
+     * Releases what a cancelled order still had reserved.
+     */
+    void onCancel(Order order) throws SQLException{
+        if(order.getOrderType()==Order.OrderType.BUY){
+            releaseCash(order.getUserId(),Prices.notional(order.getPriceTicks(),order.getQuantity()));
+        }else{
+            releaseShares(order.getUserId(),order.getStockId(),order.getQuantity());
+        }
+    }
+
+    public BigDecimal getAvailableCash(int userId) throws SQLException{
+        return Prices.toBigDecimal(account(userId).availableCash.get());
+    }
+    public BigDecimal getReservedCash(int userId) throws SQLException{
+        return Prices.toBigDecimal(account(userId).reservedCash.get());
+    }
+    public long getAvailableShares(int userId, int stockId) throws SQLException{
+        return account(userId).holding(stockId).available.get();
+    }
+    public long getReservedShares(int userId, int stockId) throws SQLException{
+        return account(userId).holding(stockId).reserved.get();
+    }
+
+    public int getAccountCount(){
+        return accounts.size();
+    }
+
+    private Account account(int userId) throws SQLException{
+        Account account=accounts.get(userId);
+        if(account!=null){
+            return account;
+        }
+        Optional<User> user=userDAO.findById(userId);
+        if(!user.isPresent()){
+            throw new IllegalArgumentException("User with ID "+userId+" not found.");
+        }
+        Account loaded=new Account(Prices.toTicks(user.get().getBalance()));
+        for(PortfolioItem item: portfolioDAO.findByUserId(userId)){
+            loaded.holding(item.getStockId()).available.set(item.getQuantity());
+        }
+        // If another thread loaded the user meanwhile, keep its account; both read the same committed rows.
+        account=accounts.putIfAbsent(userId,loaded);
+        return account!=null? account:loaded;
+    }
+
+    // Subtracts amount from counter unless that would take it below zero.
+    private static boolean take(AtomicLong counter, long amount){
+        long current;
+        do{
+            current=counter.get();
+            if(current<amount){
+                return false;
+            }
+        }while(!counter.compareAndSet(current,current-amount));
+        return true;
+    }
+
+    private static final class Account {
+        private final AtomicLong availableCash;
+        private final AtomicLong reservedCash=new AtomicLong();
+        private final ConcurrentMap<Integer, Holding> holdings=new ConcurrentHashMap<>();
+
+        private Account(long balanceTicks){
+            this.availableCash=new AtomicLong(balanceTicks);
+        }
+
+        private Holding holding(int stockId){
+            return holdings.computeIfAbsent(stockId,id->new Holding());
+        }
+    }
+
+    private static final class Holding {
+        private final AtomicLong available=new AtomicLong();
+        private final AtomicLong reserved=new AtomicLong();
+    }
+}
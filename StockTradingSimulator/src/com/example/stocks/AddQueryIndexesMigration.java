@@ -0,0 +1,40 @@
+package com.example.stocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * V2: secondary indexes for the hot queries. Each index is its own IF NOT EXISTS statement,
+ * so an interrupted run resumes with the indexes that are still missing.
+ */
+public class AddQueryIndexesMigration extends Migration {
+
+    // {name, table, columns}. Each one lets its query seek straight to the matching rows
+    // in the order it needs them instead of scanning the whole table.
+    static final String[][] INDEXES={
+            // OrderDAO.findPendingBuy/SellOrdersByStockId: WHERE stock_id, order_type, status ORDER BY price
+            {"idx_orders_book","Orders","stock_id, order_type, status, price"},
+            // OrderDAO.forEachOpenOrder: WHERE status IN (...) ORDER BY timestamp, id
+            {"idx_orders_status_time","Orders","status, timestamp, id"},
+            // OrderDAO.findOrdersByUserId: WHERE user_id ORDER BY timestamp
+            {"idx_orders_user_time","Orders","user_id, timestamp"},
+            // TradeDAO.findTradesByUserId: one branch of the UNION ALL each
+            {"idx_transactions_buyer_time","Transactions","buyer_user_id, timestamp"},
+            {"idx_transactions_seller_time","Transactions","seller_user_id, timestamp"},
+            // TradeDAO.findTradeByStockId: WHERE stock_id ORDER BY timestamp
+            {"idx_transactions_stock_time","Transactions","stock_id, timestamp"}
+    };
+
+    public AddQueryIndexesMigration(){
+        super(2,"Add composite indexes for order book, order history and trade history queries");
+    }
+
+    @Override
+    protected List<String> statements(){
+        List<String> statements=new ArrayList<>(INDEXES.length);
+        for(String[] index: INDEXES){
+            statements.add("CREATE INDEX IF NOT EXISTS "+index[0]+" ON "+index[1]+" ("+index[2]+")");
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.stocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * V4: Settlement_Progress records, per stock, the last EventJournal sequence whose fill or cancel has been settled.
+ * It is written in the same transaction as the settlement it describes, so after a crash the matching engine knows
+ * exactly which journaled records never reached the database. The row for stock ID 0 is a floor for every stock.
+ */
+public class AddSettlementProgressMigration extends Migration {
+
+    public AddSettlementProgressMigration(){
+        super(4,"Add Settlement_Progress journal watermark");
+    }
+
+    @Override
+    protected List<String> statements(){
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS Settlement_Progress (" +
+                        "stock_id INT PRIMARY KEY," +
+                        "journal_sequence BIGINT NOT NULL" +
+                        ")"
+        );
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.stocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * V3: cold tier for Transactions. TradeArchiver moves trades older than the hot retention window into
+ * Transactions_Archive and records the cutoff in Trade_Archive_State, so recent-history queries only
+ * have to touch the (small) hot table.
+ */
+public class AddTradeArchiveMigration extends Migration {
+
+    // {name, table, columns}: the same access paths as the hot table.
+    static final String[][] INDEXES={
+            {"idx_transactions_archive_buyer_time","Transactions_Archive","buyer_user_id, timestamp"},
+            {"idx_transactions_archive_seller_time","Transactions_Archive","seller_user_id, timestamp"},
+            {"idx_transactions_archive_stock_time","Transactions_Archive","stock_id, timestamp"}
+    };
+
+    public AddTradeArchiveMigration(){
+        super(3,"Add Transactions_Archive tier and archive watermark");
+    }
+
+    @Override
+    protected List<String> statements(){
+        List<String> statements=new ArrayList<>();
+        // Rows keep the ID they had in Transactions. They were validated when first inserted, so no foreign keys here.
+        statements.add("CREATE TABLE IF NOT EXISTS Transactions_Archive (" +
+                "id INT PRIMARY KEY," +
+                "buyer_user_id INT NOT NULL," +
+                "seller_user_id INT NOT NULL," +
+                "stock_id INT NOT NULL," +
+                "price DECIMAL(19, 4) NOT NULL," +
+                "quantity INT NOT NULL," +
+                "timestamp TIMESTAMP" +
+                ")");
+        for(String[] index: INDEXES){
+            statements.add("CREATE INDEX IF NOT EXISTS "+index[0]+" ON "+index[1]+" ("+index[2]+")");
+        }
+        // Single row: every trade with a timestamp before archived_before is in the archive.
+        statements.add("CREATE TABLE IF NOT EXISTS Trade_Archive_State (" +
+                "id INT PRIMARY KEY," +
+                "archived_before TIMESTAMP NOT NULL" +
+                ")");
+        statements.add("INSERT INTO Trade_Archive_State (id, archived_before) " +
+                "SELECT 1, TIMESTAMP '1970-01-01 00:00:00' WHERE NOT EXISTS (SELECT 1 FROM Trade_Archive_State WHERE id = 1)");
+        return statements;
+    }
+}
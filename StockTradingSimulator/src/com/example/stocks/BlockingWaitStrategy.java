@@ -0,0 +1,41 @@
+package com.example.stocks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks the consumer thread until a producer publishes.
+ * Uses the least CPU and suits the desktop application. Producers only pay for an unpark when the
+ * consumer is actually parked, and never take a lock.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    // Upper bound on a single park, so a missed signal or a halt is noticed quickly.
+    private static final long MAX_PARK_NANOS=TimeUnit.MILLISECONDS.toNanos(10);
+
+    private volatile Thread waitingConsumer;
+
+    @Override
+    public long waitFor(long sequence, OrderCommandRingBuffer ringBuffer){
+        while(!ringBuffer.isAvailable(sequence)){
+            if(ringBuffer.isHaltedAndDrained(sequence)){
+                return -1; // Every command claimed before the halt is still drained.
+            }
+            waitingConsumer=Thread.currentThread();
+            // Re-check after advertising that we are about to park, so a publish in between is not missed.
+            if(!ringBuffer.isAvailable(sequence) && !ringBuffer.isHaltedAndDrained(sequence)){
+                LockSupport.parkNanos(this,MAX_PARK_NANOS);
+            }
+            waitingConsumer=null;
+        }
+        return ringBuffer.getHighestPublishedSequence(sequence);
+    }
+
+    @Override
+    public void signalAllWhenBlocking(){
+        Thread consumer=waitingConsumer;
+        if(consumer!=null){
+            LockSupport.unpark(consumer);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.stocks;
+
+/**
+ * Spins on the published sequence without ever giving up the CPU.
+ * Lowest latency, but keeps one core fully busy per shard; only use it with dedicated cores.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public long waitFor(long sequence, OrderCommandRingBuffer ringBuffer){
+        while(!ringBuffer.isAvailable(sequence)){
+            if(ringBuffer.isHaltedAndDrained(sequence)){
+                return -1; // Every command claimed before the halt is still drained.
+            }
+        }
+        return ringBuffer.getHighestPublishedSequence(sequence);
+    }
+
+    @Override
+    public void signalAllWhenBlocking(){
+        // Nothing to wake: the consumer never parks.
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.stocks;
+
+import java.math.BigDecimal;
+
+/**
+ * One open/high/low/close/volume bar of a stock's price history, as kept by TickStore. Prices are in ticks (see Prices).
+ */
+public final class Candle {
+
+    /**
+     * Candle widths, each with how many of the most recent candles TickStore keeps in memory per stock.
+     */
+    public enum Resolution {
+        SECOND("1s",1000L,3600),              // The last hour.
+        MINUTE("1m",60*1000L,1440),           // The last day.
+        FIVE_MINUTES("5m",5*60*1000L,2016),   // The last week.
+        HOUR("1h",60*60*1000L,2160);          // The last 90 days.
+
+        private final String label;
+        private final long millis;
+        private final int capacity;
+
+        Resolution(String label, long millis, int capacity){
+            this.label=label;
+            this.millis=millis;
+            this.capacity=capacity;
+        }
+
+        public String getLabel(){
+            return label;
+        }
+        public long getMillis(){
+            return millis;
+        }
+        public int getCapacity(){
+            return capacity;
+        }
+
+        /**
+         * @return The start of the candle that contains the given time.
+         */
+        public long bucketStart(long timeMillis){
+            return timeMillis-Math.floorMod(timeMillis,millis);
+        }
+    }
+
+    private final int stockId;
+    private final Resolution resolution;
+    private final long startMillis;
+    private final long openTicks;
+    private final long highTicks;
+    private final long lowTicks;
+    private final long closeTicks;
+    private final long volume;
+
+    public Candle(int stockId, Resolution resolution, long startMillis, long openTicks, long highTicks, long lowTicks,
+                  long closeTicks, long volume){
+        this.stockId=stockId;
+        this.resolution=resolution;
+        this.startMillis=startMillis;
+        this.openTicks=openTicks;
+        this.highTicks=highTicks;
+        this.lowTicks=lowTicks;
+        this.closeTicks=closeTicks;
+        this.volume=volume;
+    }
+
+    public int getStockId(){
+        return stockId;
+    }
+    public Resolution getResolution(){
+        return resolution;
+    }
+    /**
+     * @return The start of the candle's interval in epoch milliseconds. It covers [start, start + resolution).
+     */
+    public long getStartMillis(){
+        return startMillis;
+    }
+    public long getOpenTicks(){
+        return openTicks;
+    }
+    public long getHighTicks(){
+        return highTicks;
+    }
+    public long getLowTicks(){
+        return lowTicks;
+    }
+    public long getCloseTicks(){
+        return closeTicks;
+    }
+    public BigDecimal getOpen(){
+        return Prices.toBigDecimal(openTicks);
+    }
+    public BigDecimal getHigh(){
+        return Prices.toBigDecimal(highTicks);
+    }
+    public BigDecimal getLow(){
+        return Prices.toBigDecimal(lowTicks);
+    }
+    public BigDecimal getClose(){
+        return Prices.toBigDecimal(closeTicks);
+    }
+    /**
+     * @return Shares traded during the candle. Simulated price moves add none.
+     */
+    public long getVolume(){
+        return volume;
+    }
+
+    @Override
+    public String toString(){
+        return "Candle{"+"stockId="+stockId+", resolution="+resolution.getLabel()+", start="+startMillis+", open="+getOpen()+
+                ", high="+getHigh()+", low="+getLow()+", close="+getClose()+", volume="+volume+'}';
+    }
+}
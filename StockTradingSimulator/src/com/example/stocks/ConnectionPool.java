@@ -0,0 +1,315 @@
+package com.example.stocks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded JDBC connection pool used behind DatabaseManager.getConnection().
+ * <p>
+ * Callers keep the usual try-with-resources pattern: the Connection they get is a proxy whose close()
+ * hands the physical connection back to the pool instead of closing it. The pool keeps at least
+ * {@code minSize} connections open, never opens more than {@code maxSize}, validates connections that
+ * have been idle for a while before handing them out, evicts idle connections above the minimum,
+ * and fails an acquire with an SQLException once {@code acquireTimeoutMillis} has passed.
+ */
+public class ConnectionPool {
+
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+
+    // Idle connections are reused most-recently-returned first, so the warmest connection is handed out
+    // and the ones at the tail age out through idle eviction.
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections=new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // --- Metrics ---
+    private final AtomicInteger totalConnections=new AtomicInteger();
+    private final AtomicLong connectionsCreated=new AtomicLong();
+    private final AtomicLong connectionsEvicted=new AtomicLong();
+    private final AtomicLong connectionsFailedValidation=new AtomicLong();
+    private final AtomicLong acquireCount=new AtomicLong();
+    private final AtomicLong acquireTimeouts=new AtomicLong();
+    private final AtomicLong totalAcquireWaitNanos=new AtomicLong();
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS=5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS=2;
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS=30_000;
+
+    public ConnectionPool(String jdbcUrl, String user, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, long acquireTimeoutMillis){
+        if(minSize<0 || maxSize<=0 || minSize>maxSize){
+            throw new IllegalArgumentException("Invalid pool size: min="+minSize+", max="+maxSize);
+        }
+        this.jdbcUrl=jdbcUrl;
+        this.user=user;
+        this.password=password;
+        this.minSize=minSize;
+        this.maxSize=maxSize;
+        this.idleTimeoutMillis=idleTimeoutMillis;
+        this.acquireTimeoutMillis=acquireTimeoutMillis;
+        this.permits=new Semaphore(maxSize,true);
+        this.housekeeper=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable,"connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep,HOUSEKEEPING_INTERVAL_MILLIS,HOUSEKEEPING_INTERVAL_MILLIS,TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection. Closing the returned connection returns it to the pool.
+     *
+     * @throws SQLException If no connection becomes available within the acquire timeout, or one cannot be opened.
+     */
+    public Connection getConnection() throws SQLException{
+        if(closed){
+            throw new SQLException("Connection pool has been shut down.");
+        }
+        long start=System.nanoTime();
+        try{
+            if(!permits.tryAcquire(acquireTimeoutMillis,TimeUnit.MILLISECONDS)){
+                acquireTimeouts.incrementAndGet();
+                throw new SQLException("Timed out after "+acquireTimeoutMillis+" ms waiting for a database connection. "+this);
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.",e);
+        }
+        try{
+            PooledConnection pooled=takeIdleConnection();
+            if(pooled==null){
+                pooled=openConnection();
+            }
+            acquireCount.incrementAndGet();
+            totalAcquireWaitNanos.addAndGet(System.nanoTime()-start);
+            return pooled.lease();
+        }catch (SQLException | RuntimeException e){
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops housekeeping. Borrowed connections are closed when they are returned.
+     */
+    public void shutdown(){
+        closed=true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while((pooled=idleConnections.pollFirst())!=null){
+            closePhysical(pooled);
+        }
+    }
+
+    // --- Metrics ---
+
+    public int getTotalConnections(){
+        return totalConnections.get();
+    }
+    public int getIdleConnections(){
+        return idleConnections.size();
+    }
+    public int getActiveConnections(){
+        return maxSize-permits.availablePermits();
+    }
+    public int getThreadsAwaitingConnection(){
+        return permits.getQueueLength();
+    }
+    public long getConnectionsCreated(){
+        return connectionsCreated.get();
+    }
+    public long getConnectionsEvicted(){
+        return connectionsEvicted.get();
+    }
+    public long getConnectionsFailedValidation(){
+        return connectionsFailedValidation.get();
+    }
+    public long getAcquireCount(){
+        return acquireCount.get();
+    }
+    public long getAcquireTimeouts(){
+        return acquireTimeouts.get();
+    }
+    public double getAverageAcquireMillis(){
+        long count=acquireCount.get();
+        return count==0? 0.0:totalAcquireWaitNanos.get()/1_000_000.0/count;
+    }
+
+    /**
+     * Opens connections until {@code minSize} are available. Called once at startup and by housekeeping.
+     */
+    public void fillToMinimum(){
+        while(!closed && totalConnections.get()<minSize){
+            try{
+                PooledConnection pooled=openConnection();
+                pooled.lastReturnedMillis=System.currentTimeMillis();
+                idleConnections.offerLast(pooled);
+            }catch (SQLException e){
+                System.err.println("Connection pool could not open a connection: "+e.getMessage());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "ConnectionPool{"+"total="+getTotalConnections()+", active="+getActiveConnections()+", idle="+getIdleConnections()+
+                ", waiting="+getThreadsAwaitingConnection()+", created="+getConnectionsCreated()+", evicted="+getConnectionsEvicted()+
+                ", failedValidation="+getConnectionsFailedValidation()+", acquired="+getAcquireCount()+", timeouts="+getAcquireTimeouts()+
+                ", avgAcquireMs="+String.format("%.3f",getAverageAcquireMillis())+'}';
+    }
+
+    private PooledConnection takeIdleConnection(){
+        PooledConnection pooled;
+        while((pooled=idleConnections.pollFirst())!=null){
+            if(System.currentTimeMillis()-pooled.lastReturnedMillis<VALIDATE_AFTER_IDLE_MILLIS || isValid(pooled)){
+                return pooled;
+            }
+            connectionsFailedValidation.incrementAndGet();
+            closePhysical(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled){
+        try{
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }catch (SQLException e){
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException{
+        // The DriverManager will automatically find the correct H2 JDBC driver (because you added the JAR).
+        Connection physical=DriverManager.getConnection(jdbcUrl,user,password);
+        totalConnections.incrementAndGet();
+        connectionsCreated.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pooled){
+        boolean reusable=!closed;
+        try{
+            if(pooled.physical.isClosed()){
+                reusable=false;
+            }else if(!pooled.physical.getAutoCommit()){
+                // Never hand a half-finished transaction to the next borrower.
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        }catch (SQLException e){
+            reusable=false;
+        }
+        if(reusable){
+            pooled.lastReturnedMillis=System.currentTimeMillis();
+            idleConnections.offerFirst(pooled);
+        }else{
+            closePhysical(pooled);
+        }
+        permits.release();
+    }
+
+    private void housekeep(){
+        long now=System.currentTimeMillis();
+        // Walk from the least recently used end and evict connections idle for too long, keeping the minimum.
+        Iterator<PooledConnection> iterator=idleConnections.descendingIterator();
+        while(iterator.hasNext() && totalConnections.get()>minSize){
+            PooledConnection pooled=iterator.next();
+            if(now-pooled.lastReturnedMillis>=idleTimeoutMillis && idleConnections.removeFirstOccurrence(pooled)){
+                connectionsEvicted.incrementAndGet();
+                closePhysical(pooled);
+            }
+        }
+        fillToMinimum();
+    }
+
+    private void closePhysical(PooledConnection pooled){
+        totalConnections.decrementAndGet();
+        try{
+            pooled.physical.close();
+        }catch (SQLException e){
+            System.err.println("Error closing pooled connection: "+e.getMessage());
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private volatile long lastReturnedMillis;
+
+        private PooledConnection(Connection physical){
+            this.physical=physical;
+        }
+
+        private Connection lease(){
+            return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),new Class<?>[]{Connection.class},new Lease(this));
+        }
+    }
+
+    /**
+     * The borrower's view of a pooled connection. Each borrow gets its own Lease, so a connection
+     * closed by one borrower cannot be used again through that borrower's proxy after it is re-leased.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean returned;
+
+        private Lease(PooledConnection pooled){
+            this.pooled=pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+            String name=method.getName();
+            if("close".equals(name)){
+                if(!returned){
+                    returned=true;
+                    release(pooled);
+                }
+                return null;
+            }
+            if("isClosed".equals(name)){
+                return returned || pooled.physical.isClosed();
+            }
+            if("equals".equals(name)){
+                return proxy==args[0];
+            }
+            if("hashCode".equals(name)){
+                return System.identityHashCode(proxy);
+            }
+            if("toString".equals(name)){
+                return "PooledConnection["+pooled.physical+"]";
+            }
+            if(returned){
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            try{
+                return method.invoke(pooled.physical,args);
+            }catch (InvocationTargetException e){
+                throw e.getCause();
+            }
+        }
+    }
+}
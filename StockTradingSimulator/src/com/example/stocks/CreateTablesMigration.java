@@ -0,0 +1,68 @@
+package com.example.stocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * V1: the original tables. Uses IF NOT EXISTS, so databases created before migrations existed are adopted as-is.
+ */
+public class CreateTablesMigration extends Migration {
+
+    public CreateTablesMigration(){
+        super(1,"Create Users, Stocks, Orders, Transactions and Portfolios tables");
+    }
+
+    @Override
+    protected List<String> statements(){
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS Users (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "username VARCHAR(255) NOT NULL UNIQUE," + // CORRECTED: Added comma here
+                        "password_hash VARCHAR(255) NOT NULL," +
+                        "balance DECIMAL(19, 4) NOT NULL" +
+                        ")",
+
+                "CREATE TABLE IF NOT EXISTS Stocks (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "symbol VARCHAR(10) NOT NULL UNIQUE," +
+                        "company_name VARCHAR(255) NOT NULL," +
+                        "current_price DECIMAL(19, 4) NOT NULL" +
+                        ")",
+
+                "CREATE TABLE IF NOT EXISTS Orders (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "user_id INT NOT NULL," +
+                        "stock_id INT NOT NULL," +
+                        "order_type VARCHAR(4) NOT NULL," +
+                        "price DECIMAL(19, 4) NOT NULL," +
+                        "quantity INT NOT NULL," +
+                        "status VARCHAR(20) NOT NULL," +
+                        "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                        "FOREIGN KEY (user_id) REFERENCES Users(id)," +
+                        "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
+                        ")",
+
+                "CREATE TABLE IF NOT EXISTS Transactions (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "buyer_user_id INT NOT NULL," +
+                        "seller_user_id INT NOT NULL," +
+                        "stock_id INT NOT NULL," +
+                        "price DECIMAL(19, 4) NOT NULL," +
+                        "quantity INT NOT NULL," +
+                        "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                        "FOREIGN KEY (buyer_user_id) REFERENCES Users(id)," +
+                        "FOREIGN KEY (seller_user_id) REFERENCES Users(id)," +
+                        "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
+                        ")",
+
+                "CREATE TABLE IF NOT EXISTS Portfolios (" +
+                        "user_id INT NOT NULL," +
+                        "stock_id INT NOT NULL," +
+                        "quantity INT NOT NULL," +
+                        "PRIMARY KEY (user_id, stock_id)," +
+                        "FOREIGN KEY (user_id) REFERENCES Users(id)," +
+                        "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
+                        ")"
+        );
+    }
+}
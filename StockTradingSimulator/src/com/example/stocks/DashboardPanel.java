@@ -2,18 +2,23 @@
 package com.example.stocks; // Package declaration.
 
 import javax.swing.*;          // Imports Swing GUI components.
-import javax.swing.table.DefaultTableModel; // For managing table data.
 import java.awt.*;             // Imports AWT classes for layout, events, and colors.
 import java.awt.event.ActionEvent; // For handling button click events.
 import java.awt.event.ActionListener; // Interface for event listeners.
 import java.math.BigDecimal;   // For precise monetary calculations.
+import java.math.RoundingMode; // For rounding displayed amounts.
 import java.sql.SQLException;  // For handling database exceptions from services.
 import java.time.format.DateTimeFormatter; // For formatting timestamps.
+import java.util.ArrayList;    // For the paging state of the history tables.
 import java.util.List;         // For handling lists of data.
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors; // For scheduling UI updates.
-import java.util.concurrent.ScheduledExecutorService; // For scheduling UI updates.
-import java.util.concurrent.TimeUnit; // For specifying time units.
+import java.util.concurrent.ConcurrentLinkedQueue; // For UI changes waiting for the next frame.
+import java.util.concurrent.ExecutorService; // For loading data off the EDT.
+import java.util.concurrent.RejectedExecutionException; // For reloads requested just as the user logs out.
+import java.util.concurrent.Executors; // For loading data off the EDT.
+import java.util.concurrent.atomic.AtomicBoolean; // For collapsing repeated reload requests.
+import java.util.function.Consumer; // For the trade listener.
 
 /**
  * Represents the main Dashboard Panel for a logged-in user in the Stock Trading Simulator GUI.
@@ -28,9 +33,10 @@ public class DashboardPanel extends JPanel {
     private final OrderService orderService;   // Dependency: Order service for placing orders.
     private final TradeService tradeService;   // Dependency: Trade service (for context, not direct UI interaction here).
     private final PortfolioService portfolioService; // Dependency: Portfolio service for user holdings.
+    private final MarketDataBus marketDataBus; // Dependency: Pushes price and trade ticks for the market table.
 
     // --- Current User Session ---
-    private User currentUser; // The currently logged-in user.
+    private volatile User currentUser; // The currently logged-in user. Set on the EDT, read by the loader and settlement threads.
 
     // --- UI Components ---
     private JLabel welcomeLabel;
@@ -39,8 +45,7 @@ public class DashboardPanel extends JPanel {
 
     // Stock Market Table
     private JTable stockMarketTable;
-    private DefaultTableModel stockMarketTableModel;
-    private ScheduledExecutorService stockUpdateScheduler; // For updating stock table periodically.
+    private KeyedTableModel<Integer> stockMarketTableModel; // Rows keyed by stock ID.
 
     // Order Placement Form
     private JTextField orderSymbolField;
@@ -52,22 +57,39 @@ public class DashboardPanel extends JPanel {
 
     // Portfolio Table
     private JTable portfolioTable;
-    private DefaultTableModel portfolioTableModel;
-    private ScheduledExecutorService portfolioUpdateScheduler; // For updating portfolio table periodically.
+    private KeyedTableModel<String> portfolioTableModel; // Rows keyed by stock symbol.
+    private JLabel portfolioSummaryLabel; // Market value and P&L, from the incrementally maintained PortfolioTracker.
 
     // Order History Table
     private JTable orderHistoryTable;
-    private DefaultTableModel orderHistoryTableModel;
-    private ScheduledExecutorService orderHistoryUpdateScheduler; // For updating order history table periodically.
-
+    private KeyedTableModel<Integer> orderHistoryTableModel; // Rows keyed by order ID.
+    private JButton cancelOrderButton;
 
     // Trade History Table
     private JTable tradeHistoryTable;
-    private DefaultTableModel tradeHistoryTableModel;
-    private ScheduledExecutorService tradeHistoryUpdateScheduler; // For updating trade history table periodically.
+    private KeyedTableModel<Integer> tradeHistoryTableModel; // Rows keyed by trade ID.
+
+    // --- Push-driven updates ---
+    // Nothing is polled. Price ticks come from the market data bus and the user's trades from TradeService; each one
+    // marks what it affects for reloading on a single loader thread, and every resulting change to the tables is
+    // applied on the EDT at most once per frame.
+    private final FrameCoalescer frameCoalescer = new FrameCoalescer();
+    private ExecutorService dataLoader; // Runs database reads off the EDT while a user is logged in.
+    private MarketDataBus.Subscription marketDataSubscription; // Delivers ticks with the next frame while a user is logged in.
+    private final Consumer<List<Trade>> tradeListener = this::onTradesSettled;
+    private final AtomicBoolean stockReloadQueued = new AtomicBoolean();
+    private final AtomicBoolean portfolioReloadQueued = new AtomicBoolean();
+    private final AtomicBoolean valuationReloadQueued = new AtomicBoolean();
+    private final AtomicBoolean orderHistoryReloadQueued = new AtomicBoolean();
+    private final AtomicBoolean tradeHistoryReloadQueued = new AtomicBoolean();
+    private final AtomicBoolean balanceReloadQueued = new AtomicBoolean();
 
     // DateTimeFormatter for displaying timestamps in tables
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int HISTORY_PAGE_SIZE = 50; // Rows per history page; only the page on screen is fetched.
+
+    private final HistoryPager orderHistoryPager = new HistoryPager();
+    private final HistoryPager tradeHistoryPager = new HistoryPager();
 
     /**
      * Constructor for DashboardPanel.
@@ -78,15 +100,18 @@ public class DashboardPanel extends JPanel {
      * @param orderService The OrderService instance.
      * @param tradeService The TradeService instance.
      * @param portfolioService The PortfolioService instance.
+     * @param marketDataBus The MarketDataBus the market table subscribes to.
      */
     public DashboardPanel(MainApplication parentFrame, UserService userService, StockService stockService,
-                          OrderService orderService, TradeService tradeService, PortfolioService portfolioService) {
+                          OrderService orderService, TradeService tradeService, PortfolioService portfolioService,
+                          MarketDataBus marketDataBus) {
         this.parentFrame = parentFrame;
         this.userService = userService;
         this.stockService = stockService;
         this.orderService = orderService;
         this.tradeService = tradeService;
         this.portfolioService = portfolioService;
+        this.marketDataBus = marketDataBus;
 
         setupUI(); // Set up the panel's components.
     }
@@ -126,12 +151,7 @@ public class DashboardPanel extends JPanel {
         leftPanel.setBorder(BorderFactory.createTitledBorder("Market Data & Order Placement"));
 
         // Market Data Table
-        stockMarketTableModel = new DefaultTableModel(new Object[]{"Symbol", "Company", "Price"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table cells non-editable.
-            }
-        };
+        stockMarketTableModel = new KeyedTableModel<>("Symbol", "Company", "Price", "Last Trade");
         stockMarketTable = new JTable(stockMarketTableModel);
         stockMarketTable.setFillsViewportHeight(true); // Table fills the height of its scroll pane.
         JScrollPane stockScrollPane = new JScrollPane(stockMarketTable);
@@ -168,40 +188,39 @@ public class DashboardPanel extends JPanel {
         JTabbedPane historyTabbedPane = new JTabbedPane();
 
         // Portfolio Table
-        portfolioTableModel = new DefaultTableModel(new Object[]{"Symbol", "Company", "Quantity", "Current Price", "Total Value"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        portfolioTableModel = new KeyedTableModel<>("Symbol", "Company", "Quantity", "Current Price", "Total Value");
         portfolioTable = new JTable(portfolioTableModel);
         portfolioTable.setFillsViewportHeight(true);
         JScrollPane portfolioScrollPane = new JScrollPane(portfolioTable);
-        historyTabbedPane.addTab("Portfolio", portfolioScrollPane);
+        portfolioSummaryLabel = new JLabel(" ");
+        JPanel portfolioPanel = new JPanel(new BorderLayout());
+        portfolioPanel.add(portfolioScrollPane, BorderLayout.CENTER);
+        portfolioPanel.add(portfolioSummaryLabel, BorderLayout.SOUTH);
+        historyTabbedPane.addTab("Portfolio", portfolioPanel);
 
         // Order History Table
-        orderHistoryTableModel = new DefaultTableModel(new Object[]{"ID", "Symbol", "Type", "Price", "Qty", "Status", "Timestamp"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        orderHistoryTableModel = new KeyedTableModel<>("ID", "Symbol", "Type", "Price", "Qty", "Status", "Timestamp");
         orderHistoryTable = new JTable(orderHistoryTableModel);
         orderHistoryTable.setFillsViewportHeight(true);
         JScrollPane orderHistoryScrollPane = new JScrollPane(orderHistoryTable);
-        historyTabbedPane.addTab("Order History", orderHistoryScrollPane);
+        JPanel orderHistoryPanel = new JPanel(new BorderLayout());
+        orderHistoryPanel.add(orderHistoryScrollPane, BorderLayout.CENTER);
+        JPanel orderHistoryControls = orderHistoryPager.createControls(() -> reloadLater(orderHistoryReloadQueued, this::updateOrderHistoryTable));
+        cancelOrderButton = new JButton("Cancel Order");
+        cancelOrderButton.setToolTipText("Cancel the selected open order");
+        orderHistoryControls.add(cancelOrderButton, 0);
+        orderHistoryPanel.add(orderHistoryControls, BorderLayout.SOUTH);
+        historyTabbedPane.addTab("Order History", orderHistoryPanel);
 
         // Trade History Table
-        tradeHistoryTableModel = new DefaultTableModel(new Object[]{"ID", "Stock", "Price", "Qty", "Buyer ID", "Seller ID", "Timestamp"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tradeHistoryTableModel = new KeyedTableModel<>("ID", "Stock", "Price", "Qty", "Buyer ID", "Seller ID", "Timestamp");
         tradeHistoryTable = new JTable(tradeHistoryTableModel);
         tradeHistoryTable.setFillsViewportHeight(true);
         JScrollPane tradeHistoryScrollPane = new JScrollPane(tradeHistoryTable);
-        historyTabbedPane.addTab("Trade History", tradeHistoryScrollPane);
+        JPanel tradeHistoryPanel = new JPanel(new BorderLayout());
+        tradeHistoryPanel.add(tradeHistoryScrollPane, BorderLayout.CENTER);
+        tradeHistoryPanel.add(tradeHistoryPager.createControls(() -> reloadLater(tradeHistoryReloadQueued, this::updateTradeHistoryTable)), BorderLayout.SOUTH);
+        historyTabbedPane.addTab("Trade History", tradeHistoryPanel);
 
 
         rightPanel.add(historyTabbedPane, BorderLayout.CENTER);
@@ -212,229 +231,349 @@ public class DashboardPanel extends JPanel {
         // --- Add Action Listeners for Order Buttons ---
         buyButton.addActionListener(e -> placeOrder(Order.OrderType.BUY));
         sellButton.addActionListener(e -> placeOrder(Order.OrderType.SELL));
+        cancelOrderButton.addActionListener(e -> cancelSelectedOrder());
     }
 
     /**
      * Called by MainApplication when a user successfully logs in.
-     * Sets the current user and starts data update schedulers.
+     * Sets the current user, subscribes to market data and trade events, and loads every table once.
      *
      * @param user The logged-in User object.
      */
     public void onUserLoggedIn(User user) {
         this.currentUser = user;
         welcomeLabel.setText("Welcome, " + user.getUsername() + "!");
-        updateBalanceLabel(); // Update balance immediately.
-        startDataUpdateSchedulers(); // Start all background UI updates.
+        startDataUpdates(); // Subscribe to the events that keep the tables current.
         // Initial data load
-        updateStockMarketTable();
-        updatePortfolioTable();
-        updateOrderHistoryTable();
-        updateTradeHistoryTable();
+        reloadLater(balanceReloadQueued, this::updateBalanceLabel);
+        reloadLater(stockReloadQueued, this::updateStockMarketTable);
+        reloadLater(portfolioReloadQueued, this::updatePortfolioTable);
+        reloadLater(valuationReloadQueued, this::updatePortfolioSummary);
+        reloadLater(orderHistoryReloadQueued, this::updateOrderHistoryTable);
+        reloadLater(tradeHistoryReloadQueued, this::updateTradeHistoryTable);
     }
 
     /**
      * Called by MainApplication when a user logs out.
-     * Clears user data and stops data update schedulers.
+     * Clears user data and stops data updates.
      */
     public void onUserLoggedOut() {
         this.currentUser = null;
         welcomeLabel.setText("Welcome, Guest!");
         balanceLabel.setText("Balance: $0.00");
-        stopDataUpdateSchedulers(); // Stop all background UI updates.
+        portfolioSummaryLabel.setText(" ");
+        stopDataUpdates(); // Stop all background UI updates.
         // Clear all table models
-        stockMarketTableModel.setRowCount(0);
-        portfolioTableModel.setRowCount(0);
-        orderHistoryTableModel.setRowCount(0);
-        tradeHistoryTableModel.setRowCount(0);
+        stockMarketTableModel.clear();
+        portfolioTableModel.clear();
+        orderHistoryTableModel.clear();
+        tradeHistoryTableModel.clear();
+        orderHistoryPager.reset();
+        tradeHistoryPager.reset();
         clearOrderForm();
     }
 
     /**
-     * Starts scheduled tasks to periodically update tables and labels.
-     * These updates happen on the EDT via SwingUtilities.invokeLater.
+     * Starts the loader thread and subscribes to price ticks (delivered with the next frame) and to settled trades.
+     */
+    private void startDataUpdates() {
+        dataLoader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dashboard-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        marketDataSubscription = marketDataBus.subscribe("dashboard-" + currentUser.getUsername(), frameCoalescer::post, this::applyMarketTicks);
+        tradeService.addTradeListener(tradeListener);
+    }
+
+    /**
+     * Unsubscribes and stops the loader thread.
      */
-    private void startDataUpdateSchedulers() {
-        // Stock Market Table updates
-        stockUpdateScheduler = Executors.newSingleThreadScheduledExecutor();
-        stockUpdateScheduler.scheduleAtFixedRate(this::updateStockMarketTable, 0, 3, TimeUnit.SECONDS);
-
-        // Portfolio Table updates
-        portfolioUpdateScheduler = Executors.newSingleThreadScheduledExecutor();
-        portfolioUpdateScheduler.scheduleAtFixedRate(this::updatePortfolioTable, 0, 5, TimeUnit.SECONDS);
-
-        // Order History Table updates
-        orderHistoryUpdateScheduler = Executors.newSingleThreadScheduledExecutor();
-        orderHistoryUpdateScheduler.scheduleAtFixedRate(this::updateOrderHistoryTable, 0, 5, TimeUnit.SECONDS);
-
-        // Trade History Table updates
-        tradeHistoryUpdateScheduler = Executors.newSingleThreadScheduledExecutor();
-        tradeHistoryUpdateScheduler.scheduleAtFixedRate(this::updateTradeHistoryTable, 0, 5, TimeUnit.SECONDS);
-
-        // Balance Label updates (can be less frequent or tied to other updates)
-        ScheduledExecutorService balanceScheduler = Executors.newSingleThreadScheduledExecutor();
-        balanceScheduler.scheduleAtFixedRate(this::updateBalanceLabel, 0, 5, TimeUnit.SECONDS);
+    private void stopDataUpdates() {
+        tradeService.removeTradeListener(tradeListener);
+        if (marketDataSubscription != null) {
+            marketDataSubscription.close();
+            marketDataSubscription = null;
+        }
+        if (dataLoader != null) {
+            dataLoader.shutdownNow();
+            dataLoader = null;
+        }
+        // Reloads that were queued on the old loader will never run, so let the next session queue them again.
+        stockReloadQueued.set(false);
+        portfolioReloadQueued.set(false);
+        valuationReloadQueued.set(false);
+        orderHistoryReloadQueued.set(false);
+        tradeHistoryReloadQueued.set(false);
+        balanceReloadQueued.set(false);
+    }
+
+    /**
+     * Queues a reload on the loader thread unless one is already queued, so a burst of events costs one query.
+     */
+    private void reloadLater(AtomicBoolean queued, Runnable reload) {
+        ExecutorService loader = dataLoader;
+        if (loader == null || !queued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            loader.execute(() -> {
+                queued.set(false); // Events from here on need another reload.
+                reload.run();
+            });
+        } catch (RejectedExecutionException e) {
+            queued.set(false); // Logged out meanwhile.
+        }
     }
 
     /**
-     * Stops all scheduled tasks for updating UI data.
+     * Called by TradeService on the settlement thread. Only trades the user took part in change their tables.
      */
-    private void stopDataUpdateSchedulers() {
-        if (stockUpdateScheduler != null) stockUpdateScheduler.shutdownNow();
-        if (portfolioUpdateScheduler != null) portfolioUpdateScheduler.shutdownNow();
-        if (orderHistoryUpdateScheduler != null) orderHistoryUpdateScheduler.shutdownNow();
-        if (tradeHistoryUpdateScheduler != null) tradeHistoryUpdateScheduler.shutdownNow();
-        // Also stop the balance scheduler if it's a separate one.
-        // For simplicity, we can shut down all schedulers here.
-        // A more robust app might manage a single global scheduler for all UI updates.
+    private void onTradesSettled(List<Trade> trades) {
+        User user = currentUser;
+        if (user == null) return;
+        for (Trade trade : trades) {
+            if (trade.getBuyerUserId() == user.getId() || trade.getSellerUserId() == user.getId()) {
+                reloadLater(balanceReloadQueued, this::updateBalanceLabel);
+                reloadLater(portfolioReloadQueued, this::updatePortfolioTable);
+                reloadLater(valuationReloadQueued, this::updatePortfolioSummary);
+                reloadLater(orderHistoryReloadQueued, this::updateOrderHistoryTable);
+                reloadLater(tradeHistoryReloadQueued, this::updateTradeHistoryTable);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the given user is still the one logged in. Checked on the EDT before applying loaded data.
+     */
+    private boolean isCurrentUser(int userId) {
+        User user = currentUser;
+        return user != null && user.getId() == userId;
     }
 
     /**
      * Updates the user's balance label.
-     * Ensures UI update happens on EDT.
+     * Runs on the loader thread; the label changes with the next frame.
      */
     private void updateBalanceLabel() {
-        if (currentUser == null) return;
+        User user = currentUser;
+        if (user == null) return;
         try {
             // Re-fetch user to get latest balance from DB
-            Optional<User> updatedUserOptional = userService.getUserById(currentUser.getId());
+            Optional<User> updatedUserOptional = userService.getUserById(user.getId());
             if (updatedUserOptional.isPresent()) {
-                currentUser = updatedUserOptional.get(); // Update current user object
-                BigDecimal balance = currentUser.getBalance();
-                SwingUtilities.invokeLater(() -> balanceLabel.setText("Balance: $" + balance.setScale(2, BigDecimal.ROUND_HALF_UP)));
+                BigDecimal balance = updatedUserOptional.get().getBalance();
+                frameCoalescer.post(() -> {
+                    if (isCurrentUser(user.getId())) {
+                        balanceLabel.setText("Balance: $" + balance.setScale(2, RoundingMode.HALF_UP));
+                    }
+                });
             }
         } catch (SQLException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating balance: " + e.getMessage()));
+            System.err.println("Error updating balance: " + e.getMessage());
         } catch (IllegalArgumentException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating balance (user not found): " + e.getMessage()));
+            System.err.println("Error updating balance (user not found): " + e.getMessage());
         }
     }
 
     /**
-     * Updates the stock market table with current stock prices.
-     * Ensures UI update happens on EDT.
+     * Reloads the stock market table, e.g. at login or when a newly listed stock ticks.
+     * Runs on the loader thread; the rows are diffed against the table with the next frame.
      */
     private void updateStockMarketTable() {
         try {
-            List<Stock> stocks = stockService.getAllStocks();
-            SwingUtilities.invokeLater(() -> {
-                stockMarketTableModel.setRowCount(0); // Clear existing rows.
+            List<Stock> stocks = stockService.getAllStocks(); // Served from the stock cache.
+            frameCoalescer.post(() -> {
+                if (currentUser == null) return;
+                List<Integer> keys = new ArrayList<>(stocks.size());
+                List<Object[]> rows = new ArrayList<>(stocks.size());
                 for (Stock stock : stocks) {
-                    stockMarketTableModel.addRow(new Object[]{
+                    // Last trades come only from the bus, so carry them over.
+                    Object[] current = stockMarketTableModel.getRow(stock.getId());
+                    keys.add(stock.getId());
+                    rows.add(new Object[]{
                             stock.getSymbol(),
                             stock.getCompanyName(),
-                            stock.getCurrentPrice().setScale(2, BigDecimal.ROUND_HALF_UP)
+                            stock.getCurrentPrice().setScale(2, RoundingMode.HALF_UP),
+                            current != null ? current[3] : null
                     });
                 }
+                stockMarketTableModel.setRows(keys, rows);
             });
         } catch (SQLException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating stock market table: " + e.getMessage()));
+            System.err.println("Error updating stock market table: " + e.getMessage());
         }
     }
 
     /**
-     * Updates the user's portfolio table.
-     * Ensures UI update happens on EDT.
+     * Applies ticks from the market data bus to the market and portfolio tables, updating only the rows that changed.
+     * Runs on the EDT as part of a frame. A tick for a stock not in the table means a stock was listed, so the table is reloaded.
+     */
+    private void applyMarketTicks(List<MarketDataBus.Tick> ticks) {
+        boolean unknownStock = false;
+        boolean holdingRepriced = false;
+        for (MarketDataBus.Tick tick : ticks) {
+            Object[] row = stockMarketTableModel.getRow(tick.getStockId());
+            if (row == null) {
+                unknownStock = true;
+                continue;
+            }
+            if (tick.hasPrice()) {
+                row[2] = tick.getPrice().setScale(2, RoundingMode.HALF_UP);
+                Object[] holding = portfolioTableModel.getRow((String) row[0]);
+                if (holding != null) {
+                    holding[3] = row[2];
+                    holding[4] = tick.getPrice().multiply(BigDecimal.valueOf((Integer) holding[2])).setScale(2, RoundingMode.HALF_UP);
+                    portfolioTableModel.updateRow((String) row[0], holding);
+                    holdingRepriced = true;
+                }
+            }
+            if (tick.hasTrade()) {
+                row[3] = tick.getLastTradePrice().setScale(2, RoundingMode.HALF_UP);
+            }
+            stockMarketTableModel.updateRow(tick.getStockId(), row);
+        }
+        if (unknownStock) {
+            reloadLater(stockReloadQueued, this::updateStockMarketTable);
+        }
+        if (holdingRepriced) {
+            reloadLater(valuationReloadQueued, this::updatePortfolioSummary);
+        }
+    }
+
+    /**
+     * Reloads the user's portfolio table after their holdings change. Prices in between come from the bus.
+     * Runs on the loader thread; the rows are diffed against the table with the next frame.
      */
     private void updatePortfolioTable() {
-        if (currentUser == null) return;
+        User user = currentUser;
+        if (user == null) return;
         try {
-            List<PortfolioService.PortfolioDetail> portfolio = portfolioService.getUserPortfolio(currentUser.getId());
-            SwingUtilities.invokeLater(() -> {
-                portfolioTableModel.setRowCount(0); // Clear existing rows.
-                for (PortfolioService.PortfolioDetail detail : portfolio) {
-                    portfolioTableModel.addRow(new Object[]{
-                            detail.getStockSymbol(),
-                            detail.getCompanyName(),
-                            detail.getQuantity(),
-                            detail.getCurrentPrice().setScale(2, BigDecimal.ROUND_HALF_UP),
-                            detail.getTotalValue().setScale(2, BigDecimal.ROUND_HALF_UP)
-                    });
+            List<PortfolioService.PortfolioDetail> portfolio = portfolioService.getUserPortfolio(user.getId());
+            List<String> keys = new ArrayList<>(portfolio.size());
+            List<Object[]> rows = new ArrayList<>(portfolio.size());
+            for (PortfolioService.PortfolioDetail detail : portfolio) {
+                keys.add(detail.getStockSymbol());
+                rows.add(new Object[]{
+                        detail.getStockSymbol(),
+                        detail.getCompanyName(),
+                        detail.getQuantity(),
+                        detail.getCurrentPrice().setScale(2, RoundingMode.HALF_UP),
+                        detail.getTotalValue().setScale(2, RoundingMode.HALF_UP)
+                });
+            }
+            frameCoalescer.post(() -> {
+                if (isCurrentUser(user.getId())) {
+                    portfolioTableModel.setRows(keys, rows);
                 }
             });
         } catch (SQLException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating portfolio table: " + e.getMessage()));
+            System.err.println("Error updating portfolio table: " + e.getMessage());
         } catch (IllegalArgumentException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating portfolio (user not found): " + e.getMessage()));
+            System.err.println("Error updating portfolio (user not found): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the market value and P&L line under the portfolio table. An in-memory read once the user is tracked.
+     * Runs on the loader thread; the label changes with the next frame.
+     */
+    private void updatePortfolioSummary() {
+        User user = currentUser;
+        if (user == null) return;
+        try {
+            PortfolioTracker.Valuation valuation = portfolioService.getValuation(user.getId());
+            frameCoalescer.post(() -> {
+                if (isCurrentUser(user.getId())) {
+                    portfolioSummaryLabel.setText("Market Value: $" + valuation.getMarketValue().setScale(2, RoundingMode.HALF_UP) +
+                            "   Unrealized P&L: $" + valuation.getUnrealizedPnl().setScale(2, RoundingMode.HALF_UP) +
+                            "   Realized P&L: $" + valuation.getRealizedPnl().setScale(2, RoundingMode.HALF_UP));
+                }
+            });
+        } catch (SQLException | IllegalStateException e) {
+            System.err.println("Error updating portfolio summary: " + e.getMessage());
         }
     }
 
     /**
      * Updates the user's order history table.
-     * Ensures UI update happens on EDT.
+     * Runs on the loader thread; the rows are diffed against the table with the next frame.
      */
     private void updateOrderHistoryTable() {
-        if (currentUser == null) return;
+        User user = currentUser;
+        if (user == null) return;
         try {
-            // Fetch orders for the current user using the new OrderService method.
-            List<Order> orders = orderService.getOrdersByUserId(currentUser.getId());
-            SwingUtilities.invokeLater(() -> {
-                orderHistoryTableModel.setRowCount(0); // Clear existing rows.
-                for (Order order : orders) {
-                    // To display stock symbol, we need to fetch the stock details.
-                    Optional<Stock> orderedStock = null;
-                    try {
-                        orderedStock = stockService.getStockById(order.getStockId());
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
-                    String stockSymbol = orderedStock.isPresent() ? orderedStock.get().getSymbol() : "UNKNOWN";
-
-                    orderHistoryTableModel.addRow(new Object[]{
-                            order.getId(),
-                            stockSymbol, // Display symbol instead of ID
-                            order.getOrderType().name(),
-                            order.getPrice().setScale(2, BigDecimal.ROUND_HALF_UP),
-                            order.getQuantity(),
-                            order.getStatus().name(),
-                            order.getTimestamp() != null ? order.getTimestamp().format(DATE_TIME_FORMATTER) : ""
-                    });
+            // Fetch only the page of orders on screen.
+            Page.Key pageKey = orderHistoryPager.getCurrentKey();
+            Page<Order> page = orderService.getOrdersByUserId(user.getId(), pageKey, HISTORY_PAGE_SIZE);
+            List<Integer> keys = new ArrayList<>(page.getItems().size());
+            List<Object[]> rows = new ArrayList<>(page.getItems().size());
+            for (Order order : page.getItems()) {
+                keys.add(order.getId());
+                rows.add(new Object[]{
+                        order.getId(),
+                        symbolOf(order.getStockId()), // Display symbol instead of ID
+                        order.getOrderType().name(),
+                        order.getPrice().setScale(2, RoundingMode.HALF_UP),
+                        order.getQuantity(),
+                        order.getStatus().name(),
+                        order.getTimestamp() != null ? order.getTimestamp().format(DATE_TIME_FORMATTER) : ""
+                });
+            }
+            frameCoalescer.post(() -> {
+                if (!isCurrentUser(user.getId()) || !orderHistoryPager.showPage(pageKey, page.getNextKey())) {
+                    return; // Logged out, or the user moved to another page while this one was loading.
                 }
+                orderHistoryTableModel.setRows(keys, rows);
             });
         } catch (SQLException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating order history table: " + e.getMessage()));
+            System.err.println("Error updating order history table: " + e.getMessage());
         } catch (IllegalArgumentException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating order history (user not found): " + e.getMessage()));
+            System.err.println("Error updating order history (user not found): " + e.getMessage());
         }
     }
 
     /**
      * Updates the user's trade history table.
-     * Ensures UI update happens on EDT.
+     * Runs on the loader thread; the rows are diffed against the table with the next frame.
      */
     private void updateTradeHistoryTable() {
-        if (currentUser == null) return;
+        User user = currentUser;
+        if (user == null) return;
         try {
-            List<Trade> trades = tradeService.findTradesByUserId(currentUser.getId()); // Fetch trades for current user.
-            SwingUtilities.invokeLater(() -> {
-                tradeHistoryTableModel.setRowCount(0); // Clear existing rows.
-                for (Trade trade : trades) {
-                    // Need to fetch stock symbol for display, as Trade only has stockId.
-                    // This is a common pattern: fetch related data for display.
-                    // For simplicity, we'll just show stock ID for now or fetch symbol.
-                    Optional<Stock> tradedStock = null;
-                    try {
-                        tradedStock = stockService.getStockById(trade.getStockId());
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
-                    String stockSymbol = tradedStock.isPresent() ? tradedStock.get().getSymbol() : "UNKNOWN";
-
-                    tradeHistoryTableModel.addRow(new Object[]{
-                            trade.getId(),
-                            stockSymbol, // Display symbol instead of ID
-                            trade.getPrice().setScale(2, BigDecimal.ROUND_HALF_UP),
-                            trade.getQuantity(),
-                            trade.getBuyerUserId(),
-                            trade.getSellerUserId(),
-                            trade.getTimestamp() != null ? trade.getTimestamp().format(DATE_TIME_FORMATTER) : ""
-                    });
+            // Fetch only the page of trades on screen.
+            Page.Key pageKey = tradeHistoryPager.getCurrentKey();
+            Page<Trade> page = tradeService.findTradesByUserId(user.getId(), pageKey, HISTORY_PAGE_SIZE);
+            List<Integer> keys = new ArrayList<>(page.getItems().size());
+            List<Object[]> rows = new ArrayList<>(page.getItems().size());
+            for (Trade trade : page.getItems()) {
+                keys.add(trade.getId());
+                rows.add(new Object[]{
+                        trade.getId(),
+                        symbolOf(trade.getStockId()), // Display symbol instead of ID
+                        trade.getPrice().setScale(2, RoundingMode.HALF_UP),
+                        trade.getQuantity(),
+                        trade.getBuyerUserId(),
+                        trade.getSellerUserId(),
+                        trade.getTimestamp() != null ? trade.getTimestamp().format(DATE_TIME_FORMATTER) : ""
+                });
+            }
+            frameCoalescer.post(() -> {
+                if (!isCurrentUser(user.getId()) || !tradeHistoryPager.showPage(pageKey, page.getNextKey())) {
+                    return; // Logged out, or the user moved to another page while this one was loading.
                 }
+                tradeHistoryTableModel.setRows(keys, rows);
             });
         } catch (SQLException e) {
-            SwingUtilities.invokeLater(() -> System.err.println("Error updating trade history table: " + e.getMessage()));
+            System.err.println("Error updating trade history table: " + e.getMessage());
         }
     }
 
+    private String symbolOf(int stockId) throws SQLException {
+        Optional<Stock> stock = stockService.getStockById(stockId); // Served from the stock cache.
+        return stock.isPresent() ? stock.get().getSymbol() : "UNKNOWN";
+    }
 
     /**
      * Handles placing a buy or sell order.
@@ -467,10 +606,9 @@ public class DashboardPanel extends JPanel {
                 showOrderMessage("Sell order placed successfully!", Color.BLUE);
             }
             clearOrderForm(); // Clear form on success.
-            // Trigger immediate updates for portfolio and order history after placing an order
-            updateBalanceLabel();
-            updatePortfolioTable();
-            updateOrderHistoryTable();
+            // The new order shows up straight away; fills arrive later as trade events.
+            reloadLater(orderHistoryReloadQueued, this::updateOrderHistoryTable);
+            reloadLater(balanceReloadQueued, this::updateBalanceLabel);
 
         } catch (NumberFormatException e) {
             showOrderMessage("Invalid quantity or price format.", Color.RED);
@@ -483,6 +621,36 @@ public class DashboardPanel extends JPanel {
         }
     }
 
+    /**
+     * Cancels the order selected in the order history table. The engine answers asynchronously;
+     * the tables are refreshed once it has.
+     */
+    private void cancelSelectedOrder() {
+        int row = orderHistoryTable.getSelectedRow();
+        if (currentUser == null || row < 0) {
+            showOrderMessage("Select an open order to cancel.", Color.RED);
+            return;
+        }
+        int orderId = orderHistoryTableModel.getKey(row);
+        try {
+            orderService.cancelOrder(currentUser.getId(), orderId).whenComplete((cancelled, error) -> {
+                if (error != null) {
+                    showOrderMessage("Could not cancel order " + orderId + ": " + error.getMessage(), Color.RED);
+                } else if (cancelled) {
+                    showOrderMessage("Order " + orderId + " cancelled.", Color.BLUE);
+                } else {
+                    showOrderMessage("Order " + orderId + " had already executed.", Color.RED);
+                }
+                reloadLater(orderHistoryReloadQueued, this::updateOrderHistoryTable);
+                reloadLater(balanceReloadQueued, this::updateBalanceLabel);
+            });
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            showOrderMessage("Cancel error: " + e.getMessage(), Color.RED);
+        } catch (SQLException e) {
+            showOrderMessage("Database error cancelling order: " + e.getMessage(), Color.RED);
+        }
+    }
+
     /**
      * Displays a message in the order form's message label.
      * Ensures UI update happens on EDT.
@@ -514,4 +682,114 @@ public class DashboardPanel extends JPanel {
         parentFrame.clearCurrentUser(); // Clear user session in MainApplication.
         parentFrame.showPanel("Login"); // Navigate back to login screen.
     }
+
+    /**
+     * Applies UI changes posted from any thread on the EDT in batches, at most one batch per frame, so a burst of
+     * events becomes one round of row updates and one repaint.
+     */
+    private static class FrameCoalescer {
+        private static final int FRAME_MILLIS = 16; // About 60 frames per second.
+
+        private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean frameQueued = new AtomicBoolean();
+        private final Timer frameTimer = new Timer(FRAME_MILLIS, e -> runFrame());
+
+        FrameCoalescer() {
+            frameTimer.setRepeats(false);
+        }
+
+        void post(Runnable update) {
+            pending.add(update);
+            if (frameQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(frameTimer::restart);
+            }
+        }
+
+        private void runFrame() {
+            frameQueued.set(false);
+            // Only what was posted before this frame began; anything posted while it runs waits for the next one.
+            for (int count = pending.size(); count > 0; count--) {
+                Runnable update = pending.poll();
+                if (update == null) {
+                    break;
+                }
+                try {
+                    update.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error applying dashboard update: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Keyset paging state for a history table: the key the page on screen starts after (null for the newest page),
+     * the keys of the newer pages so the user can step back, and the next key from the latest fetch.
+     * Changed only on the EDT; the loader thread just reads the current key.
+     */
+    private static class HistoryPager {
+        private final List<Page.Key> newerPageKeys = new ArrayList<>();
+        private volatile Page.Key currentKey;
+        private Page.Key nextKey;
+        private final JButton newerButton = new JButton("< Newer");
+        private final JButton olderButton = new JButton("Older >");
+        private final JLabel pageLabel = new JLabel();
+
+        JPanel createControls(Runnable reload) {
+            JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            newerButton.addActionListener(e -> {
+                if (!newerPageKeys.isEmpty()) {
+                    currentKey = newerPageKeys.remove(newerPageKeys.size() - 1);
+                    nextKey = null;
+                    updateControls();
+                    reload.run();
+                }
+            });
+            olderButton.addActionListener(e -> {
+                if (nextKey != null) {
+                    newerPageKeys.add(currentKey);
+                    currentKey = nextKey;
+                    nextKey = null;
+                    updateControls();
+                    reload.run();
+                }
+            });
+            controls.add(newerButton);
+            controls.add(pageLabel);
+            controls.add(olderButton);
+            updateControls();
+            return controls;
+        }
+
+        Page.Key getCurrentKey() {
+            return currentKey;
+        }
+
+        /**
+         * Records the next key from a fetch of the page starting after {@code pageKey}.
+         *
+         * @return false if the user has moved to a different page since, so the fetched rows should be dropped.
+         */
+        boolean showPage(Page.Key pageKey, Page.Key pageNextKey) {
+            if (!Objects.equals(pageKey, currentKey)) {
+                return false;
+            }
+            nextKey = pageNextKey;
+            updateControls();
+            return true;
+        }
+
+        void reset() {
+            newerPageKeys.clear();
+            currentKey = null;
+            nextKey = null;
+            updateControls();
+        }
+
+        private void updateControls() {
+            newerButton.setEnabled(!newerPageKeys.isEmpty());
+            olderButton.setEnabled(nextKey != null);
+            pageLabel.setText("Page " + (newerPageKeys.size() + 1));
+        }
+    }
 }
@@ -1,9 +1,15 @@
 package com.example.stocks;
-import javax.xml.crypto.Data;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 
 public class DatabaseManager {
@@ -13,83 +19,140 @@ public class DatabaseManager {
     private static final String PASSWORD=""; // Default H2 password (empty).
                                              // Again, for learning, this is fine. In production, never empty.
 
+    // Connection pool settings. Every DAO call borrows a connection, so opening one per call was the
+    // most expensive part of most queries; the pool keeps them open and reuses them.
+    private static final int POOL_MIN_SIZE=2;
+    private static final int POOL_MAX_SIZE=16;
+    private static final long POOL_IDLE_TIMEOUT_MS=5*60*1000;
+    private static final long POOL_ACQUIRE_TIMEOUT_MS=10*1000;
+
+    private static volatile ConnectionPool connectionPool;
+
+    // Rows fetched per round trip by the streaming (forEach...) DAO methods.
+    public static final int STREAM_FETCH_SIZE=500;
+
+    // Every schema change, in order. Add new migrations at the end; never edit one that has shipped.
+    private static final List<Migration> MIGRATIONS=Arrays.asList(
+            new CreateTablesMigration(),
+            new AddQueryIndexesMigration(),
+            new AddTradeArchiveMigration(),
+            new AddSettlementProgressMigration()
+    );
+
+    // Indexes the hot queries depend on, checked at startup: {name, table, columns}.
+    private static final List<String[]> REQUIRED_INDEXES=new ArrayList<>();
+    static{
+        REQUIRED_INDEXES.addAll(Arrays.asList(AddQueryIndexesMigration.INDEXES));
+        REQUIRED_INDEXES.addAll(Arrays.asList(AddTradeArchiveMigration.INDEXES));
+    }
+
     private DatabaseManager(){
         // Private constructor to prevent instantiation
     }
 
+    /**
+     * Borrows a connection from the pool. Closing it (e.g. at the end of try-with-resources) returns it to the pool.
+     */
     public static Connection getConnection() throws SQLException{
-        // The DriverManager will automatically find the correct H2 JDBC driver (because you added the JAR).
-        return DriverManager.getConnection(JDBC_URL,USER,PASSWORD);
+        return getConnectionPool().getConnection();
 
     }
-    public static void initializeDatabase() throws SQLException{
-        try(Connection connection=getConnection();// Get a new database connection.
-        Statement statement=connection.createStatement()){ // Create a Statement object to execute SQL commands.
-
-            statement.execute("CREATE TABLE IF NOT EXISTS Users (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "username VARCHAR(255) NOT NULL UNIQUE," + // CORRECTED: Added comma here
-                    "password_hash VARCHAR(255) NOT NULL," +
-                    "balance DECIMAL(19, 4) NOT NULL" +
-                    ")");
-            System.out.println("Table 'Users' checked/created.");
-
-
-            statement.execute("CREATE TABLE IF NOT EXISTS Stocks (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "symbol VARCHAR(10) NOT NULL UNIQUE," +
-                    "company_name VARCHAR(255) NOT NULL," +
-                    "current_price DECIMAL(19, 4) NOT NULL" +
-                    ")");
-            System.out.println("Table 'Stocks' checked/created.");
-
-            statement.execute("CREATE TABLE IF NOT EXISTS Orders (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "user_id INT NOT NULL," +
-                    "stock_id INT NOT NULL," +
-                    "order_type VARCHAR(4) NOT NULL," +
-                    "price DECIMAL(19, 4) NOT NULL," +
-                    "quantity INT NOT NULL," +
-                    "status VARCHAR(20) NOT NULL," +
-                    "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                    "FOREIGN KEY (user_id) REFERENCES Users(id)," +
-                    "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
-                    ")");
-            System.out.println("Table 'Orders' checked/created.");
-
-            statement.execute("CREATE TABLE IF NOT EXISTS Transactions (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "buyer_user_id INT NOT NULL," +
-                    "seller_user_id INT NOT NULL," +
-                    "stock_id INT NOT NULL," +
-                    "price DECIMAL(19, 4) NOT NULL," +
-                    "quantity INT NOT NULL," +
-                    "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                    "FOREIGN KEY (buyer_user_id) REFERENCES Users(id)," +
-                    "FOREIGN KEY (seller_user_id) REFERENCES Users(id)," +
-                    "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
-                    ")");
-            System.out.println("Table 'Transactions' checked/created.");
-
-
-            statement.execute("CREATE TABLE IF NOT EXISTS Portfolios (" +
-                    "user_id INT NOT NULL," +
-                    "stock_id INT NOT NULL," +
-                    "quantity INT NOT NULL," +
-                    "PRIMARY KEY (user_id, stock_id)," +
-                    "FOREIGN KEY (user_id) REFERENCES Users(id)," +
-                    "FOREIGN KEY (stock_id) REFERENCES Stocks(id)" +
-                    ")");
-            System.out.println("Table 'Portfolios' checked/created.");
 
-            System.out.println("Database schema initialized successfully.");
+    public static ConnectionPool getConnectionPool(){
+        ConnectionPool pool=connectionPool;
+        if(pool==null){
+            synchronized (DatabaseManager.class){
+                pool=connectionPool;
+                if(pool==null){
+                    pool=new ConnectionPool(JDBC_URL,USER,PASSWORD,POOL_MIN_SIZE,POOL_MAX_SIZE,POOL_IDLE_TIMEOUT_MS,POOL_ACQUIRE_TIMEOUT_MS);
+                    pool.fillToMinimum();
+                    connectionPool=pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Prepares a forward-only, read-only query for the streaming DAO methods and turns on lazy query execution
+     * for the connection, so H2 produces rows as the ResultSet advances instead of building the whole result
+     * first (unless the query has to sort it). Must be paired with {@link #endStreaming(Connection)} in a
+     * finally block, before the connection goes back to the pool.
+     */
+    static PreparedStatement prepareStreaming(Connection connection, String sql, int fetchSize) throws SQLException{
+        try(Statement stmt=connection.createStatement()){
+            stmt.execute("SET LAZY_QUERY_EXECUTION TRUE");
+        }
+        PreparedStatement stmt=connection.prepareStatement(sql,ResultSet.TYPE_FORWARD_ONLY,ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        return stmt;
+    }
 
+    /**
+     * Turns lazy query execution back off after {@link #prepareStreaming}.
+     */
+    static void endStreaming(Connection connection) throws SQLException{
+        try(Statement stmt=connection.createStatement()){
+            stmt.execute("SET LAZY_QUERY_EXECUTION FALSE");
+        }
+    }
 
+    /**
+     * Closes all pooled connections. Called when the application shuts down.
+     */
+    public static void shutdown(){
+        synchronized (DatabaseManager.class){
+            if(connectionPool!=null){
+                System.out.println("Closing database connection pool: "+connectionPool);
+                connectionPool.shutdown();
+                connectionPool=null;
+            }
+        }
+    }
+    /**
+     * Creates or upgrades the schema by applying pending migrations, then reports any missing index.
+     */
+    public static void initializeDatabase() throws SQLException{
+        try(Connection connection=getConnection()){
+            SchemaMigrator migrator=new SchemaMigrator(MIGRATIONS);
+            int applied=migrator.migrate(connection);
+            System.out.println("Database schema at version "+migrator.getCurrentVersion(connection)+" ("+applied+" migrations applied).");
 
+            List<String> missingIndexes=findMissingIndexes(connection);
+            if(!missingIndexes.isEmpty()){
+                System.err.println("WARNING: Missing database indexes, the affected queries will scan whole tables: "+missingIndexes);
+            }
 
+            System.out.println("Database schema initialized successfully.");
         }catch (SQLException e){
             System.err.println("Error initializing database schema: "+e.getMessage());
             throw e;
         }
     }
+
+    /**
+     * Checks the database metadata for every index the hot queries rely on.
+     *
+     * @return The names of the expected indexes that do not exist (empty if all are present).
+     */
+    public static List<String> findMissingIndexes(Connection connection) throws SQLException{
+        DatabaseMetaData metaData=connection.getMetaData();
+        List<String> missing=new ArrayList<>();
+        for(String[] index: REQUIRED_INDEXES){
+            Set<String> existing=new HashSet<>();
+            // Unquoted identifiers are stored in upper case.
+            try(ResultSet rs=metaData.getIndexInfo(null,null,index[1].toUpperCase(),false,false)){
+                while(rs.next()){
+                    String name=rs.getString("INDEX_NAME");
+                    if(name!=null){
+                        existing.add(name.toUpperCase());
+                    }
+                }
+            }
+            if(!existing.contains(index[0].toUpperCase())){
+                missing.add(index[0]+" ON "+index[1]+" ("+index[2]+")");
+            }
+        }
+        return missing;
+    }
 }
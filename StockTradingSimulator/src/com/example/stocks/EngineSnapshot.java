@@ -0,0 +1,52 @@
+package com.example.stocks;
+
+import java.util.List;
+
+/**
+ * A point-in-time copy of the matching engine's resting orders, one OrderBookImage per stock.
+ * Each book records its own journal position, because shards are snapshotted independently;
+ * {@code baseSequence} is the lowest of them, so replaying the journal after it brings every book up to date.
+ */
+public class EngineSnapshot {
+
+    private final long baseSequence;
+    private final int reconciledUpTo;
+    private final long createdAtMillis;
+    private final List<OrderBookImage> books;
+
+    public EngineSnapshot(long baseSequence, int reconciledUpTo, long createdAtMillis, List<OrderBookImage> books){
+        this.baseSequence=baseSequence;
+        this.reconciledUpTo=reconciledUpTo;
+        this.createdAtMillis=createdAtMillis;
+        this.books=books;
+    }
+
+    public long getBaseSequence(){
+        return baseSequence;
+    }
+    /**
+     * @return The journal's reconciliation point when the snapshot was taken (see EventJournal.appendOrdersReconciled).
+     */
+    public int getReconciledUpTo(){
+        return reconciledUpTo;
+    }
+    public long getCreatedAtMillis(){
+        return createdAtMillis;
+    }
+    public List<OrderBookImage> getBooks(){
+        return books;
+    }
+
+    public int getOrderCount(){
+        int count=0;
+        for(OrderBookImage book: books){
+            count+=book.getOrderCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString(){
+        return "EngineSnapshot{"+"baseSequence="+baseSequence+", books="+books.size()+", orders="+getOrderCount()+'}';
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.stocks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of what the matching engine did, written through memory-mapped segment files.
+ * <p>
+ * Every record gets the next sequence number and is laid out as
+ * {@code [int length][int crc32][byte type][long sequence][payload]}, where the length and CRC cover everything
+ * after the CRC. Segments are preallocated files named after the first sequence they hold
+ * ({@code journal-00000000000000000001.log}); when a record does not fit, the journal rolls to a new segment.
+ * Unwritten space is zero, so a zero length marks the end of a segment. On open, the tail of the newest segment is
+ * checked and a record torn by a crash is discarded.
+ * <p>
+ * Appends are synchronized, so several matching shards can share one journal. A write lands in the OS page cache
+ * as soon as append returns and survives a process crash; force() also makes it survive a power loss.
+ */
+public class EventJournal implements Closeable {
+
+    public static final byte ORDER_ACCEPTED=1;
+    public static final byte FILL=2;
+    public static final byte ORDERS_RECONCILED=3;
+    public static final byte ORDER_CANCELLED=4;
+
+    public static final int DEFAULT_SEGMENT_SIZE=64*1024*1024;
+
+    private static final String SEGMENT_PREFIX="journal-";
+    private static final String SEGMENT_SUFFIX=".log";
+    private static final int HEADER_SIZE=8;       // length + crc
+    private static final int MAX_RECORD_SIZE=128; // Largest record, header included.
+
+    /**
+     * Receives records during replay, in sequence order.
+     */
+    public interface Listener {
+        void onOrderAccepted(long sequence, Order order);
+        void onFill(long sequence, Fill fill);
+        void onOrdersReconciled(long sequence, int upToOrderId);
+        /**
+         * @param openQuantity What the order had open when it was cancelled, or -1 for records written before it was journaled.
+         */
+        void onOrderCancelled(long sequence, int stockId, int orderId, int openQuantity);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ByteBuffer record=ByteBuffer.allocate(MAX_RECORD_SIZE);
+    private final CRC32 crc=new CRC32();
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long lastSequence;
+    private int reconciledUpTo; // Last ORDERS_RECONCILED value appended since the journal was opened.
+    private boolean closed;
+
+    /**
+     * Opens (or creates) the journal in a directory, with the default segment size.
+     */
+    public static EventJournal open(Path directory) throws IOException{
+        return new EventJournal(directory,DEFAULT_SEGMENT_SIZE);
+    }
+
+    public EventJournal(Path directory, int segmentSize) throws IOException{
+        if(segmentSize<MAX_RECORD_SIZE*2){
+            throw new IllegalArgumentException("Journal segment size too small: "+segmentSize);
+        }
+        this.directory=directory;
+        this.segmentSize=segmentSize;
+        Files.createDirectories(directory);
+        List<Long> segments=listSegments();
+        if(segments.isEmpty()){
+            openSegment(1);
+            lastSequence=0;
+        }else{
+            long firstSequence=segments.get(segments.size()-1);
+            openSegment(firstSequence);
+            lastSequence=recoverTail(firstSequence);
+        }
+    }
+
+    /**
+     * @return The sequence of the newest record, or 0 if the journal is empty.
+     */
+    public synchronized long getLastSequence(){
+        return lastSequence;
+    }
+
+    public synchronized long appendOrderAccepted(Order order) throws IOException{
+        ByteBuffer buffer=begin(ORDER_ACCEPTED);
+        buffer.putInt(order.getId());
+        buffer.putInt(order.getUserId());
+        buffer.putInt(order.getStockId());
+        buffer.put((byte)order.getOrderType().ordinal());
+        buffer.putLong(order.getPriceTicks());
+        buffer.putInt(order.getQuantity());
+        buffer.put((byte)order.getStatus().ordinal());
+        LocalDateTime timestamp=order.getTimestamp();
+        buffer.putLong(timestamp!=null? timestamp.toEpochSecond(ZoneOffset.UTC):Long.MIN_VALUE);
+        buffer.putInt(timestamp!=null? timestamp.getNano():0);
+        return commit();
+    }
+
+    public synchronized long appendFill(Fill fill) throws IOException{
+        ByteBuffer buffer=begin(FILL);
+        buffer.putInt(fill.getBuyerUserId());
+        buffer.putInt(fill.getSellerUserId());
+        buffer.putInt(fill.getStockId());
+        buffer.putLong(fill.getPriceTicks());
+        buffer.putInt(fill.getQuantity());
+        putOrderState(buffer,fill.getBuyerOrderState());
+        putOrderState(buffer,fill.getSellerOrderState());
+        return commit();
+    }
+
+    /**
+     * Records that an order was cancelled, with the quantity it still had open.
+     */
+    public synchronized long appendOrderCancelled(Order order) throws IOException{
+        ByteBuffer buffer=begin(ORDER_CANCELLED);
+        buffer.putInt(order.getStockId());
+        buffer.putInt(order.getId());
+        buffer.putInt(order.getQuantity());
+        return commit();
+    }
+
+    /**
+     * Records that every open order with an ID up to {@code upToOrderId} has been journaled,
+     * so a later recovery only has to ask the database about newer orders.
+     */
+    public synchronized long appendOrdersReconciled(int upToOrderId) throws IOException{
+        ByteBuffer buffer=begin(ORDERS_RECONCILED);
+        buffer.putInt(upToOrderId);
+        long sequence=commit();
+        reconciledUpTo=Math.max(reconciledUpTo,upToOrderId);
+        return sequence;
+    }
+
+    public synchronized int getReconciledUpTo(){
+        return reconciledUpTo;
+    }
+
+    /**
+     * Deletes segments whose records all have a sequence at or before {@code sequence}, e.g. once a snapshot covers them.
+     * The segment being written to is never deleted.
+     *
+     * @return The number of segments deleted.
+     */
+    public synchronized int deleteSegmentsBefore(long sequence) throws IOException{
+        List<Long> segments=listSegments();
+        int deleted=0;
+        for(int i=0;i+1<segments.size() && segments.get(i+1)<=sequence+1;i++){
+            Files.deleteIfExists(segmentPath(segments.get(i)));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Replays every record with a sequence greater than {@code afterSequence}, oldest first.
+     *
+     * @throws IOException If a segment cannot be read, the records after {@code afterSequence} have been deleted,
+     * or a record before the newest segment's tail is corrupt.
+     */
+    public void replay(long afterSequence, Listener listener) throws IOException{
+        List<Long> segments;
+        long endSequence;
+        synchronized (this){
+            segments=listSegments();
+            endSequence=lastSequence;
+        }
+        if(!segments.isEmpty() && segments.get(0)>afterSequence+1){
+            throw new IOException("Journal starts at sequence "+segments.get(0)+" and cannot be replayed from "+(afterSequence+1));
+        }
+        CRC32 checksum=new CRC32();
+        for(int i=0;i<segments.size();i++){
+            if(i+1<segments.size() && segments.get(i+1)<=afterSequence+1){
+                continue; // Every record in this segment is at or before afterSequence.
+            }
+            Path path=segmentPath(segments.get(i));
+            try(FileChannel readChannel=FileChannel.open(path,StandardOpenOption.READ)){
+                MappedByteBuffer buffer=readChannel.map(FileChannel.MapMode.READ_ONLY,0,readChannel.size());
+                int position=0;
+                long sequence;
+                while((sequence=readRecord(buffer,position,checksum))>0 && sequence<=endSequence){
+                    int length=buffer.getInt(position);
+                    if(sequence>afterSequence){
+                        dispatch(buffer,position+HEADER_SIZE,length,listener);
+                    }
+                    position+=HEADER_SIZE+length;
+                }
+                boolean lastSegment=i==segments.size()-1;
+                if(!lastSegment && sequence<0){
+                    throw new IOException("Corrupt record at offset "+position+" in journal segment "+path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes every appended record to the storage device.
+     */
+    public synchronized void force(){
+        if(!closed){
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException{
+        if(closed){
+            return;
+        }
+        segment.force();
+        channel.close();
+        closed=true;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "EventJournal{"+"directory="+directory+", lastSequence="+lastSequence+'}';
+    }
+
+    private ByteBuffer begin(byte type) throws IOException{
+        if(closed){
+            throw new IOException("Journal is closed.");
+        }
+        record.clear();
+        record.position(HEADER_SIZE);
+        record.put(type);
+        record.putLong(lastSequence+1);
+        return record;
+    }
+
+    private long commit() throws IOException{
+        int size=record.position();
+        crc.reset();
+        crc.update(record.array(),HEADER_SIZE,size-HEADER_SIZE);
+        record.putInt(0,size-HEADER_SIZE);
+        record.putInt(4,(int)crc.getValue());
+        if(segment.remaining()<size){
+            roll();
+        }
+        record.flip();
+        segment.put(record);
+        return ++lastSequence;
+    }
+
+    private void roll() throws IOException{
+        segment.force();
+        channel.close();
+        openSegment(lastSequence+1);
+    }
+
+    private void openSegment(long firstSequence) throws IOException{
+        channel=FileChannel.open(segmentPath(firstSequence),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        // Mapping past the end of the file grows it to the full (zero-filled) segment size.
+        segment=channel.map(FileChannel.MapMode.READ_WRITE,0,segmentSize);
+    }
+
+    // Finds the end of the newest segment, discarding a torn record, and returns the last valid sequence.
+    private long recoverTail(long firstSequence){
+        int position=0;
+        long lastValid=firstSequence-1;
+        long sequence;
+        while((sequence=readRecord(segment,position,crc))>0){
+            lastValid=sequence;
+            position+=HEADER_SIZE+segment.getInt(position);
+        }
+        if(sequence<0){
+            int end=Math.min(segment.limit(),position+MAX_RECORD_SIZE);
+            for(int i=position;i<end;i++){
+                segment.put(i,(byte)0);
+            }
+            System.err.println("Discarded a torn record at offset "+position+" of journal segment "+segmentPath(firstSequence));
+        }
+        segment.position(position);
+        return lastValid;
+    }
+
+    /**
+     * @return The record's sequence, 0 at the end of the segment, or -1 if the record is corrupt.
+     */
+    private static long readRecord(ByteBuffer buffer, int position, CRC32 checksum){
+        if(position+HEADER_SIZE>buffer.limit()){
+            return 0;
+        }
+        int length=buffer.getInt(position);
+        if(length==0){
+            return 0;
+        }
+        if(length<9 || length>MAX_RECORD_SIZE-HEADER_SIZE || position+HEADER_SIZE+length>buffer.limit()){
+            return -1;
+        }
+        checksum.reset();
+        for(int i=position+HEADER_SIZE;i<position+HEADER_SIZE+length;i++){
+            checksum.update(buffer.get(i));
+        }
+        if((int)checksum.getValue()!=buffer.getInt(position+4)){
+            return -1;
+        }
+        return buffer.getLong(position+HEADER_SIZE+1);
+    }
+
+    private static void dispatch(ByteBuffer buffer, int position, int length, Listener listener){
+        ByteBuffer record=buffer.duplicate();
+        record.position(position);
+        record.limit(position+length);
+        byte type=record.get();
+        long sequence=record.getLong();
+        switch (type){
+            case ORDER_ACCEPTED:
+                int id=record.getInt();
+                int userId=record.getInt();
+                int stockId=record.getInt();
+                Order.OrderType orderType=Order.OrderType.values()[record.get()];
+                long priceTicks=record.getLong();
+                int quantity=record.getInt();
+                Order.OrderStatus status=Order.OrderStatus.values()[record.get()];
+                long epochSecond=record.getLong();
+                int nano=record.getInt();
+                LocalDateTime timestamp=epochSecond==Long.MIN_VALUE? null:LocalDateTime.ofEpochSecond(epochSecond,nano,ZoneOffset.UTC);
+                listener.onOrderAccepted(sequence,new Order(id,userId,stockId,orderType,Prices.toBigDecimal(priceTicks),quantity,status,timestamp));
+                break;
+            case FILL:
+                int buyerUserId=record.getInt();
+                int sellerUserId=record.getInt();
+                int fillStockId=record.getInt();
+                long fillPriceTicks=record.getLong();
+                int fillQuantity=record.getInt();
+                OrderStateChange buyerState=getOrderState(record);
+                OrderStateChange sellerState=getOrderState(record);
+                listener.onFill(sequence,new Fill(buyerUserId,sellerUserId,fillStockId,fillPriceTicks,fillQuantity,buyerState,sellerState));
+                break;
+            case ORDERS_RECONCILED:
+                listener.onOrdersReconciled(sequence,record.getInt());
+                break;
+            case ORDER_CANCELLED:
+                int cancelledStockId=record.getInt();
+                int cancelledOrderId=record.getInt();
+                listener.onOrderCancelled(sequence,cancelledStockId,cancelledOrderId,record.hasRemaining()? record.getInt():-1);
+                break;
+            default:
+                System.err.println("Skipping unknown journal record type "+type+" at sequence "+sequence);
+        }
+    }
+
+    private static void putOrderState(ByteBuffer buffer, OrderStateChange change){
+        buffer.putInt(change.getOrderId());
+        buffer.put((byte)change.getStatus().ordinal());
+        buffer.putInt(change.getRemainingQuantity());
+    }
+
+    private static OrderStateChange getOrderState(ByteBuffer buffer){
+        int orderId=buffer.getInt();
+        Order.OrderStatus status=Order.OrderStatus.values()[buffer.get()];
+        return new OrderStateChange(orderId,status,buffer.getInt());
+    }
+
+    private List<Long> listSegments() throws IOException{
+        List<Long> segments=new ArrayList<>();
+        try(DirectoryStream<Path> stream=Files.newDirectoryStream(directory,SEGMENT_PREFIX+"*"+SEGMENT_SUFFIX)){
+            for(Path path: stream){
+                String name=path.getFileName().toString();
+                try{
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),name.length()-SEGMENT_SUFFIX.length())));
+                }catch (NumberFormatException e){
+                    System.err.println("Ignoring unexpected file in journal directory: "+name);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long firstSequence){
+        return directory.resolve(String.format("%s%020d%s",SEGMENT_PREFIX,firstSequence,SEGMENT_SUFFIX));
+    }
+}
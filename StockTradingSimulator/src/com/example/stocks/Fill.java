@@ -0,0 +1,85 @@
+package com.example.stocks;
+
+/**
+ * One match produced by the order matching engine: a quantity of a stock crossing between
+ * a buy order and a sell order at a fixed-point price (see Prices), together with the state
+ * both orders were left in. Fills are immutable so they can be settled on another thread.
+ * TradeService settles fills into balances, portfolios, order rows and a Transactions row.
+ */
+public class Fill {
+
+    private final int buyerUserId;
+    private final int sellerUserId;
+    private final int stockId;
+    private final long priceTicks;
+    private final int quantity;
+    private final OrderStateChange buyerOrderState;
+    private final OrderStateChange sellerOrderState;
+
+    public Fill(int buyerUserId, int sellerUserId, int stockId, long priceTicks, int quantity,
+                OrderStateChange buyerOrderState, OrderStateChange sellerOrderState){
+        this.buyerUserId=buyerUserId;
+        this.sellerUserId=sellerUserId;
+        this.stockId=stockId;
+        this.priceTicks=priceTicks;
+        this.quantity=quantity;
+        this.buyerOrderState=buyerOrderState;
+        this.sellerOrderState=sellerOrderState;
+    }
+
+    /**
+     * Applies a match to both orders and returns the resulting fill.
+     * A full fill marks an order EXECUTED (keeping its original quantity for history);
+     * a partial fill marks it PARTIAL_FILL and reduces its remaining quantity.
+     */
+    public static Fill apply(Order buyerOrder, Order sellerOrder, long priceTicks, int quantity){
+        applyToOrder(buyerOrder,quantity);
+        applyToOrder(sellerOrder,quantity);
+        return new Fill(buyerOrder.getUserId(),sellerOrder.getUserId(),buyerOrder.getStockId(),priceTicks,quantity,
+                OrderStateChange.of(buyerOrder),OrderStateChange.of(sellerOrder));
+    }
+
+    private static void applyToOrder(Order order, int executedQuantity){
+        if(executedQuantity==order.getQuantity()){
+            order.setStatus(Order.OrderStatus.EXECUTED);
+        }else{
+            order.setStatus(Order.OrderStatus.PARTIAL_FILL);
+            order.setQuantity(order.getQuantity()-executedQuantity);
+        }
+    }
+
+    public int getBuyerUserId(){
+        return buyerUserId;
+    }
+    public int getSellerUserId(){
+        return sellerUserId;
+    }
+    public int getStockId(){
+        return stockId;
+    }
+    public long getPriceTicks(){
+        return priceTicks;
+    }
+    public int getQuantity(){
+        return quantity;
+    }
+    public OrderStateChange getBuyerOrderState(){
+        return buyerOrderState;
+    }
+    public OrderStateChange getSellerOrderState(){
+        return sellerOrderState;
+    }
+
+    /**
+     * @return price * quantity in ticks: what the buyer pays and the seller receives.
+     */
+    public long getNotionalTicks(){
+        return Prices.notional(priceTicks,quantity);
+    }
+
+    @Override
+    public String toString(){
+        return "Fill{"+"buyOrderId="+buyerOrderState.getOrderId()+", sellOrderId="+sellerOrderState.getOrderId()+", stockId="+stockId+
+                ", price="+Prices.toBigDecimal(priceTicks)+", quantity="+quantity+'}';
+    }
+}
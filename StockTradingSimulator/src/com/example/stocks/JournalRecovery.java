@@ -0,0 +1,240 @@
+package com.example.stocks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the set of resting orders by replaying the EventJournal, optionally starting from an EngineSnapshot.
+ * Accepted orders are added in journal order (which is time priority within each stock),
+ * fills bring their remaining quantity up to date, and orders that were executed or cancelled are dropped.
+ * It also works out the highest order ID below which every open order is known to be journaled,
+ * so only newer orders have to be read back from the database.
+ * <p>
+ * Given how far the database has settled each stock (see setSettledSequences), it also collects the fills and cancels
+ * journaled after that point, in journal order: the database never saw them, so they have to be settled again.
+ */
+public class JournalRecovery implements EventJournal.Listener {
+
+    private final Map<Integer, Order> openOrders=new LinkedHashMap<>();
+    private final Map<Integer, Order> orders=new HashMap<>(); // Every order seen, open or not, so unsettled fills can name theirs.
+    private final BitSet journaledOrderIds=new BitSet();
+    // Journal position already reflected in the snapshot, per stock. Records at or before it are skipped.
+    private final Map<Integer, Long> bookSequences=new HashMap<>();
+    private long replayFrom;
+    private int reconciledUpTo;
+    private long recordsReplayed;
+    // Last journal sequence the database has settled, per stock and for every stock. Until set, everything counts as settled.
+    private Map<Integer, Long> settledSequences=new HashMap<>();
+    private long settledFloor=Long.MAX_VALUE;
+    private final List<Unsettled> unsettled=new ArrayList<>();
+
+    public JournalRecovery(){
+    }
+
+    /**
+     * Starts from a snapshot: its resting orders are the initial state, and only later journal records are applied.
+     */
+    public JournalRecovery(EngineSnapshot snapshot){
+        this.replayFrom=snapshot.getBaseSequence();
+        this.reconciledUpTo=snapshot.getReconciledUpTo();
+        for(OrderBookImage book: snapshot.getBooks()){
+            bookSequences.put(book.getStockId(),book.getJournalSequence());
+            for(Order order: book.toOrders()){
+                addRecoveredOrder(order);
+            }
+        }
+    }
+
+    /**
+     * Sets how far the database has settled each stock, as kept in Settlement_Progress. Call before replaying.
+     */
+    public void setSettledSequences(Map<Integer, Long> settledSequences){
+        this.settledSequences=new HashMap<>(settledSequences);
+        Long floor=this.settledSequences.get(TradeDAO.ALL_STOCKS);
+        this.settledFloor=floor!=null? floor:0;
+    }
+
+    /**
+     * @return The journal sequence to replay after.
+     */
+    public long getReplayFrom(){
+        return replayFrom;
+    }
+
+    @Override
+    public void onOrderAccepted(long sequence, Order order){
+        if(isInSnapshot(order.getStockId(),sequence)){
+            return;
+        }
+        recordsReplayed++;
+        journaledOrderIds.set(order.getId());
+        orders.put(order.getId(),order);
+        if(isOpen(order.getStatus())){
+            openOrders.put(order.getId(),order);
+        }else{
+            openOrders.remove(order.getId());
+        }
+    }
+
+    @Override
+    public void onFill(long sequence, Fill fill){
+        if(isInSnapshot(fill.getStockId(),sequence)){
+            return;
+        }
+        recordsReplayed++;
+        apply(fill.getBuyerOrderState());
+        apply(fill.getSellerOrderState());
+        if(isUnsettled(fill.getStockId(),sequence)){
+            unsettled.add(new Unsettled(sequence,fill.getStockId(),fill,null,
+                    orders.get(fill.getBuyerOrderState().getOrderId()),orders.get(fill.getSellerOrderState().getOrderId())));
+        }
+    }
+
+    @Override
+    public void onOrdersReconciled(long sequence, int upToOrderId){
+        recordsReplayed++;
+        reconciledUpTo=Math.max(reconciledUpTo,upToOrderId);
+    }
+
+    @Override
+    public void onOrderCancelled(long sequence, int stockId, int orderId, int openQuantity){
+        if(isInSnapshot(stockId,sequence)){
+            return;
+        }
+        recordsReplayed++;
+        openOrders.remove(orderId);
+        Order order=orders.get(orderId);
+        int quantity=openQuantity>=0 || order==null? openQuantity:order.getQuantity();
+        if(order!=null){
+            order.setStatus(Order.OrderStatus.CANCELLED);
+            order.setQuantity(quantity);
+        }
+        if(quantity>=0 && isUnsettled(stockId,sequence)){
+            unsettled.add(new Unsettled(sequence,stockId,null,new OrderStateChange(orderId,Order.OrderStatus.CANCELLED,quantity),null,null));
+        }
+    }
+
+    /**
+     * Records an order read from the database after replay, so it is part of the recovered state.
+     */
+    public void addRecoveredOrder(Order order){
+        journaledOrderIds.set(order.getId());
+        orders.put(order.getId(),order);
+        openOrders.put(order.getId(),order);
+    }
+
+    public boolean isJournaled(int orderId){
+        return journaledOrderIds.get(orderId);
+    }
+
+    /**
+     * @return The highest order ID such that every order at or below it is either reconciled or journaled.
+     * Orders saved after this ID may have been lost between the database insert and the journal append.
+     */
+    public int getWatermark(){
+        return journaledOrderIds.nextClearBit(reconciledUpTo+1)-1;
+    }
+
+    /**
+     * @return The highest order ID seen, used for the next ORDERS_RECONCILED record.
+     */
+    public int getHighestOrderId(){
+        return Math.max(reconciledUpTo,journaledOrderIds.length()-1);
+    }
+
+    /**
+     * @return The recovered resting orders, oldest first.
+     */
+    public List<Order> getOpenOrders(){
+        return new ArrayList<>(openOrders.values());
+    }
+
+    public long getRecordsReplayed(){
+        return recordsReplayed;
+    }
+
+    /**
+     * @return The replayed fills and cancels the database has not settled, in journal order.
+     */
+    public List<Unsettled> getUnsettled(){
+        return new ArrayList<>(unsettled);
+    }
+
+    private boolean isInSnapshot(int stockId, long sequence){
+        Long bookSequence=bookSequences.get(stockId);
+        return bookSequence!=null && sequence<=bookSequence;
+    }
+
+    private boolean isUnsettled(int stockId, long sequence){
+        Long settled=settledSequences.get(stockId);
+        return sequence>Math.max(settledFloor,settled!=null? settled:0);
+    }
+
+    private void apply(OrderStateChange change){
+        Order order=orders.get(change.getOrderId());
+        if(order==null){
+            return;
+        }
+        // Closed orders are updated too, so an unsettled fill hands back its orders as the matching shard left them.
+        order.setStatus(change.getStatus());
+        order.setQuantity(change.getRemainingQuantity());
+        if(!isOpen(change.getStatus())){
+            openOrders.remove(change.getOrderId());
+        }
+    }
+
+    private static boolean isOpen(Order.OrderStatus status){
+        return status==Order.OrderStatus.PENDING || status==Order.OrderStatus.PARTIAL_FILL;
+    }
+
+    /**
+     * A replayed fill or cancel that has to be settled again. The orders of a fill are the recovered ones,
+     * or null if the journal no longer holds them.
+     */
+    public static final class Unsettled {
+        private final long sequence;
+        private final int stockId;
+        private final Fill fill;
+        private final OrderStateChange orderState;
+        private final Order buyerOrder;
+        private final Order sellerOrder;
+
+        private Unsettled(long sequence, int stockId, Fill fill, OrderStateChange orderState, Order buyerOrder, Order sellerOrder){
+            this.sequence=sequence;
+            this.stockId=stockId;
+            this.fill=fill;
+            this.orderState=orderState;
+            this.buyerOrder=buyerOrder;
+            this.sellerOrder=sellerOrder;
+        }
+
+        public long getSequence(){
+            return sequence;
+        }
+        public int getStockId(){
+            return stockId;
+        }
+        /**
+         * @return The fill, or null if this is a cancel.
+         */
+        public Fill getFill(){
+            return fill;
+        }
+        /**
+         * @return The cancelled order's final state, or null if this is a fill.
+         */
+        public OrderStateChange getOrderState(){
+            return orderState;
+        }
+        public Order getBuyerOrder(){
+            return buyerOrder;
+        }
+        public Order getSellerOrder(){
+            return sellerOrder;
+        }
+    }
+}
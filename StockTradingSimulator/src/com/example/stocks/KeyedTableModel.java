@@ -0,0 +1,145 @@
+package com.example.stocks;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only table model whose rows are identified by a key (a stock or order ID, say), so new data can be applied as
+ * row-level changes instead of clearing and refilling the table.
+ * <p>
+ * {@link #setRows} compares the new rows with the current ones and fires an update only for rows whose values changed.
+ * Rows added at the top (the newest first order of the history tables) or the bottom, and rows dropped from the bottom,
+ * are fired as inserts and deletes; any other reshuffle falls back to a full data change. {@link #updateRow} changes a
+ * single row in place. Use only on the EDT, like any Swing model.
+ *
+ * @param <K> The row key type.
+ */
+public class KeyedTableModel<K> extends AbstractTableModel {
+
+    private static final long serialVersionUID=1L;
+
+    private final String[] columnNames;
+    private final List<K> keys=new ArrayList<>();
+    private final List<Object[]> rows=new ArrayList<>();
+    private final Map<K, Integer> rowIndex=new HashMap<>();
+
+    public KeyedTableModel(String... columnNames){
+        this.columnNames=columnNames.clone();
+    }
+
+    @Override
+    public int getRowCount(){
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount(){
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column){
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column){
+        return rows.get(row)[column];
+    }
+
+    public K getKey(int row){
+        return keys.get(row);
+    }
+
+    /**
+     * @return A copy of the row's values, or null if there is no row with this key.
+     */
+    public Object[] getRow(K key){
+        Integer row=rowIndex.get(key);
+        return row!=null? rows.get(row).clone():null;
+    }
+
+    /**
+     * Replaces the row with this key, firing an update only if a value changed.
+     *
+     * @return false if there is no row with this key.
+     */
+    public boolean updateRow(K key, Object[] values){
+        Integer row=rowIndex.get(key);
+        if(row==null){
+            return false;
+        }
+        if(!Arrays.equals(rows.get(row),values)){
+            rows.set(row,values.clone());
+            fireTableRowsUpdated(row,row);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces every row, firing the smallest set of row events that describes the change.
+     *
+     * @param newKeys The keys of the new rows, in display order and without duplicates.
+     * @param newRows The values of each new row.
+     */
+    public void setRows(List<K> newKeys, List<Object[]> newRows){
+        if(newKeys.size()!=newRows.size()){
+            throw new IllegalArgumentException("Every row needs a key.");
+        }
+        int oldSize=keys.size();
+        int offset=oldSize==0? newKeys.size():newKeys.indexOf(keys.get(0)); // Where the old first row is now.
+        int kept=offset<0? 0:Math.min(oldSize,newKeys.size()-offset);
+        for(int i=0;i<kept;i++){
+            if(!keys.get(i).equals(newKeys.get(offset+i))){
+                offset=-1;
+                break;
+            }
+        }
+        if(offset<0){
+            replaceAll(newKeys,newRows);
+            fireTableDataChanged();
+            return;
+        }
+        List<Object[]> oldRows=new ArrayList<>(rows.subList(0,kept));
+        replaceAll(newKeys,newRows);
+        if(oldSize>kept){
+            fireTableRowsDeleted(kept,oldSize-1); // Dropped from the bottom.
+        }
+        if(offset>0){
+            fireTableRowsInserted(0,offset-1); // New at the top.
+        }
+        if(newKeys.size()>offset+kept){
+            fireTableRowsInserted(offset+kept,newKeys.size()-1); // New at the bottom.
+        }
+        for(int i=0;i<kept;i++){
+            if(!Arrays.equals(oldRows.get(i),rows.get(offset+i))){
+                fireTableRowsUpdated(offset+i,offset+i);
+            }
+        }
+    }
+
+    public void clear(){
+        int oldSize=rows.size();
+        keys.clear();
+        rows.clear();
+        rowIndex.clear();
+        if(oldSize>0){
+            fireTableRowsDeleted(0,oldSize-1);
+        }
+    }
+
+    private void replaceAll(List<K> newKeys, List<Object[]> newRows){
+        keys.clear();
+        rows.clear();
+        rowIndex.clear();
+        for(int i=0;i<newKeys.size();i++){
+            keys.add(newKeys.get(i));
+            rows.add(newRows.get(i).clone());
+            rowIndex.put(newKeys.get(i),i);
+        }
+    }
+}
@@ -2,7 +2,10 @@ package com.example.stocks;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.sql.SQLException;
 public class MainApplication extends JFrame{
     private UserService userService;
@@ -12,6 +15,10 @@ public class MainApplication extends JFrame{
     private PortfolioService portfolioService;
     private MarketDataSimulator marketDataSimulator;
     private OrderMatchingEngine orderMatchingEngine;
+    private TradeArchiver tradeArchiver;
+    private TradeTapeExporter tradeTapeExporter;
+    private TickStore tickStore;
+    private MarketDataBus marketDataBus;
     private CardLayout cardLayout; // Manages switching between different panels (e.g., login, dashboard).
     private JPanel mainPanel; // The panel that uses CardLayout to hold other panels.
     private User currentUser; // Stores the currently logged-in user.
@@ -19,6 +26,8 @@ public class MainApplication extends JFrame{
     private LoginPanel loginPanel;
     private RegistrationPanel registrationPanel;
     private DashboardPanel dashboardPanel;
+
+    private static final long TRADE_HOT_RETENTION_DAYS=30;
     public MainApplication(){
         super("Real-time Stock Trading Simulator");
         initializeApplication();
@@ -42,18 +51,52 @@ public class MainApplication extends JFrame{
             // 3. Initialize Services (injecting DAOs)
             userService = new UserService(userDAO);
             stockService = new StockService(stockDAO);
-            // OrderService needs PortfolioDAO now for sell order validation
-            orderService = new OrderService(orderDAO, userDAO, stockDAO);
+            // OrderService and PortfolioService look stocks up through StockService and its cache.
+            orderService = new OrderService(orderDAO, userDAO, stockService);
             tradeService = new TradeService(userDAO, stockDAO, orderDAO, tradeDAO, portfolioDAO);
-            portfolioService = new PortfolioService(portfolioDAO, userDAO, stockDAO);
+            portfolioService = new PortfolioService(portfolioDAO, userDAO, stockService);
+            // Positions and P&L are updated as trades settle and prices tick instead of being recomputed on every read.
+            PortfolioTracker portfolioTracker = new PortfolioTracker(tradeService, stockService);
+            tradeService.setPortfolioTracker(portfolioTracker);
+            portfolioService.setPortfolioTracker(portfolioTracker);
+            // Cash and shares are reserved in memory when an order is accepted and released when it fills or is cancelled.
+            AccountLedger accountLedger = new AccountLedger(userDAO, portfolioDAO);
+            orderService.setAccountLedger(accountLedger);
             System.out.println("Services initialized.");
 
             // 4. Start Background Threads (injecting services)
+            try{
+                tickStore=new TickStore(Paths.get("data","candles")); // OHLCV candles from simulated prices and trades.
+                tickStore.start();
+            }catch (IOException e){
+                System.err.println("Could not open tick store, running without price history: "+e.getMessage());
+                tickStore=null;
+            }
+            tradeService.setTickStore(tickStore);
+            marketDataBus=new MarketDataBus(); // Prices and trades are pushed to the dashboard rather than polled.
+            tradeService.setMarketDataBus(marketDataBus);
             marketDataSimulator=new MarketDataSimulator(stockService);
+            marketDataSimulator.setPortfolioTracker(portfolioTracker);
+            marketDataSimulator.setTickStore(tickStore);
+            marketDataSimulator.setMarketDataBus(marketDataBus);
             marketDataSimulator.startSimulation(); // Start price updates.
 
-            orderMatchingEngine=new OrderMatchingEngine(orderService, tradeService, stockService);
+            EventJournal journal=null;
+            SnapshotStore snapshotStore=null;
+            try{
+                journal=EventJournal.open(Paths.get("data","journal")); // Lives next to the H2 files in ./data.
+                snapshotStore=new SnapshotStore(Paths.get("data","snapshots"));
+            }catch (IOException e){
+                System.err.println("Could not open event journal or snapshots, running without them: "+e.getMessage());
+            }
+            orderMatchingEngine=new OrderMatchingEngine(orderService, tradeService, stockService, journal, snapshotStore);
+            orderService.setOrderMatchingEngine(orderMatchingEngine); // New orders go straight into the resident order books.
+            orderMatchingEngine.setAccountLedger(accountLedger);
             orderMatchingEngine.startEngine();
+            tradeArchiver=new TradeArchiver(tradeDAO, Duration.ofDays(TRADE_HOT_RETENTION_DAYS));
+            tradeArchiver.start(); // Moves old trades out of the hot Transactions table.
+            tradeTapeExporter=new TradeTapeExporter(tradeDAO, Paths.get("data","tape"));
+            tradeTapeExporter.start(); // Columnar copy of trade history for analytics (read with TradeTapeReader).
             System.out.println("Background engines started");
 
             // 5. Add some initial stocks if the database is empty (for testing)
@@ -102,9 +145,19 @@ public class MainApplication extends JFrame{
                     if(marketDataSimulator!=null){
                         marketDataSimulator.stopSimulation();
                     }
+                    if(tradeArchiver!=null){
+                        tradeArchiver.stop();
+                    }
+                    if(tradeTapeExporter!=null){
+                        tradeTapeExporter.stop();
+                    }
                     if(orderMatchingEngine!=null){
                         orderMatchingEngine.stopEngine();
                     }
+                    if(tickStore!=null){
+                        tickStore.stop(); // After the engines, so their last prices and trades are written.
+                    }
+                    DatabaseManager.shutdown();
                 System.out.println("Background engines stopped. Goodbye!");
             }
 
@@ -115,7 +168,7 @@ public class MainApplication extends JFrame{
 
     public void showPanel(String panelName){
         if("Dashboard".equals(panelName) && dashboardPanel==null){
-            dashboardPanel=new DashboardPanel(this, userService,stockService,orderService,tradeService,portfolioService);
+            dashboardPanel=new DashboardPanel(this, userService,stockService,orderService,tradeService,portfolioService,marketDataBus);
             mainPanel.add(dashboardPanel,"Dashboard");
             System.out.println("DashboardPanel initialized and added.");
         }
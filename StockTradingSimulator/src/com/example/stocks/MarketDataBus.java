@@ -0,0 +1,261 @@
+package com.example.stocks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process publish/subscribe for market data, so consumers are pushed price changes instead of polling the database.
+ * <p>
+ * MarketDataSimulator publishes each new price and TradeService each committed trade. Every subscriber has its own
+ * pending map of one Tick per stock: publishing merges into it (the newest price wins and traded volume adds up) and,
+ * if no delivery is queued, queues one on the subscriber's executor. A delivery takes everything pending at that moment
+ * as one batch. So a slow subscriber is never sent more than one tick per stock per batch, its backlog is bounded by
+ * the number of stocks, and publishing never waits on any subscriber.
+ * <p>
+ * Deliveries to one subscriber never overlap, whatever executor it uses, so listeners need no locking of their own.
+ */
+public class MarketDataBus {
+
+    /**
+     * Receives conflated ticks, at most one per stock per call.
+     */
+    public interface Listener {
+        void onTicks(List<Tick> ticks);
+    }
+
+    private final List<Subscription> subscriptions=new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes with a dedicated daemon delivery thread, closed with the subscription.
+     */
+    public Subscription subscribe(String name, Listener listener){
+        ExecutorService executor=Executors.newSingleThreadExecutor(runnable->{
+            Thread thread=new Thread(runnable,"market-data-"+name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        return add(new Subscription(name,executor,executor,listener));
+    }
+
+    /**
+     * Subscribes with deliveries run on the given executor, e.g. {@code SwingUtilities::invokeLater} for the EDT.
+     */
+    public Subscription subscribe(String name, Executor executor, Listener listener){
+        return add(new Subscription(name,executor,null,listener));
+    }
+
+    private Subscription add(Subscription subscription){
+        subscriptions.add(subscription);
+        System.out.println("Market data subscriber added: "+subscription.name);
+        return subscription;
+    }
+
+    /**
+     * Publishes new market prices.
+     *
+     * @param priceTicksByStockId New prices in ticks (see Prices), by stock ID.
+     */
+    public void publishPrices(Map<Integer, Long> priceTicksByStockId){
+        long now=System.currentTimeMillis();
+        for(Map.Entry<Integer, Long> entry: priceTicksByStockId.entrySet()){
+            publish(new Tick(entry.getKey(),entry.getValue(),0,0,now));
+        }
+    }
+
+    /**
+     * Publishes committed trades as last-trade prices and volume.
+     */
+    public void publishTrades(List<Trade> trades){
+        long now=System.currentTimeMillis();
+        for(Trade trade: trades){
+            publish(new Tick(trade.getStockId(),0,trade.getPriceTicks(),trade.getQuantity(),now));
+        }
+    }
+
+    public void publish(Tick tick){
+        for(Subscription subscription: subscriptions){
+            subscription.offer(tick);
+        }
+    }
+
+    public int getSubscriberCount(){
+        return subscriptions.size();
+    }
+
+    /**
+     * One stock's market data since the subscriber's last delivery. A price of 0 means it has not changed in that time.
+     */
+    public static final class Tick {
+        private final int stockId;
+        private final long priceTicks;
+        private final long lastTradeTicks;
+        private final long volume;
+        private final long timeMillis;
+
+        public Tick(int stockId, long priceTicks, long lastTradeTicks, long volume, long timeMillis){
+            this.stockId=stockId;
+            this.priceTicks=priceTicks;
+            this.lastTradeTicks=lastTradeTicks;
+            this.volume=volume;
+            this.timeMillis=timeMillis;
+        }
+
+        // Folds a newer tick for the same stock into this one.
+        private Tick merge(Tick newer){
+            return new Tick(stockId,newer.priceTicks!=0? newer.priceTicks:priceTicks,
+                    newer.lastTradeTicks!=0? newer.lastTradeTicks:lastTradeTicks,volume+newer.volume,newer.timeMillis);
+        }
+
+        public int getStockId(){
+            return stockId;
+        }
+        public boolean hasPrice(){
+            return priceTicks!=0;
+        }
+        public long getPriceTicks(){
+            return priceTicks;
+        }
+        public BigDecimal getPrice(){
+            return Prices.toBigDecimal(priceTicks);
+        }
+        public boolean hasTrade(){
+            return lastTradeTicks!=0;
+        }
+        public long getLastTradeTicks(){
+            return lastTradeTicks;
+        }
+        public BigDecimal getLastTradePrice(){
+            return Prices.toBigDecimal(lastTradeTicks);
+        }
+        /**
+         * @return Shares traded across every trade folded into this tick.
+         */
+        public long getVolume(){
+            return volume;
+        }
+        public long getTimeMillis(){
+            return timeMillis;
+        }
+
+        @Override
+        public String toString(){
+            return "Tick{"+"stockId="+stockId+", price="+getPrice()+", lastTrade="+getLastTradePrice()+", volume="+volume+
+                    ", time="+timeMillis+'}';
+        }
+    }
+
+    /**
+     * One subscriber's pending ticks and delivery state.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final String name;
+        private final Executor executor;
+        private final ExecutorService ownExecutor; // Shut down on close, if the bus created it.
+        private final Listener listener;
+        private final ConcurrentMap<Integer, Tick> pending=new ConcurrentHashMap<>();
+        private final AtomicBoolean deliveryQueued=new AtomicBoolean();
+        private final AtomicLong published=new AtomicLong();
+        private final AtomicLong delivered=new AtomicLong();
+        private volatile boolean closed;
+
+        private Subscription(String name, Executor executor, ExecutorService ownExecutor, Listener listener){
+            this.name=name;
+            this.executor=executor;
+            this.ownExecutor=ownExecutor;
+            this.listener=listener;
+        }
+
+        private void offer(Tick tick){
+            if(closed){
+                return;
+            }
+            pending.merge(tick.getStockId(),tick,Tick::merge);
+            published.incrementAndGet();
+            queueDelivery();
+        }
+
+        private void queueDelivery(){
+            if(!deliveryQueued.compareAndSet(false,true)){
+                return; // A queued or running delivery will pick the tick up.
+            }
+            try{
+                executor.execute(this::deliver);
+            }catch (RejectedExecutionException e){
+                deliveryQueued.set(false);
+                System.err.println("Market data subscriber "+name+" is not accepting deliveries: "+e.getMessage());
+            }
+        }
+
+        private void deliver(){
+            try{
+                if(closed || pending.isEmpty()){
+                    return;
+                }
+                List<Tick> ticks=new ArrayList<>(pending.size());
+                for(Integer stockId: pending.keySet()){
+                    Tick tick=pending.remove(stockId);
+                    if(tick!=null){
+                        ticks.add(tick);
+                    }
+                }
+                delivered.addAndGet(ticks.size());
+                listener.onTicks(ticks);
+            }catch (RuntimeException e){
+                System.err.println("Market data subscriber "+name+" failed: "+e.getMessage());
+            }finally {
+                // Only now may another delivery be queued, so two never run at once. Ticks that arrived meanwhile get one.
+                deliveryQueued.set(false);
+                if(!closed && !pending.isEmpty()){
+                    queueDelivery();
+                }
+            }
+        }
+
+        /**
+         * Stops deliveries. A delivery already running finishes.
+         */
+        @Override
+        public void close(){
+            closed=true;
+            subscriptions.remove(this);
+            pending.clear();
+            if(ownExecutor!=null){
+                ownExecutor.shutdown();
+            }
+            System.out.println("Market data subscriber removed: "+this);
+        }
+
+        public String getName(){
+            return name;
+        }
+        public int getPendingCount(){
+            return pending.size();
+        }
+        public long getPublishedCount(){
+            return published.get();
+        }
+        /**
+         * @return Ticks handed to the listener. Published minus delivered minus pending is how many were conflated away.
+         */
+        public long getDeliveredCount(){
+            return delivered.get();
+        }
+
+        @Override
+        public String toString(){
+            return "Subscription{"+"name='"+name+'\''+", published="+published.get()+", delivered="+delivered.get()+
+                    ", pending="+pending.size()+'}';
+        }
+    }
+}
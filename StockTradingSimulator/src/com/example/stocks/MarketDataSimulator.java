@@ -1,25 +1,44 @@
 package com.example.stocks;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.sql.SQLException;
-import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 
+/**
+ * Moves stock prices every few seconds. Prices come from a PriceEngine (correlated geometric Brownian motion over
+ * primitive arrays) and each tick's changes are written with one batched update through StockService.
+ */
 public class MarketDataSimulator {
     private final StockService stockService;
     private final Timer timer;
-    private final Random random;
+    private final PriceEngine priceEngine;
+    private PortfolioTracker portfolioTracker; // Marked to each new price, if set.
+    private TickStore tickStore; // Records every new price for candles, if set.
+    private MarketDataBus marketDataBus; // Pushes every new price to subscribers, if set.
 
     private static final long UPDATED_INTERVAL_MS=5*1000;
-    private static final double MAX_PRICE_CHANGE_PERCENT=0.02;
 
     public MarketDataSimulator(StockService stockService){
+        this(stockService,new PriceEngine());
+    }
+
+    public MarketDataSimulator(StockService stockService, PriceEngine priceEngine){
         this.stockService=stockService;
         this.timer=new Timer(true);
-        this.random=new Random();
+        this.priceEngine=priceEngine;
+    }
+
+    public void setPortfolioTracker(PortfolioTracker portfolioTracker){
+        this.portfolioTracker=portfolioTracker;
+    }
+
+    public void setTickStore(TickStore tickStore){
+        this.tickStore=tickStore;
+    }
+
+    public void setMarketDataBus(MarketDataBus marketDataBus){
+        this.marketDataBus=marketDataBus;
     }
 
     public void startSimulation() {
@@ -40,20 +59,22 @@ public class MarketDataSimulator {
 
     private void updateStockPrices(){
         try{
-            List<Stock> allStocks=stockService.getAllStocks();
-            for(Stock stock:allStocks){
-                BigDecimal oldPrice=stock.getCurrentPrice();
-                BigDecimal changeAmount=oldPrice.multiply(new BigDecimal(random.nextDouble()*MAX_PRICE_CHANGE_PERCENT*(random.nextBoolean()?1:-1)));
-                // random.nextDouble() generates a value between 0.0 (inclusive) and 1.0 (exclusive).
-                // MAX_PRICE_CHANGE_PERCENT scales it.
-                // random.nextBoolean() ? 1 : -1 randomly makes it positive (increase) or negative (decrease).
-
-                BigDecimal newPrice=oldPrice.add(changeAmount).setScale(2,RoundingMode.HALF_UP);
-
-                if(newPrice.compareTo(new BigDecimal("0.01"))<0){
-                    newPrice=new BigDecimal("0.01");
+            addNewStocks();
+            Map<Integer, Long> newPrices=priceEngine.step();
+            if(newPrices.isEmpty()){
+                return;
+            }
+            stockService.updateStockPrices(newPrices);
+            if(tickStore!=null){
+                tickStore.onPrices(newPrices);
+            }
+            if(marketDataBus!=null){
+                marketDataBus.publishPrices(newPrices);
+            }
+            if(portfolioTracker!=null){
+                for(Map.Entry<Integer, Long> entry: newPrices.entrySet()){
+                    portfolioTracker.onPriceTick(entry.getKey(),entry.getValue());
                 }
-                stockService.updateStockPrice(stock.getId(),newPrice);
             }
         }catch (SQLException e){
             System.err.println("Error updating stock prices from simulator: "+e.getMessage());
@@ -62,4 +83,16 @@ public class MarketDataSimulator {
         }
     }
 
+    // Stocks listed since the last tick start from their listed price. The count comes from the stock cache.
+    private void addNewStocks() throws SQLException{
+        if(priceEngine.size()==stockService.getStockCount()){
+            return;
+        }
+        for(Stock stock: stockService.getAllStocks()){
+            if(!priceEngine.contains(stock.getId())){
+                priceEngine.addStock(stock.getId(),stock.getCurrentPriceTicks());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,420 @@
+package com.example.stocks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One partition of the OrderMatchingEngine.
+ * A shard owns the order books for a subset of stocks and is the only thread that ever touches them
+ * (single writer), so books need no locking and orders for one stock are always matched in arrival order.
+ * Commands reach the shard through its own OrderCommandRingBuffer. Matches are applied to the books in memory
+ * and handed to the SettlementWriter, so matching never waits for the database. A fill the database rejects comes
+ * back through fillFailed and is undone: it is reversed in the ledger and both of its orders are cancelled, so memory
+ * never keeps a trade the database does not have.
+ */
+public class MatchingShard implements Runnable {
+
+    private final int shardId;
+    private final SettlementWriter settlementWriter;
+    private final EventJournal journal; // May be null when journaling is disabled.
+    private final StockService stockService;
+    private final OrderCommandRingBuffer ringBuffer;
+    private final Thread thread;
+    private AccountLedger accountLedger; // Set before the shard starts; may be null.
+
+    // Order books owned by this shard, keyed by stock ID. Only accessed from the shard thread.
+    private final Map<Integer, OrderBook> orderBooks=new HashMap<>();
+
+    // Callers waiting for a SNAPSHOT command to be processed, in the order they asked.
+    private final Queue<CompletableFuture<List<OrderBookImage>>> pendingSnapshots=new ConcurrentLinkedQueue<>();
+
+    // Callers waiting for a CANCEL_ORDER command, by order ID.
+    private final ConcurrentMap<Integer, CompletableFuture<Boolean>> pendingCancels=new ConcurrentHashMap<>();
+
+    // Fills the settlement writer could not settle, waiting to be undone on the shard thread.
+    private final Queue<FailedFill> failedFills=new ConcurrentLinkedQueue<>();
+
+    public MatchingShard(int shardId, SettlementWriter settlementWriter, EventJournal journal, StockService stockService,int ringBufferSize,WaitStrategy waitStrategy){
+        this.shardId=shardId;
+        this.settlementWriter=settlementWriter;
+        this.journal=journal;
+        this.stockService=stockService;
+        this.ringBuffer=new OrderCommandRingBuffer(ringBufferSize,waitStrategy);
+        this.thread=new Thread(this,"matching-shard-"+shardId);
+        this.thread.setDaemon(true);
+    }
+
+    public int getShardId(){
+        return shardId;
+    }
+
+    /**
+     * Sets the ledger that reservations are moved and released in as orders fill, load and cancel. Call before start.
+     */
+    public void setAccountLedger(AccountLedger accountLedger){
+        this.accountLedger=accountLedger;
+    }
+
+    public void start(){
+        thread.start();
+    }
+
+    /**
+     * Publishes an order that was loaded from the database at startup. It is added to its book without matching;
+     * the engine requests a sweep once all open orders have been loaded.
+     */
+    public void loadOrder(Order order){
+        ringBuffer.publishCommand(OrderCommand.CommandType.LOAD_ORDER,order);
+    }
+
+    /**
+     * Publishes a newly placed order: it is added to its book and that book is matched straight away.
+     */
+    public void submitOrder(Order order){
+        ringBuffer.publishCommand(OrderCommand.CommandType.NEW_ORDER,order);
+    }
+
+    /**
+     * Publishes a cancel for a resting order.
+     *
+     * @return Completes with true once the order has been taken out of its book, or false if it was no longer
+     * resting (already executed or cancelled).
+     */
+    public CompletableFuture<Boolean> cancelOrder(Order order){
+        CompletableFuture<Boolean> future=new CompletableFuture<>();
+        CompletableFuture<Boolean> pending=pendingCancels.putIfAbsent(order.getId(),future);
+        if(pending!=null){
+            return pending; // Already being cancelled.
+        }
+        try{
+            ringBuffer.publishCommand(OrderCommand.CommandType.CANCEL_ORDER,order);
+        }catch (IllegalStateException e){
+            pendingCancels.remove(order.getId(),future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Publishes a request for a pass over every book owned by this shard.
+     */
+    public void sweep(){
+        ringBuffer.publishCommand(OrderCommand.CommandType.SWEEP,null);
+    }
+
+    /**
+     * Asks the shard to copy its books at the current point in its command stream.
+     * The copy is taken on the shard thread, between two commands, so it is consistent without any locking;
+     * everything else (serializing, writing) happens on the caller's side once the future completes.
+     */
+    public CompletableFuture<List<OrderBookImage>> snapshot(){
+        CompletableFuture<List<OrderBookImage>> future=new CompletableFuture<>();
+        pendingSnapshots.add(future);
+        try{
+            ringBuffer.publishCommand(OrderCommand.CommandType.SNAPSHOT,null);
+        }catch (IllegalStateException e){
+            pendingSnapshots.remove(future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Hands back a fill the database rejected. Called on the settlement writer thread and never blocks, so the writer
+     * cannot deadlock with a shard that is waiting for room in the settlement queue: if the ring is full the shard is
+     * busy anyway, and it undoes queued failed fills after every batch of commands.
+     */
+    public void fillFailed(Fill fill, Order buyerOrder, Order sellerOrder){
+        failedFills.add(new FailedFill(fill,buyerOrder,sellerOrder));
+        ringBuffer.tryPublishCommand(OrderCommand.CommandType.FILL_FAILED,null);
+    }
+
+    /**
+     * Stops accepting commands. Commands already published are still processed before the thread exits.
+     */
+    public void shutdown(){
+        ringBuffer.halt();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException{
+        thread.join(unit.toMillis(timeout));
+        return !thread.isAlive();
+    }
+
+    public void shutdownNow(){
+        ringBuffer.halt();
+        thread.interrupt();
+    }
+
+    public long getBacklog(){
+        return ringBuffer.getBacklog();
+    }
+
+    /**
+     * Consumer loop: processes every published command in batches until the ring buffer is halted.
+     */
+    @Override
+    public void run(){
+        long nextSequence=ringBuffer.getConsumerSequence()+1;
+        try{
+            while(!Thread.currentThread().isInterrupted()){
+                long availableSequence=ringBuffer.waitFor(nextSequence);
+                if(availableSequence<0){
+                    break; // Halted and fully drained.
+                }
+                while(nextSequence<=availableSequence){
+                    OrderCommand command=ringBuffer.get(nextSequence);
+                    handle(command);
+                    command.clear();
+                    nextSequence++;
+                }
+                ringBuffer.release(availableSequence);
+                undoFailedFills();
+            }
+        }finally {
+            ringBuffer.markConsumerStopped();
+        }
+        if(!failedFills.isEmpty()){
+            System.err.println("Matching shard "+shardId+" stopped with "+failedFills.size()+" failed fills not undone.");
+        }
+    }
+
+    private void handle(OrderCommand command){
+        Order order=command.getOrder();
+        try{
+            switch (command.getType()){
+                case LOAD_ORDER:
+                    if(accountLedger!=null){
+                        accountLedger.reserveResting(order);
+                    }
+                    bookFor(order.getStockId()).add(order);
+                    break;
+                case NEW_ORDER:
+                    if(journal!=null){
+                        journal.appendOrderAccepted(order);
+                    }
+                    OrderBook book=bookFor(order.getStockId());
+                    book.add(order);
+                    matchOrderBook(book);
+                    break;
+                case CANCEL_ORDER:
+                    cancel(order);
+                    break;
+                case SWEEP:
+                    for(OrderBook orderBook: orderBooks.values()){
+                        matchOrderBook(orderBook);
+                    }
+                    break;
+                case SNAPSHOT:
+                    takeSnapshot();
+                    break;
+                case FILL_FAILED:
+                    undoFailedFills();
+                    break;
+            }
+        }catch (IOException e){
+            System.err.println("Journal error in matching shard "+shardId+" handling "+command+": "+e.getMessage());
+        }catch (SQLException e){
+            System.err.println("Database error in matching shard "+shardId+" handling "+command+": "+e.getMessage());
+        }catch (Exception e){
+            System.err.println("Unexpected error in matching shard "+shardId+" handling "+command+": "+e.getMessage());
+        }
+    }
+
+    private OrderBook bookFor(int stockId) throws SQLException{
+        OrderBook book=orderBooks.get(stockId);
+        if(book==null){
+            Optional<Stock> stock=stockService.getStockById(stockId);
+            book=new OrderBook(stockId,stock.isPresent()? stock.get().getSymbol():String.valueOf(stockId));
+            orderBooks.put(stockId,book);
+        }
+        return book;
+    }
+
+    private void matchOrderBook(OrderBook book){
+        while(true){
+            Order buyerOrder=book.bestBid();
+            Order sellerOrder=book.bestAsk();
+            if(buyerOrder==null || sellerOrder==null || buyerOrder.getPriceTicks()<sellerOrder.getPriceTicks()){
+                return;
+            }
+            if(buyerOrder.getUserId()==sellerOrder.getUserId()){
+                // Self-trade prevention: a user cannot trade with themselves, so the older of the two orders is cancelled
+                // and the newer one goes on matching against the rest of the book.
+                Order older=buyerOrder.getId()<sellerOrder.getId()? book.pollBestBid():book.pollBestAsk();
+                settleCancel(book,older,"self-trade prevention");
+                continue;
+            }
+            long executedPriceTicks=sellerOrder.getPriceTicks();
+            int executedQuantity=Math.min(buyerOrder.getQuantity(), sellerOrder.getQuantity());
+
+            // Fill.apply updates status and remaining quantity on both orders; the database catches up in the settlement writer.
+            Fill fill=Fill.apply(buyerOrder,sellerOrder,executedPriceTicks,executedQuantity);
+            long journalSequence=journalFill(fill);
+            applyToLedger(fill,buyerOrder.getPriceTicks()); // Before settlement, so the ledger is never behind the database.
+            settlementWriter.submitFill(fill,journalSequence,buyerOrder,sellerOrder);
+            if(buyerOrder.getStatus()==Order.OrderStatus.EXECUTED){
+                book.pollBestBid();
+            }
+            if(sellerOrder.getStatus()==Order.OrderStatus.EXECUTED){
+                book.pollBestAsk();
+            }
+            System.out.println("Matched "+executedQuantity+" shares of "+book.getSymbol()+" at "+Prices.toBigDecimal(executedPriceTicks)+ "(Buyer: "+buyerOrder.getUserId()+", Seller: "+sellerOrder.getUserId()+")");
+        }
+    }
+
+    // Takes the order out of its book and settles it as CANCELLED with whatever quantity was still open.
+    private void cancel(Order order){
+        CompletableFuture<Boolean> future=pendingCancels.remove(order.getId());
+        OrderBook book=orderBooks.get(order.getStockId());
+        Order resting=book!=null? book.remove(order):null;
+        try{
+            if(resting!=null){
+                settleCancel(book,resting,"cancelled by user");
+            }
+        }finally {
+            if(future!=null){
+                future.complete(resting!=null);
+            }
+        }
+    }
+
+    // Settles an order that has just been taken out of its book as CANCELLED and releases what it still had reserved.
+    private void settleCancel(OrderBook book, Order order, String reason){
+        order.setStatus(Order.OrderStatus.CANCELLED);
+        long journalSequence=journalCancel(order);
+        settlementWriter.submitOrderStateChange(OrderStateChange.of(order),order.getStockId(),journalSequence);
+        releaseInLedger(order);
+        System.out.println("Cancelled order "+order.getId()+" with "+order.getQuantity()+" shares of "+book.getSymbol()+" open ("+reason+").");
+    }
+
+    private void undoFailedFills(){
+        FailedFill failed;
+        while((failed=failedFills.poll())!=null){
+            Fill fill=failed.fill;
+            try{
+                OrderBook book=bookFor(fill.getStockId());
+                if(accountLedger!=null){
+                    try{
+                        accountLedger.onFillFailed(fill);
+                    }catch (SQLException | IllegalArgumentException e){
+                        System.err.println("Ledger error in matching shard "+shardId+" undoing "+fill+": "+e.getMessage());
+                    }
+                }
+                cancelUnsettled(book,failed.buyerOrder,fill.getQuantity());
+                cancelUnsettled(book,failed.sellerOrder,fill.getQuantity());
+                System.err.println("Undid "+fill+" after it failed to settle; cancelled both orders.");
+            }catch (SQLException e){
+                System.err.println("Database error in matching shard "+shardId+" undoing "+fill+": "+e.getMessage());
+            }
+        }
+    }
+
+    // Cancels an order one of whose fills never settled. That fill's quantity was never traded, so it counts as open
+    // on top of whatever the order still has resting, or had open when it was cancelled.
+    private void cancelUnsettled(OrderBook book, Order order, int unsettledQuantity){
+        if(order==null){
+            return; // A fill settled again after a restart whose order was no longer known to the journal.
+        }
+        int openQuantity=0;
+        if(order.getStatus()==Order.OrderStatus.PENDING || order.getStatus()==Order.OrderStatus.PARTIAL_FILL){
+            if(book.remove(order)!=null){
+                releaseInLedger(order); // What is still resting; the unsettled quantity was released by onFillFailed.
+            }
+            openQuantity=order.getQuantity();
+        }else if(order.getStatus()==Order.OrderStatus.CANCELLED){
+            openQuantity=order.getQuantity();
+        }
+        order.setQuantity(openQuantity+unsettledQuantity);
+        order.setStatus(Order.OrderStatus.CANCELLED);
+        long journalSequence=journalCancel(order);
+        settlementWriter.submitOrderStateChange(OrderStateChange.of(order),order.getStockId(),journalSequence);
+        System.out.println("Cancelled order "+order.getId()+" with "+order.getQuantity()+" shares of "+book.getSymbol()+" open (fill not settled).");
+    }
+
+    private void releaseInLedger(Order order){
+        if(accountLedger==null){
+            return;
+        }
+        try{
+            accountLedger.onCancel(order);
+        }catch (SQLException | IllegalArgumentException e){
+            System.err.println("Ledger error in matching shard "+shardId+" cancelling order "+order.getId()+": "+e.getMessage());
+        }
+    }
+
+    private void takeSnapshot(){
+        CompletableFuture<List<OrderBookImage>> future=pendingSnapshots.poll();
+        if(future==null){
+            return;
+        }
+        // Every journal record for this shard's books was appended before this command was processed, so none is after this sequence.
+        long journalSequence=journal!=null? journal.getLastSequence():0;
+        List<OrderBookImage> images=new ArrayList<>(orderBooks.size());
+        for(OrderBook book: orderBooks.values()){
+            images.add(book.toImage(journalSequence));
+        }
+        future.complete(images);
+    }
+
+    private void applyToLedger(Fill fill, long buyerLimitTicks){
+        if(accountLedger==null){
+            return;
+        }
+        try{
+            accountLedger.onFill(fill,buyerLimitTicks);
+        }catch (SQLException | IllegalArgumentException e){
+            System.err.println("Ledger error in matching shard "+shardId+" applying "+fill+": "+e.getMessage());
+        }
+    }
+
+    // Returns the record's journal sequence, or 0 if it was not journaled.
+    private long journalCancel(Order order){
+        if(journal==null){
+            return 0;
+        }
+        try{
+            return journal.appendOrderCancelled(order);
+        }catch (IOException e){
+            // The cancel is still settled; a later journal recovery would put the order back in its book.
+            System.err.println("Journal error in matching shard "+shardId+" cancelling order "+order.getId()+": "+e.getMessage());
+            return 0;
+        }
+    }
+
+    private long journalFill(Fill fill){
+        if(journal==null){
+            return 0;
+        }
+        try{
+            return journal.appendFill(fill);
+        }catch (IOException e){
+            // The fill is still settled; only a later journal recovery would miss it.
+            System.err.println("Journal error in matching shard "+shardId+" recording "+fill+": "+e.getMessage());
+            return 0;
+        }
+    }
+
+    private static final class FailedFill {
+        private final Fill fill;
+        private final Order buyerOrder;
+        private final Order sellerOrder;
+
+        private FailedFill(Fill fill, Order buyerOrder, Order sellerOrder){
+            this.fill=fill;
+            this.buyerOrder=buyerOrder;
+            this.sellerOrder=sellerOrder;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.stocks;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One versioned schema change, applied once by SchemaMigrator and recorded in the schema_version table.
+ * A migration is a list of SQL statements run in order; the checksum of those statements is stored
+ * when it is applied, so editing a migration that has already shipped is caught at the next startup.
+ * Statements should be idempotent (IF NOT EXISTS), because H2 commits after each DDL statement and
+ * a migration interrupted half-way is simply run again.
+ */
+public abstract class Migration {
+
+    private final int version;
+    private final String description;
+
+    protected Migration(int version, String description){
+        this.version=version;
+        this.description=description;
+    }
+
+    public int getVersion(){
+        return version;
+    }
+    public String getDescription(){
+        return description;
+    }
+
+    /**
+     * @return The SQL statements of this migration, in the order they run.
+     */
+    protected abstract List<String> statements();
+
+    public void apply(Connection connection) throws SQLException{
+        try(Statement statement=connection.createStatement()){
+            for(String sql: statements()){
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * @return CRC32 of the statements, as 8 hex digits.
+     */
+    public String getChecksum(){
+        CRC32 crc=new CRC32();
+        for(String sql: statements()){
+            crc.update(sql.getBytes(StandardCharsets.UTF_8));
+            crc.update(';');
+        }
+        return String.format("%08x",crc.getValue());
+    }
+
+    @Override
+    public String toString(){
+        return "V"+version+" ("+description+")";
+    }
+}
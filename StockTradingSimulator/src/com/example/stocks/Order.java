@@ -22,6 +22,7 @@ public class Order {
     private int stockId;
     private OrderType orderType;
     private BigDecimal price;
+    private long priceTicks; // Same price in fixed-point ticks (see Prices), used by the order book.
     private int quantity;
     private OrderStatus status;
     private LocalDateTime timestamp;
@@ -32,6 +33,7 @@ public class Order {
         this.stockId=stockId;
         this.orderType=orderType;
         this.price=price;
+        this.priceTicks=Prices.toTicks(price);
         this.quantity=quantity;
         this.status=OrderStatus.PENDING;
         this.timestamp=null;
@@ -42,6 +44,7 @@ public class Order {
         this.stockId=stockId;
         this.orderType=orderType;
         this.price=price;
+        this.priceTicks=Prices.toTicks(price);
         this.quantity=quantity;
         this.status=status;
         this.timestamp=timestamp;
@@ -62,6 +65,9 @@ public class Order {
     public BigDecimal getPrice(){
         return price;
     }
+    public long getPriceTicks(){
+        return priceTicks;
+    }
     public int getQuantity() {
         return quantity;
     }
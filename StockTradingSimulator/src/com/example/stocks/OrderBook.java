@@ -0,0 +1,249 @@
+package com.example.stocks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Resident price-time-priority order book for a single stock.
+ * Bids and asks are kept in sorted price levels, and each level holds a FIFO queue of resting orders.
+ * Prices are fixed-point ticks (see Prices), so finding a level is a binary search over a long[] and
+ * the best order on either side is read in O(1) without boxing or going back to the database.
+ */
+public class OrderBook {
+
+    private final int stockId;
+    private final String symbol;
+
+    private final Side bids=new Side(true);
+    private final Side asks=new Side(false);
+    private int orderCount;
+
+    public OrderBook(int stockId, String symbol){
+        this.stockId=stockId;
+        this.symbol=symbol;
+    }
+
+    public int getStockId(){
+        return stockId;
+    }
+    public String getSymbol(){
+        return symbol;
+    }
+
+    /**
+     * Adds a resting order to the back of the queue at its price level.
+     *
+     * @param order The pending (or partially filled) order to add.
+     */
+    public void add(Order order){
+        if(order.getStockId()!=stockId){
+            throw new IllegalArgumentException("Order "+order.getId()+" does not belong to stock ID "+stockId);
+        }
+        Side side=order.getOrderType()==Order.OrderType.BUY? bids:asks;
+        side.levelFor(order.getPriceTicks()).orders.addLast(order);
+        orderCount++;
+    }
+
+    /**
+     * @return The oldest order at the highest bid price, or null if there are no bids.
+     */
+    public Order bestBid(){
+        return bids.head();
+    }
+
+    /**
+     * @return The oldest order at the lowest ask price, or null if there are no asks.
+     */
+    public Order bestAsk(){
+        return asks.head();
+    }
+
+    /**
+     * Removes the order at the front of the best bid level (used once it is fully filled).
+     */
+    public Order pollBestBid(){
+        Order order=bids.poll();
+        if(order!=null){
+            orderCount--;
+        }
+        return order;
+    }
+
+    /**
+     * Removes the order at the front of the best ask level (used once it is fully filled).
+     */
+    public Order pollBestAsk(){
+        Order order=asks.poll();
+        if(order!=null){
+            orderCount--;
+        }
+        return order;
+    }
+
+    /**
+     * Removes a resting order, e.g. when it is cancelled. Its side and price locate the level, which is then
+     * searched for the order ID.
+     *
+     * @return The removed order (with its remaining quantity), or null if it is not in the book.
+     */
+    public Order remove(Order order){
+        Side side=order.getOrderType()==Order.OrderType.BUY? bids:asks;
+        Order removed=side.remove(order.getId(),order.getPriceTicks());
+        if(removed!=null){
+            orderCount--;
+        }
+        return removed;
+    }
+
+    /**
+     * Copies every resting order into an image for a snapshot. Must be called on the thread that owns the book.
+     *
+     * @param journalSequence The last journal record already reflected in this book.
+     */
+    public OrderBookImage toImage(long journalSequence){
+        List<Order> orders=new ArrayList<>(orderCount);
+        bids.collect(orders);
+        asks.collect(orders);
+        return OrderBookImage.of(stockId,symbol,journalSequence,orders);
+    }
+
+    public int getOrderCount(){
+        return orderCount;
+    }
+    public int getBidLevelCount(){
+        return bids.size;
+    }
+    public int getAskLevelCount(){
+        return asks.size;
+    }
+
+    @Override
+    public String toString(){
+        return "OrderBook{"+"stockId="+stockId+", symbol='"+symbol+'\''+", orders="+orderCount+
+                ", bidLevels="+bids.size+", askLevels="+asks.size+'}';
+    }
+
+    /**
+     * All resting orders at one price, oldest first.
+     */
+    private static final class PriceLevel {
+        private final ArrayDeque<Order> orders=new ArrayDeque<>();
+    }
+
+    /**
+     * One side of the book. Levels are stored in a sorted array with the best price at the end,
+     * so the best level is read and removed in O(1) and new levels (usually near the top) are cheap to insert.
+     * Emptied levels are kept in a small pool and reused.
+     */
+    private static final class Side {
+        private static final int INITIAL_LEVELS=16;
+        private static final int MAX_POOLED_LEVELS=64;
+
+        private final boolean bid; // Bids: ascending (highest last). Asks: descending (lowest last).
+        private long[] prices=new long[INITIAL_LEVELS];
+        private PriceLevel[] levels=new PriceLevel[INITIAL_LEVELS];
+        private int size;
+
+        private final PriceLevel[] pool=new PriceLevel[MAX_POOLED_LEVELS];
+        private int pooled;
+
+        private Side(boolean bid){
+            this.bid=bid;
+        }
+
+        private Order head(){
+            return size==0? null:levels[size-1].orders.peekFirst();
+        }
+
+        private Order poll(){
+            if(size==0){
+                return null;
+            }
+            PriceLevel best=levels[size-1];
+            Order order=best.orders.pollFirst();
+            if(best.orders.isEmpty()){
+                levels[--size]=null;
+                if(pooled<MAX_POOLED_LEVELS){
+                    pool[pooled++]=best;
+                }
+            }
+            return order;
+        }
+
+        private Order remove(int orderId, long priceTicks){
+            int index=indexOf(priceTicks);
+            if(index<0){
+                return null;
+            }
+            PriceLevel level=levels[index];
+            Iterator<Order> iterator=level.orders.iterator();
+            while(iterator.hasNext()){
+                Order order=iterator.next();
+                if(order.getId()==orderId){
+                    iterator.remove();
+                    if(level.orders.isEmpty()){
+                        System.arraycopy(prices,index+1,prices,index,size-index-1);
+                        System.arraycopy(levels,index+1,levels,index,size-index-1);
+                        levels[--size]=null;
+                        if(pooled<MAX_POOLED_LEVELS){
+                            pool[pooled++]=level;
+                        }
+                    }
+                    return order;
+                }
+            }
+            return null;
+        }
+
+        private void collect(List<Order> orders){
+            for(int i=size-1;i>=0;i--){
+                orders.addAll(levels[i].orders);
+            }
+        }
+
+        private PriceLevel levelFor(long priceTicks){
+            int index=indexOf(priceTicks);
+            if(index>=0){
+                return levels[index];
+            }
+            int low=-index-1;
+            if(size==prices.length){
+                prices=Arrays.copyOf(prices,size*2);
+                levels=Arrays.copyOf(levels,size*2);
+            }
+            System.arraycopy(prices,low,prices,low+1,size-low);
+            System.arraycopy(levels,low,levels,low+1,size-low);
+            PriceLevel level=pooled>0? pool[--pooled]:new PriceLevel();
+            pool[pooled]=null;
+            prices[low]=priceTicks;
+            levels[low]=level;
+            size++;
+            return level;
+        }
+
+        /**
+         * @return The index of the level at this price, or (-(insertion point)-1) if there is none.
+         */
+        private int indexOf(long priceTicks){
+            // Search on a key where "better" is always larger, so both sides share one ascending array layout.
+            long key=bid? priceTicks:-priceTicks;
+            int low=0;
+            int high=size-1;
+            while(low<=high){
+                int mid=(low+high)>>>1;
+                long midKey=bid? prices[mid]:-prices[mid];
+                if(midKey<key){
+                    low=mid+1;
+                }else if(midKey>key){
+                    high=mid-1;
+                }else{
+                    return mid;
+                }
+            }
+            return -(low+1);
+        }
+    }
+}
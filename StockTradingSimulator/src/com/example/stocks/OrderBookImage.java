@@ -0,0 +1,125 @@
+package com.example.stocks;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable copy of the resting orders in one OrderBook, taken on the shard thread for a snapshot.
+ * Orders are held in parallel primitive arrays so the copy is cheap to take and to write out, and
+ * {@code journalSequence} is the last journal record already reflected in it.
+ * Within each price level, orders appear oldest first, so adding them back in this order restores time priority.
+ */
+public class OrderBookImage {
+
+    private final int stockId;
+    private final String symbol;
+    private final long journalSequence;
+    private final int[] orderIds;
+    private final int[] userIds;
+    private final byte[] orderTypes;
+    private final long[] priceTicks;
+    private final int[] quantities;
+    private final byte[] statuses;
+    private final long[] timestampSeconds; // Long.MIN_VALUE when the order has no timestamp.
+    private final int[] timestampNanos;
+
+    public OrderBookImage(int stockId, String symbol, long journalSequence, int[] orderIds, int[] userIds, byte[] orderTypes,
+                          long[] priceTicks, int[] quantities, byte[] statuses, long[] timestampSeconds, int[] timestampNanos){
+        this.stockId=stockId;
+        this.symbol=symbol;
+        this.journalSequence=journalSequence;
+        this.orderIds=orderIds;
+        this.userIds=userIds;
+        this.orderTypes=orderTypes;
+        this.priceTicks=priceTicks;
+        this.quantities=quantities;
+        this.statuses=statuses;
+        this.timestampSeconds=timestampSeconds;
+        this.timestampNanos=timestampNanos;
+    }
+
+    /**
+     * Copies the given resting orders into a new image.
+     */
+    public static OrderBookImage of(int stockId, String symbol, long journalSequence, List<Order> orders){
+        int size=orders.size();
+        int[] orderIds=new int[size];
+        int[] userIds=new int[size];
+        byte[] orderTypes=new byte[size];
+        long[] priceTicks=new long[size];
+        int[] quantities=new int[size];
+        byte[] statuses=new byte[size];
+        long[] timestampSeconds=new long[size];
+        int[] timestampNanos=new int[size];
+        for(int i=0;i<size;i++){
+            Order order=orders.get(i);
+            orderIds[i]=order.getId();
+            userIds[i]=order.getUserId();
+            orderTypes[i]=(byte)order.getOrderType().ordinal();
+            priceTicks[i]=order.getPriceTicks();
+            quantities[i]=order.getQuantity();
+            statuses[i]=(byte)order.getStatus().ordinal();
+            LocalDateTime timestamp=order.getTimestamp();
+            timestampSeconds[i]=timestamp!=null? timestamp.toEpochSecond(ZoneOffset.UTC):Long.MIN_VALUE;
+            timestampNanos[i]=timestamp!=null? timestamp.getNano():0;
+        }
+        return new OrderBookImage(stockId,symbol,journalSequence,orderIds,userIds,orderTypes,priceTicks,quantities,statuses,timestampSeconds,timestampNanos);
+    }
+
+    public int getStockId(){
+        return stockId;
+    }
+    public String getSymbol(){
+        return symbol;
+    }
+    public long getJournalSequence(){
+        return journalSequence;
+    }
+    public int getOrderCount(){
+        return orderIds.length;
+    }
+    public int getOrderId(int index){
+        return orderIds[index];
+    }
+    public int getUserId(int index){
+        return userIds[index];
+    }
+    public byte getOrderType(int index){
+        return orderTypes[index];
+    }
+    public long getPriceTicks(int index){
+        return priceTicks[index];
+    }
+    public int getQuantity(int index){
+        return quantities[index];
+    }
+    public byte getStatus(int index){
+        return statuses[index];
+    }
+    public long getTimestampSeconds(int index){
+        return timestampSeconds[index];
+    }
+    public int getTimestampNanos(int index){
+        return timestampNanos[index];
+    }
+
+    /**
+     * @return New Order objects for every resting order, in the order they should be added back to a book.
+     */
+    public List<Order> toOrders(){
+        List<Order> orders=new ArrayList<>(orderIds.length);
+        for(int i=0;i<orderIds.length;i++){
+            LocalDateTime timestamp=timestampSeconds[i]==Long.MIN_VALUE? null:LocalDateTime.ofEpochSecond(timestampSeconds[i],timestampNanos[i],ZoneOffset.UTC);
+            orders.add(new Order(orderIds[i],userIds[i],stockId,Order.OrderType.values()[orderTypes[i]],Prices.toBigDecimal(priceTicks[i]),
+                    quantities[i],Order.OrderStatus.values()[statuses[i]],timestamp));
+        }
+        return orders;
+    }
+
+    @Override
+    public String toString(){
+        return "OrderBookImage{"+"stockId="+stockId+", symbol='"+symbol+'\''+", journalSequence="+journalSequence+", orders="+orderIds.length+'}';
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.stocks;
+
+/**
+ * A preallocated, reusable slot in the OrderCommandRingBuffer.
+ * Producers fill a claimed slot in place and consumers clear it after processing,
+ * so handing a command to a matching shard allocates nothing.
+ */
+public class OrderCommand {
+
+    public enum CommandType{
+        NEW_ORDER,    // A newly placed order: add to its book and match.
+        LOAD_ORDER,   // An open order loaded at startup: add to its book only.
+        CANCEL_ORDER, // Take a resting order out of its book.
+        SWEEP,        // Re-check every book owned by the shard.
+        SNAPSHOT,     // Copy every book owned by the shard for an EngineSnapshot.
+        FILL_FAILED   // Undo fills the settlement writer could not settle.
+    }
+
+    private CommandType type;
+    private Order order;
+
+    public CommandType getType(){
+        return type;
+    }
+    public Order getOrder(){
+        return order;
+    }
+
+    public void set(CommandType type, Order order){
+        this.type=type;
+        this.order=order;
+    }
+
+    /**
+     * Drops references held by the slot so processed orders are not kept alive by the ring.
+     */
+    public void clear(){
+        this.type=null;
+        this.order=null;
+    }
+
+    @Override
+    public String toString(){
+        return "OrderCommand{"+"type="+type+", order="+order+'}';
+    }
+}
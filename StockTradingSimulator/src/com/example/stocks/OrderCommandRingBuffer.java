@@ -0,0 +1,198 @@
+package com.example.stocks;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, lock-free, multi-producer / single-consumer ring buffer of OrderCommand slots,
+ * modelled on the LMAX Disruptor. It sits between OrderService (producers) and a MatchingShard (consumer).
+ * <p>
+ * Producers claim a sequence with a single atomic increment, fill the slot in place and publish it.
+ * The consumer processes every contiguous published slot in one batch and then releases them.
+ * Nothing is allocated per command and no locks are taken; if the ring is full, producers spin
+ * briefly until the consumer catches up.
+ */
+public class OrderCommandRingBuffer {
+
+    private final OrderCommand[] entries;
+    private final int bufferSize;
+    private final int indexMask;
+    private final int indexShift;
+
+    // For each slot, the "lap" number of the sequence last published into it. A slot is available
+    // for sequence s when availableBuffer[s & mask] == s >>> indexShift.
+    private final AtomicIntegerArray availableBuffer;
+
+    private final Sequence cursor=new Sequence(-1);           // Highest sequence claimed by a producer.
+    private final Sequence consumerSequence=new Sequence(-1); // Highest sequence fully processed.
+    private final WaitStrategy waitStrategy;
+    private volatile boolean halted;
+    private volatile boolean consumerStopped;
+
+    /**
+     * @param bufferSize Number of slots; must be a power of two.
+     * @param waitStrategy How the consumer waits for new commands.
+     */
+    public OrderCommandRingBuffer(int bufferSize, WaitStrategy waitStrategy){
+        if(bufferSize<1 || Integer.bitCount(bufferSize)!=1){
+            throw new IllegalArgumentException("Ring buffer size must be a power of two.");
+        }
+        this.bufferSize=bufferSize;
+        this.indexMask=bufferSize-1;
+        this.indexShift=Integer.numberOfTrailingZeros(bufferSize);
+        this.waitStrategy=waitStrategy;
+        this.entries=new OrderCommand[bufferSize];
+        this.availableBuffer=new AtomicIntegerArray(bufferSize);
+        for(int i=0;i<bufferSize;i++){
+            entries[i]=new OrderCommand();
+            availableBuffer.set(i,-1);
+        }
+    }
+
+    /**
+     * Claims, fills and publishes one command.
+     *
+     * @throws IllegalStateException If the ring buffer has been halted.
+     */
+    public void publishCommand(OrderCommand.CommandType type, Order order){
+        long sequence=next();
+        get(sequence).set(type,order);
+        publish(sequence);
+    }
+
+    /**
+     * Claims, fills and publishes one command unless the ring is full or halted. Never waits.
+     *
+     * @return false if the command was not published.
+     */
+    public boolean tryPublishCommand(OrderCommand.CommandType type, Order order){
+        while(!halted){
+            long current=cursor.get();
+            long sequence=current+1;
+            if(sequence-bufferSize>consumerSequence.get()){
+                return false; // Full.
+            }
+            if(cursor.compareAndSet(current,sequence)){
+                get(sequence).set(type,order);
+                publish(sequence);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims the next sequence for a producer, waiting while the ring is full.
+     *
+     * @throws IllegalStateException If the ring buffer is halted, or its consumer stopped while this waited for capacity.
+     */
+    public long next(){
+        if(halted){
+            throw new IllegalStateException("Ring buffer has been halted.");
+        }
+        long sequence=cursor.getAndIncrement()+1;
+        long wrapPoint=sequence-bufferSize;
+        while(wrapPoint>consumerSequence.get()){
+            if(consumerStopped){
+                throw new IllegalStateException("Ring buffer consumer stopped while waiting for capacity."); // Nothing reads past here any more.
+            }
+            LockSupport.parkNanos(1L);
+        }
+        if(halted){
+            // The sequence is claimed, so it has to be published or the consumer could never drain past it.
+            // Even after a halt the consumer frees this slot, as every slot before it is published the same way.
+            get(sequence).set(OrderCommand.CommandType.SWEEP,null);
+            publish(sequence);
+            throw new IllegalStateException("Ring buffer was halted while waiting for capacity.");
+        }
+        return sequence;
+    }
+
+    public OrderCommand get(long sequence){
+        return entries[(int)sequence & indexMask];
+    }
+
+    /**
+     * Makes a claimed and filled slot visible to the consumer.
+     */
+    public void publish(long sequence){
+        availableBuffer.lazySet((int)sequence & indexMask,(int)(sequence>>>indexShift));
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    public boolean isAvailable(long sequence){
+        return availableBuffer.get((int)sequence & indexMask)==(int)(sequence>>>indexShift);
+    }
+
+    /**
+     * @return The highest sequence, starting at {@code lowerBound}, up to which every slot has been published.
+     */
+    public long getHighestPublishedSequence(long lowerBound){
+        long highestClaimed=cursor.get();
+        for(long sequence=lowerBound;sequence<=highestClaimed;sequence++){
+            if(!isAvailable(sequence)){
+                return sequence-1;
+            }
+        }
+        return highestClaimed;
+    }
+
+    /**
+     * Blocks the consumer according to the wait strategy until {@code sequence} is published.
+     *
+     * @return The highest available sequence, or -1 once the ring buffer is halted and drained.
+     */
+    public long waitFor(long sequence){
+        return waitStrategy.waitFor(sequence,this);
+    }
+
+    /**
+     * Called by the consumer once every slot up to and including {@code sequence} has been processed,
+     * which hands those slots back to the producers.
+     */
+    public void release(long sequence){
+        consumerSequence.setOrdered(sequence);
+    }
+
+    public long getConsumerSequence(){
+        return consumerSequence.get();
+    }
+
+    public int getBufferSize(){
+        return bufferSize;
+    }
+
+    /**
+     * @return Number of commands claimed but not yet processed.
+     */
+    public long getBacklog(){
+        return cursor.get()-consumerSequence.get();
+    }
+
+    /**
+     * Stops accepting new commands and wakes the consumer. Commands already claimed are still drained.
+     */
+    public void halt(){
+        halted=true;
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    public boolean isHalted(){
+        return halted;
+    }
+
+    /**
+     * @return true once the ring buffer is halted and no producer has claimed {@code sequence}, so the consumer can stop.
+     * Every claimed sequence is published, even one claimed as the halt happened, so nothing claimed is left unread.
+     */
+    public boolean isHaltedAndDrained(long sequence){
+        return halted && cursor.get()<sequence;
+    }
+
+    /**
+     * Called by the consumer when it exits, so producers waiting for capacity give up instead of waiting forever.
+     */
+    public void markConsumerStopped(){
+        consumerStopped=true;
+    }
+}
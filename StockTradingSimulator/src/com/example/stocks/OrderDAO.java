@@ -10,8 +10,10 @@ import java.sql.Timestamp;         // For converting LocalDateTime to/from SQL T
 import java.math.BigDecimal;       // For handling monetary values.
 import java.time.LocalDateTime;    // For handling order timestamps.
 import java.util.ArrayList;        // For returning lists of orders.
+import java.util.Collection;       // For batch updates.
 import java.util.List;             // For returning lists of orders.
 import java.util.Optional;         // For methods that might return no result.
+import java.util.function.Consumer; // For streaming results row by row.
 
 /**
  * Data Access Object (DAO) for the Order entity.
@@ -146,6 +148,64 @@ public class OrderDAO {
         return orders;
     }
 
+    /**
+     * Streams all orders that are still resting in the market (PENDING or PARTIAL_FILL) to the consumer as they are read,
+     * oldest first so that time priority is preserved when the order books are rebuilt. Used at startup by the
+     * OrderMatchingEngine to load its in-memory books without holding the whole result in memory.
+     *
+     * @param fetchSize Rows fetched per round trip, e.g. DatabaseManager.STREAM_FETCH_SIZE.
+     * @param consumer Receives each open Order.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void forEachOpenOrder(int fetchSize, Consumer<? super Order> consumer) throws SQLException {
+        String sql = "SELECT id, user_id, stock_id, order_type, price, quantity, status, timestamp FROM Orders " +
+                "WHERE status IN (?, ?) ORDER BY timestamp ASC, id ASC";
+        try (Connection connection = DatabaseManager.getConnection()) {
+            try (PreparedStatement stmt = DatabaseManager.prepareStreaming(connection, sql, fetchSize)) {
+
+                stmt.setString(1, Order.OrderStatus.PENDING.name());
+                stmt.setString(2, Order.OrderStatus.PARTIAL_FILL.name());
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapResultSetToOrder(rs));
+                    }
+                }
+            } finally {
+                DatabaseManager.endStreaming(connection);
+            }
+        }
+    }
+
+    /**
+     * Finds the open orders (PENDING or PARTIAL_FILL) with an ID greater than {@code afterOrderId}, in ID order.
+     * Used after journal recovery to pick up orders that were saved but never reached the journal;
+     * the ID range keeps this to a primary key range scan instead of reading every open order.
+     *
+     * @param afterOrderId Only orders with a greater ID are returned.
+     * @return A List of open Order objects.
+     * @throws SQLException If a database access error occurs.
+     */
+    public List<Order> findOpenOrdersAfter(int afterOrderId) throws SQLException {
+        List<Order> orders = new ArrayList<>();
+        String sql = "SELECT id, user_id, stock_id, order_type, price, quantity, status, timestamp FROM Orders " +
+                "WHERE id > ? AND status IN (?, ?) ORDER BY id ASC";
+        try (Connection connection = DatabaseManager.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+
+            stmt.setInt(1, afterOrderId);
+            stmt.setString(2, Order.OrderStatus.PENDING.name());
+            stmt.setString(3, Order.OrderStatus.PARTIAL_FILL.name());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(mapResultSetToOrder(rs));
+                }
+            }
+        }
+        return orders;
+    }
+
     /**
      * Finds all orders placed by a specific user.
      * This method is added to support displaying a user's order history.
@@ -173,6 +233,69 @@ public class OrderDAO {
         return orders;
     }
 
+    /**
+     * Finds one page of a user's orders, most recent first, using keyset pagination on (timestamp, id).
+     *
+     * @param userId The ID of the user whose orders to retrieve.
+     * @param after The key of the last order on the previous page, or null for the most recent page.
+     * @param pageSize The maximum number of orders to return.
+     * @return The page of Order objects and the key for the next page.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Page<Order> findOrdersByUserId(int userId, Page.Key after, int pageSize) throws SQLException {
+        List<Order> orders = new ArrayList<>();
+        // The row value comparison lets the (user_id, timestamp) index seek straight to the page; id breaks timestamp ties.
+        String sql = "SELECT id, user_id, stock_id, order_type, price, quantity, status, timestamp FROM Orders " +
+                "WHERE user_id = ?" + (after != null ? " AND (timestamp, id) < (?, ?)" : "") +
+                " ORDER BY timestamp DESC, id DESC LIMIT ?";
+        try (Connection connection = DatabaseManager.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+
+            int index = 1;
+            stmt.setInt(index++, userId);
+            if (after != null) {
+                stmt.setTimestamp(index++, Timestamp.valueOf(after.getTimestamp()));
+                stmt.setInt(index++, after.getId());
+            }
+            stmt.setInt(index, pageSize + 1); // One extra row shows whether another page follows.
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(mapResultSetToOrder(rs));
+                }
+            }
+        }
+        return Page.of(orders, pageSize, order -> new Page.Key(order.getTimestamp(), order.getId()));
+    }
+
+    /**
+     * Streaming variant of {@link #findOrdersByUserId(int)}: hands each of the user's orders to the consumer
+     * as it is read, most recent first, so arbitrarily long histories can be processed in constant memory.
+     *
+     * @param userId The ID of the user whose orders to read.
+     * @param fetchSize Rows fetched per round trip, e.g. DatabaseManager.STREAM_FETCH_SIZE.
+     * @param consumer Receives each Order.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void forEachOrderByUserId(int userId, int fetchSize, Consumer<? super Order> consumer) throws SQLException {
+        String sql = "SELECT id, user_id, stock_id, order_type, price, quantity, status, timestamp FROM Orders " +
+                "WHERE user_id = ? ORDER BY timestamp DESC, id DESC"; // id breaks timestamp ties, as in the paged query.
+        try (Connection connection = DatabaseManager.getConnection()) {
+            try (PreparedStatement stmt = DatabaseManager.prepareStreaming(connection, sql, fetchSize)) {
+
+                stmt.setInt(1, userId);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapResultSetToOrder(rs));
+                    }
+                }
+            } finally {
+                DatabaseManager.endStreaming(connection);
+            }
+        }
+    }
+
     /**
      * Updates an existing order's status and remaining quantity in the database.
      * This is crucial for the OrderMatchingEngine to reflect trade execution.
@@ -195,6 +318,32 @@ public class OrderDAO {
         }
     }
 
+    /**
+     * Writes several order status / remaining quantity changes as one JDBC batch.
+     * Runs on the caller's connection so the updates commit (or roll back) with the rest of a trade settlement.
+     *
+     * @param connection The open (transactional) connection to use. It is not closed here.
+     * @param changes The new state of each order, applied in order.
+     * @throws SQLException If an order does not exist or a database access error occurs.
+     */
+    public void updateStatusAndQuantity(Connection connection, Collection<OrderStateChange> changes) throws SQLException {
+        String sql = "UPDATE Orders SET status = ?, quantity = ? WHERE id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (OrderStateChange change : changes) {
+                stmt.setString(1, change.getStatus().name());
+                stmt.setInt(2, change.getRemainingQuantity());
+                stmt.setInt(3, change.getOrderId());
+                stmt.addBatch();
+            }
+            int[] affectedRows = stmt.executeBatch();
+            for (int count : affectedRows) {
+                if (count == 0) {
+                    throw new SQLException("Updating order status failed, order not found.");
+                }
+            }
+        }
+    }
+
     /**
      * Helper method to map a ResultSet row to an Order object.
      * Centralizes the logic for creating an Order from database data.
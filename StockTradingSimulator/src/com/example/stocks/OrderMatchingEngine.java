@@ -1,99 +1,379 @@
 package com.example.stocks;
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class OrderMatchingEngine {
     private final OrderService orderService;
     private final TradeService tradeService;
-    private final StockService stockService;
+    private AccountLedger accountLedger; // Set before startEngine; may be null.
 
-    private ScheduledExecutorService scheduler;
+    // Stocks are partitioned across shards by stock ID. Each shard is a single writer for its own
+    // books, so different stocks match in parallel while each stock keeps a deterministic order.
+    private final MatchingShard[] shards;
 
-    private static final long MATCHING_INTERVAL_SECONDS=3;
+    // Fills are persisted behind the shards in group commits by a single writer thread.
+    private final SettlementWriter settlementWriter;
+
+    // Append-only record of accepted orders and fills, used to rebuild the books on restart. May be null.
+    private final EventJournal journal;
+
+    // Periodic copies of the books, so a restart only replays the journal written since. May be null.
+    private final SnapshotStore snapshotStore;
+    private final ExecutorService snapshotWriter; // Serializes and writes snapshots off the matching threads.
+
+    private ScheduledExecutorService scheduler; // Drives the optional safety sweep, journal flushes and snapshots.
+    private final boolean safetySweepEnabled;
+
+    private static final long SAFETY_SWEEP_INTERVAL_SECONDS=30;
+    private static final int DEFAULT_RING_BUFFER_SIZE=1024; // Per shard; must be a power of two.
+    private static final int SETTLEMENT_BATCH_SIZE=256;
+    private static final long SETTLEMENT_BATCH_DELAY_MILLIS=5;
+    private static final int SETTLEMENT_QUEUE_CAPACITY=65536;
+    private static final long JOURNAL_FORCE_INTERVAL_MILLIS=1000;
+    private static final long SNAPSHOT_INTERVAL_SECONDS=300;
 
     public OrderMatchingEngine(OrderService orderServide,TradeService tradeService,StockService stockService){
+        this(orderServide,tradeService,stockService,Runtime.getRuntime().availableProcessors(),true);
+    }
+
+    /**
+     * @param journal Journal to record orders and fills in and to recover the books from on start. The engine closes it when it stops.
+     * @param snapshotStore Where periodic book snapshots are kept, or null to always replay the whole journal.
+     */
+    public OrderMatchingEngine(OrderService orderServide,TradeService tradeService,StockService stockService,EventJournal journal,SnapshotStore snapshotStore){
+        this(orderServide,tradeService,stockService,Runtime.getRuntime().availableProcessors(),DEFAULT_RING_BUFFER_SIZE,BlockingWaitStrategy::new,journal,snapshotStore,true);
+    }
+
+    public OrderMatchingEngine(OrderService orderServide,TradeService tradeService,StockService stockService,int shardCount,boolean safetySweepEnabled){
+        this(orderServide,tradeService,stockService,shardCount,DEFAULT_RING_BUFFER_SIZE,BlockingWaitStrategy::new,safetySweepEnabled);
+    }
+
+    public OrderMatchingEngine(OrderService orderServide,TradeService tradeService,StockService stockService,int shardCount,
+                               int ringBufferSize,Supplier<WaitStrategy> waitStrategyFactory,boolean safetySweepEnabled){
+        this(orderServide,tradeService,stockService,shardCount,ringBufferSize,waitStrategyFactory,null,null,safetySweepEnabled);
+    }
+
+    /**
+     * @param shardCount Number of matching threads; stocks are partitioned across them by ID.
+     * @param ringBufferSize Command slots per shard (power of two).
+     * @param waitStrategyFactory Creates one wait strategy per shard, e.g. BusySpinWaitStrategy::new for lowest latency.
+     * @param journal Event journal shared by all shards, or null to run without one.
+     * @param snapshotStore Snapshot location, or null to run without snapshots. Snapshots are only taken when there is a journal.
+     * @param safetySweepEnabled Whether to periodically re-check every book in addition to matching on arrival.
+     */
+    public OrderMatchingEngine(OrderService orderServide,TradeService tradeService,StockService stockService,int shardCount,
+                               int ringBufferSize,Supplier<WaitStrategy> waitStrategyFactory,EventJournal journal,
+                               SnapshotStore snapshotStore,boolean safetySweepEnabled){
+        if(shardCount<=0){
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
         this.orderService=orderServide;
         this.tradeService=tradeService;
-        this.stockService=stockService;
+        this.safetySweepEnabled=safetySweepEnabled;
+        this.journal=journal;
+        this.snapshotStore=journal!=null? snapshotStore:null;
+        this.snapshotWriter=Executors.newSingleThreadExecutor(runnable->{
+            Thread thread=new Thread(runnable,"snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.settlementWriter=new SettlementWriter(tradeService,SETTLEMENT_BATCH_SIZE,SETTLEMENT_BATCH_DELAY_MILLIS,SETTLEMENT_QUEUE_CAPACITY);
+        this.shards=new MatchingShard[shardCount];
+        for(int i=0;i<shardCount;i++){
+            shards[i]=new MatchingShard(i,settlementWriter,journal,stockService,ringBufferSize,waitStrategyFactory.get());
+        }
+        // A fill the database rejects goes back to the shard that matched it, which undoes it in memory.
+        settlementWriter.setFailedFillListener((fill,buyerOrder,sellerOrder)->shardFor(fill.getStockId()).fillFailed(fill,buyerOrder,sellerOrder));
         this.scheduler=Executors.newSingleThreadScheduledExecutor();
     }
     public void startEngine(){
-        scheduler.scheduleAtFixedRate(()->{
-            try{
-                attemptMatchOrders();
-            }catch(SQLException e){
-                System.err.println("Database error during order matching: "+e.getMessage());
-            }catch (Exception e){
-                System.err.println("Unexpected error during order matching: "+e.getMessage());
-
+        settlementWriter.start();
+        for(MatchingShard shard: shards){
+            shard.start();
+        }
+        try{
+            if(journal!=null && journal.getLastSequence()>0){
+                recoverOrderBooks();
+            }else{
+                loadOrderBooks();
             }
-        },0,MATCHING_INTERVAL_SECONDS,TimeUnit.SECONDS);
-        System.out.println("Order Matching Engine started. Matching orders every "+MATCHING_INTERVAL_SECONDS+" seconds.");
+        }catch (SQLException e){
+            System.err.println("Database error while loading order books: "+e.getMessage());
+        }
+        if(journal!=null){
+            scheduler.scheduleWithFixedDelay(journal::force,JOURNAL_FORCE_INTERVAL_MILLIS,JOURNAL_FORCE_INTERVAL_MILLIS,TimeUnit.MILLISECONDS);
+        }
+        if(snapshotStore!=null){
+            scheduler.scheduleWithFixedDelay(this::takeSnapshot,SNAPSHOT_INTERVAL_SECONDS,SNAPSHOT_INTERVAL_SECONDS,TimeUnit.SECONDS);
+        }
+        // Books loaded from the database may already cross.
+        for(MatchingShard shard: shards){
+            shard.sweep();
+        }
+        if(safetySweepEnabled){
+            // Orders are matched as they arrive and self-trades cancel the older order, so a book is never left crossed on purpose.
+            // This sweep is only a backstop for a match that an unexpected error cut short.
+            scheduler.scheduleWithFixedDelay(()->{
+                for(MatchingShard shard: shards){
+                    shard.sweep();
+                }
+            },SAFETY_SWEEP_INTERVAL_SECONDS,SAFETY_SWEEP_INTERVAL_SECONDS,TimeUnit.SECONDS);
+            System.out.println("Order Matching Engine started with "+shards.length+" shards. Matching on order arrival, safety sweep every "+SAFETY_SWEEP_INTERVAL_SECONDS+" seconds.");
+        }else{
+            System.out.println("Order Matching Engine started with "+shards.length+" shards. Matching on order arrival.");
+        }
     }
     public void stopEngine(){
         scheduler.shutdown();
+        if(snapshotStore!=null){
+            // A snapshot at shutdown means the next start replays (almost) nothing.
+            try{
+                takeSnapshot().get(10,TimeUnit.SECONDS);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }catch (ExecutionException | TimeoutException e){
+                System.err.println("Could not take a snapshot at shutdown: "+e.getMessage());
+            }
+        }
+        snapshotWriter.shutdown();
+        for(MatchingShard shard: shards){
+            shard.shutdown();
+        }
         try{
-            if(!scheduler.awaitTermination(5,TimeUnit.SECONDS)){
-                scheduler.shutdown();
-                System.out.println("Order Matching Engine forcefully shut down.");
+            for(MatchingShard shard: shards){
+                if(!shard.awaitTermination(5,TimeUnit.SECONDS)){
+                    shard.shutdownNow();
+                    System.out.println("Matching shard "+shard.getShardId()+" forcefully shut down.");
+                }
             }
         }catch (InterruptedException e){
-            scheduler.shutdown();
+            for(MatchingShard shard: shards){
+                shard.shutdownNow();
+            }
             System.err.println("Order Matching Engine shutdown interrupted and forcefully shut down");
         }
+        // Shards have stopped producing fills; let the writer settle what is still queued.
+        settlementWriter.shutdown();
+        try{
+            if(!settlementWriter.awaitTermination(10,TimeUnit.SECONDS)){
+                settlementWriter.shutdownNow();
+                System.err.println("Settlement writer forcefully shut down with "+settlementWriter.getBacklog()+" unsettled entries.");
+            }
+        }catch (InterruptedException e){
+            settlementWriter.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if(journal!=null){
+            try{
+                journal.close();
+            }catch (IOException e){
+                System.err.println("Error closing event journal: "+e.getMessage());
+            }
+        }
         System.out.println("Order Matching Engine stopped.");
     }
 
-    private void attemptMatchOrders() throws SQLException{
-        List<Stock> allStocks=stockService.getAllStocks();
-
-        for(Stock stock: allStocks){
-            List<Order> buyOrders=orderService.getPendingBuyOrdersByStockId(stock.getId());
-            List<Order> sellOrder=orderService.getPendingSellOrdersByStockId(stock.getId());
-            int buyIndex=0;
-            int sellIndex=0;
-            while(buyIndex<buyOrders.size() && sellIndex<sellOrder.size()){
-                Order buyerOrder=buyOrders.get(buyIndex);
-                Order sellerOrder=sellOrder.get(sellIndex);
-
-                if(buyerOrder.getPrice().compareTo(sellerOrder.getPrice())>=0){
-                    BigDecimal executedPrice;
-                    executedPrice=sellerOrder.getPrice();
-                    int executedQuantity=Math.min(buyerOrder.getQuantity(), sellerOrder.getQuantity());
-
-                    try{
-                        tradeService.executetrade(buyerOrder,sellerOrder,executedPrice,executedQuantity);
-
-                        if(buyerOrder.getQuantity()==executedQuantity){
-                            buyIndex++;
-                        }else{
-                            buyerOrder.setQuantity(buyerOrder.getQuantity()-executedQuantity);
-                        }
-
-                        if(sellerOrder.getQuantity()==executedQuantity){
-                            sellIndex++;
-                        }else{
-                            sellerOrder.setQuantity(sellerOrder.getQuantity()-executedQuantity);
-                        }
-                        System.out.println("Matched "+executedQuantity+" shares of "+stock.getSymbol()+" at "+executedPrice+ "(Buyer: "+buyerOrder.getUserId()+", Seller: "+sellerOrder.getUserId()+")");
-                    }catch (SQLException e){
-                        System.err.println("Error executing trade for stock "+stock.getSymbol()+": "+e.getMessage());
-                    }catch (IllegalArgumentException e){
-                        System.err.println("Trade Validation error for stock "+stock.getSymbol()+": "+e.getMessage());
-                    }
-
-                }else{
-                    break;
-                }
+    /**
+     * Publishes a newly placed order into the ring buffer of the shard that owns its stock, which adds it
+     * to the resident book and immediately matches that book. Called by OrderService after the order has been saved.
+     */
+    public void submitOrder(Order order){
+        shardFor(order.getStockId()).submitOrder(order);
+    }
 
+    /**
+     * Cancels a resting order in the shard that owns its stock. The order's ID, stock, side and price locate it in its book.
+     *
+     * @return Completes with true once the order is out of its book, or false if it had already executed or been cancelled.
+     */
+    public CompletableFuture<Boolean> cancelOrder(Order order){
+        return shardFor(order.getStockId()).cancelOrder(order);
+    }
 
+    /**
+     * Moves reservations in the ledger as orders fill, load and cancel. Call before startEngine.
+     */
+    public void setAccountLedger(AccountLedger accountLedger){
+        this.accountLedger=accountLedger;
+        for(MatchingShard shard: shards){
+            shard.setAccountLedger(accountLedger);
+        }
+    }
+
+    /**
+     * Snapshots every book. Each shard copies its own books between two commands; once the settlement writer has
+     * settled everything the copies reflect, they are written by the snapshot writer thread, and journal segments no
+     * snapshot needs any more are deleted. So a recovery never has to look before a snapshot for unsettled records.
+     *
+     * @return Completes once the snapshot has been written.
+     */
+    public CompletableFuture<EngineSnapshot> takeSnapshot(){
+        if(snapshotStore==null){
+            CompletableFuture<EngineSnapshot> disabled=new CompletableFuture<>();
+            disabled.completeExceptionally(new IllegalStateException("Snapshots are not enabled."));
+            return disabled;
+        }
+        int reconciledUpTo=journal.getReconciledUpTo();
+        long fallbackSequence=journal.getLastSequence();
+        List<CompletableFuture<List<OrderBookImage>>> shardImages=new ArrayList<>(shards.length);
+        for(MatchingShard shard: shards){
+            shardImages.add(shard.snapshot());
+        }
+        // Every fill and cancel a copy reflects was queued for settlement before the copy was taken, so it is ahead of the barrier.
+        return CompletableFuture.allOf(shardImages.toArray(new CompletableFuture<?>[0]))
+                .thenComposeAsync(ignored->settlementWriter.barrier(),snapshotWriter).thenApplyAsync(ignored->{
+            List<OrderBookImage> books=new ArrayList<>();
+            for(CompletableFuture<List<OrderBookImage>> images: shardImages){
+                books.addAll(images.join());
+            }
+            long baseSequence=fallbackSequence;
+            for(OrderBookImage book: books){
+                baseSequence=Math.min(baseSequence,book.getJournalSequence());
+            }
+            EngineSnapshot snapshot=new EngineSnapshot(baseSequence,reconciledUpTo,System.currentTimeMillis(),books);
+            try{
+                snapshotStore.write(snapshot);
+                long oldestNeeded=snapshotStore.getOldestRetainedSequence();
+                int deleted=oldestNeeded>0? journal.deleteSegmentsBefore(oldestNeeded):0;
+                System.out.println("Wrote "+snapshot+", deleted "+deleted+" journal segments.");
+            }catch (IOException e){
+                System.err.println("Error writing snapshot: "+e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+            return snapshot;
+        },snapshotWriter);
+    }
+
+    public int getShardCount(){
+        return shards.length;
+    }
+
+    public SettlementWriter getSettlementWriter(){
+        return settlementWriter;
+    }
+
+    private void loadOrderBooks() throws SQLException{
+        // Streamed straight into the shards, so the database result is never held as one list.
+        int[] loaded=new int[2]; // count, highest order ID
+        orderService.forEachOpenOrder(order->{
+            journalLoadedOrder(order);
+            loaded[0]++;
+            loaded[1]=Math.max(loaded[1],order.getId());
+            shardFor(order.getStockId()).loadOrder(order);
+        });
+        journalReconciled(loaded[1]);
+        if(journal!=null){
+            // The books come from the database, so nothing journaled so far is waiting to be settled.
+            tradeService.resetSettledJournalSequences(journal.getLastSequence());
+        }
+        System.out.println("Loaded "+loaded[0]+" open orders across "+shards.length+" matching shards.");
+    }
+
+    /**
+     * Rebuilds the books from the journal instead of reading every open order. Only orders newer than the
+     * journal's watermark are read from the database: those were saved but may not have reached the journal.
+     * Fills and cancels journaled after the point the database has settled are settled again.
+     * Falls back to a full load from the database if the journal cannot be read.
+     */
+    private void recoverOrderBooks() throws SQLException{
+        // Empty for a database from before settlement progress was recorded; its journal is taken as settled.
+        Map<Integer, Long> settledSequences=tradeService.getSettledJournalSequences();
+        JournalRecovery recovery=new JournalRecovery();
+        try{
+            EngineSnapshot snapshot=snapshotStore!=null? snapshotStore.loadLatest():null;
+            if(snapshot!=null && snapshot.getBaseSequence()<=journal.getLastSequence()){
+                recovery=new JournalRecovery(snapshot);
+                System.out.println("Loaded "+snapshot+".");
+            }
+            if(!settledSequences.isEmpty()){
+                recovery.setSettledSequences(settledSequences);
+            }
+            journal.replay(recovery.getReplayFrom(),recovery);
+        }catch (IOException e){
+            System.err.println("Could not replay event journal, loading order books from the database: "+e.getMessage());
+            loadOrderBooks();
+            return;
+        }
+        int recoveredFromDatabase=0;
+        for(Order order: orderService.getOpenOrdersAfter(recovery.getWatermark())){
+            if(!recovery.isJournaled(order.getId())){
+                journalLoadedOrder(order);
+                recovery.addRecoveredOrder(order);
+                recoveredFromDatabase++;
+            }
+        }
+        journalReconciled(recovery.getHighestOrderId());
+        List<Order> openOrders=recovery.getOpenOrders();
+        for(Order order: openOrders){
+            shardFor(order.getStockId()).loadOrder(order);
+        }
+        List<JournalRecovery.Unsettled> unsettled=recovery.getUnsettled();
+        if(settledSequences.isEmpty()){
+            tradeService.resetSettledJournalSequences(journal.getLastSequence());
+        }else{
+            resettle(unsettled);
+        }
+        System.out.println("Recovered "+openOrders.size()+" open orders from "+recovery.getRecordsReplayed()+" journal records ("+
+                recoveredFromDatabase+" from the database) across "+shards.length+" matching shards; settling "+unsettled.size()+
+                " journaled fills and cancels again.");
+    }
 
+    // Settles fills and cancels that were still queued in the settlement writer when the engine last stopped, in journal
+    // order. As in a shard, a fill reaches the ledger before the settlement writer; if it fails, its shard undoes it.
+    private void resettle(List<JournalRecovery.Unsettled> unsettled){
+        for(JournalRecovery.Unsettled record: unsettled){
+            Fill fill=record.getFill();
+            if(fill==null){
+                settlementWriter.submitOrderStateChange(record.getOrderState(),record.getStockId(),record.getSequence());
+                continue;
+            }
+            if(accountLedger!=null){
+                try{
+                    accountLedger.onRecoveredFill(fill);
+                }catch (SQLException | IllegalArgumentException e){
+                    System.err.println("Ledger error settling recovered "+fill+": "+e.getMessage());
+                }
             }
+            settlementWriter.submitFill(fill,record.getSequence(),record.getBuyerOrder(),record.getSellerOrder());
+        }
+    }
+
+    private void journalLoadedOrder(Order order){
+        if(journal==null){
+            return;
+        }
+        try{
+            journal.appendOrderAccepted(order);
+        }catch (IOException e){
+            System.err.println("Error journaling loaded order "+order.getId()+": "+e.getMessage());
+        }
+    }
+
+    private void journalReconciled(int upToOrderId){
+        if(journal==null){
+            return;
+        }
+        try{
+            journal.appendOrdersReconciled(upToOrderId);
+        }catch (IOException e){
+            System.err.println("Error journaling reconciliation point: "+e.getMessage());
         }
     }
 
+    private MatchingShard shardFor(int stockId){
+        return shards[Math.floorMod(stockId,shards.length)];
+    }
+
 }
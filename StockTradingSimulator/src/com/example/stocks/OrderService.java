@@ -4,15 +4,27 @@ import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class OrderService {
     private final OrderDAO orderDAO;
     private final UserDAO userDAO;
-    private final StockDAO stockDAO;
-    public OrderService(OrderDAO orderDAO,UserDAO userDAO,StockDAO stockDAO){
+    private final StockService stockService;
+    private OrderMatchingEngine orderMatchingEngine;
+    private AccountLedger accountLedger; // Reserves cash and shares for accepted orders, if set.
+    public OrderService(OrderDAO orderDAO,UserDAO userDAO,StockService stockService){
         this.orderDAO=orderDAO;
         this.userDAO=userDAO;
-        this.stockDAO=stockDAO;
+        this.stockService=stockService;
+    }
+
+    public void setOrderMatchingEngine(OrderMatchingEngine orderMatchingEngine){
+        this.orderMatchingEngine=orderMatchingEngine;
+    }
+
+    public void setAccountLedger(AccountLedger accountLedger){
+        this.accountLedger=accountLedger;
     }
 
     public Order placeBuyOrder(int userId, String stockSymbol,int quantity, BigDecimal desiredPrice) throws SQLException, IllegalArgumentException{
@@ -27,25 +39,38 @@ public class OrderService {
             throw new IllegalArgumentException("Stock symbol cannot be empty");
         }
 
-        Optional<User> userOptional=userDAO.findById(userId);
-        if(!userOptional.isPresent()){
-            throw new IllegalArgumentException("Stock symbol cannot be empty.");
-        }
-        User user=userOptional.get();
-
-        Optional<Stock> stockOptional=stockDAO.findBySymbol(stockSymbol.toUpperCase());
+        Optional<Stock> stockOptional=stockService.getStockBySymbol(stockSymbol);
         if(!stockOptional.isPresent()){
             throw new IllegalArgumentException("stock with symbol"+stockSymbol+" not found");
         }
         Stock stock=stockOptional.get();
 
-        BigDecimal totalCost=desiredPrice.multiply(new BigDecimal(quantity));
-        if(user.getBalance().compareTo(totalCost)<0){
-            throw new IllegalArgumentException("Insufficient balance. Required "+totalCost+", Availabel: "+user.getBalance());
+        long totalCostTicks=Prices.notional(Prices.toTicks(desiredPrice),quantity);
+        if(accountLedger!=null){
+            // Checked and reserved in one step in memory; a second order cannot spend the same cash.
+            accountLedger.reserveCash(userId,totalCostTicks);
+        }else{
+            Optional<User> userOptional=userDAO.findById(userId);
+            if(!userOptional.isPresent()){
+                throw new IllegalArgumentException("User with ID "+userId+" not found.");
+            }
+            User user=userOptional.get();
+            if(Prices.toTicks(user.getBalance())<totalCostTicks){
+                throw new IllegalArgumentException("Insufficient balance. Required "+Prices.toBigDecimal(totalCostTicks)+", Availabel: "+user.getBalance());
+            }
         }
-        Order newOrder=new Order(user.getId(), stock.getId(),Order.OrderType.BUY, desiredPrice,quantity);
+        Order newOrder=new Order(userId, stock.getId(),Order.OrderType.BUY, desiredPrice,quantity);
 
-        Order saveOrder=orderDAO.save(newOrder);
+        Order saveOrder;
+        try{
+            saveOrder=orderDAO.save(newOrder);
+        }catch (SQLException e){
+            if(accountLedger!=null){
+                accountLedger.releaseCash(userId,totalCostTicks);
+            }
+            throw e;
+        }
+        submitToEngine(saveOrder);
         System.out.println("Buy order places: "+saveOrder.getQuantity()+" of "+stock.getSymbol()+" at "+saveOrder.getPrice()+" for User ID: "+saveOrder.getUserId());
         return saveOrder;
     }
@@ -61,28 +86,74 @@ public class OrderService {
         if(stockSymbol==null || stockSymbol.trim().isEmpty()){
             throw new IllegalArgumentException("Stock Symbol cannot be empty.");
         }
-        Optional<User> userOptional=userDAO.findById(userId);
-        if(!userOptional.isPresent()){
-            throw new IllegalArgumentException("User with ID "+userId+" not found.");
-        }
-        User user=userOptional.get();
-        Optional<Stock> stockOptional=stockDAO.findBySymbol(stockSymbol.toUpperCase());
+        Optional<Stock> stockOptional=stockService.getStockBySymbol(stockSymbol);
         if(!stockOptional.isPresent()){
             throw new IllegalArgumentException("Stock with symbol " +stockSymbol+" not found.");
         }
         Stock stock=stockOptional.get();
-        Order newOrder=new Order(user.getId(), stock.getId(), Order.OrderType.SELL,desiredPrice,quantity);
-        Order savedOrder=orderDAO.save(newOrder);
+        if(accountLedger!=null){
+            accountLedger.reserveShares(userId,stock.getId(),quantity);
+        }else{
+            Optional<User> userOptional=userDAO.findById(userId);
+            if(!userOptional.isPresent()){
+                throw new IllegalArgumentException("User with ID "+userId+" not found.");
+            }
+        }
+        Order newOrder=new Order(userId, stock.getId(), Order.OrderType.SELL,desiredPrice,quantity);
+        Order savedOrder;
+        try{
+            savedOrder=orderDAO.save(newOrder);
+        }catch (SQLException e){
+            if(accountLedger!=null){
+                accountLedger.releaseShares(userId,stock.getId(),quantity);
+            }
+            throw e;
+        }
+        submitToEngine(savedOrder);
         System.out.println("Sell order placed: " + savedOrder.getQuantity() + " of " + stock.getSymbol() + " at " + savedOrder.getPrice() + " for User ID: " + savedOrder.getUserId());
         return savedOrder;
     }
 
+    /**
+     * Cancels one of the user's open orders. The matching engine takes it out of its book, releases what it had
+     * reserved and settles it as CANCELLED.
+     *
+     * @return Completes with true once the order is cancelled, or false if it executed first.
+     * @throws IllegalArgumentException If the order does not exist, belongs to another user or is no longer open.
+     */
+    public CompletableFuture<Boolean> cancelOrder(int userId, int orderId) throws SQLException, IllegalArgumentException{
+        if(orderMatchingEngine==null){
+            throw new IllegalStateException("Orders can only be cancelled while the matching engine is running.");
+        }
+        Optional<Order> orderOptional=orderDAO.findById(orderId);
+        if(!orderOptional.isPresent() || orderOptional.get().getUserId()!=userId){
+            throw new IllegalArgumentException("Order with ID "+orderId+" not found.");
+        }
+        Order order=orderOptional.get();
+        if(order.getStatus()!=Order.OrderStatus.PENDING && order.getStatus()!=Order.OrderStatus.PARTIAL_FILL){
+            throw new IllegalArgumentException("Order "+orderId+" is "+order.getStatus()+" and cannot be cancelled.");
+        }
+        return orderMatchingEngine.cancelOrder(order);
+    }
+
     public Optional<Order> getOrderById(int orderId) throws SQLException{
         if(orderId<=0){
             return Optional.empty();
         }
         return orderDAO.findById(orderId);
     }
+
+    /**
+     * Streams every open order, oldest first, without loading them all into a list.
+     */
+    public void forEachOpenOrder(Consumer<? super Order> consumer) throws SQLException{
+        orderDAO.forEachOpenOrder(DatabaseManager.STREAM_FETCH_SIZE,consumer);
+    }
+
+    public List<Order> getOpenOrdersAfter(int afterOrderId) throws SQLException{
+        return orderDAO.findOpenOrdersAfter(afterOrderId);
+    }
+
     public List<Order> getPendingBuyOrdersByStockId(int stockId) throws SQLException{
         return orderDAO.findPendingBuyOrdersByStockId(stockId);
     }
@@ -98,4 +169,25 @@ public class OrderService {
         }
         return orderDAO.findOrdersByUserId(userId);
     }
+
+    /**
+     * One page of a user's orders, most recent first. Pass the previous page's next key to read further back.
+     */
+    public Page<Order> getOrdersByUserId(int userId, Page.Key after, int pageSize) throws SQLException,IllegalArgumentException{
+        Page.checkSize(pageSize);
+        return orderDAO.findOrdersByUserId(userId,after,pageSize);
+    }
+
+    /**
+     * Streams a user's full order history, most recent first, for exports and reports over long histories.
+     */
+    public void forEachOrderByUserId(int userId, Consumer<? super Order> consumer) throws SQLException{
+        orderDAO.forEachOrderByUserId(userId,DatabaseManager.STREAM_FETCH_SIZE,consumer);
+    }
+
+    private void submitToEngine(Order order){
+        if(orderMatchingEngine!=null){
+            orderMatchingEngine.submitOrder(order);
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package com.example.stocks;
+
+/**
+ * An immutable record of an order's status and remaining quantity after the matching engine changed it.
+ * The engine updates Order objects on its own thread and hands these snapshots to the SettlementWriter,
+ * which writes them to the Orders table without touching the live Order objects.
+ */
+public class OrderStateChange {
+
+    private final int orderId;
+    private final Order.OrderStatus status;
+    private final int remainingQuantity;
+
+    public OrderStateChange(int orderId, Order.OrderStatus status, int remainingQuantity){
+        this.orderId=orderId;
+        this.status=status;
+        this.remainingQuantity=remainingQuantity;
+    }
+
+    /**
+     * @return A snapshot of the order's current status and quantity.
+     */
+    public static OrderStateChange of(Order order){
+        return new OrderStateChange(order.getId(),order.getStatus(),order.getQuantity());
+    }
+
+    public int getOrderId(){
+        return orderId;
+    }
+    public Order.OrderStatus getStatus(){
+        return status;
+    }
+    public int getRemainingQuantity(){
+        return remainingQuantity;
+    }
+
+    @Override
+    public String toString(){
+        return "OrderStateChange{"+"orderId="+orderId+", status="+status+", remainingQuantity="+remainingQuantity+'}';
+    }
+}
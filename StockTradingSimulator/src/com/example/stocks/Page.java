@@ -0,0 +1,105 @@
+package com.example.stocks;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * One page of a history query, newest first, using keyset (seek) pagination on (timestamp, id).
+ * Instead of an OFFSET, the next page is requested with the key of the last row on this page, so every page
+ * costs the same index range scan however deep into the history it is.
+ */
+public class Page<T> {
+
+    public static final int MAX_SIZE=500;
+
+    private final List<T> items;
+    private final Key nextKey;
+
+    public Page(List<T> items, Key nextKey){
+        this.items=Collections.unmodifiableList(items);
+        this.nextKey=nextKey;
+    }
+
+    public List<T> getItems(){
+        return items;
+    }
+
+    /**
+     * @return The key to pass for the next (older) page, or null if this is the last page.
+     */
+    public Key getNextKey(){
+        return nextKey;
+    }
+
+    public boolean hasNext(){
+        return nextKey!=null;
+    }
+
+    /**
+     * Builds a page from rows read with a limit of {@code pageSize+1}: the extra row, if present, only shows that
+     * another page follows and is dropped.
+     */
+    public static <T> Page<T> of(List<T> rows, int pageSize, Function<? super T, Key> keyOf){
+        if(rows.size()<=pageSize){
+            return new Page<>(rows,null);
+        }
+        List<T> items=new ArrayList<>(rows.subList(0,pageSize));
+        return new Page<>(items,keyOf.apply(items.get(pageSize-1)));
+    }
+
+    /**
+     * Checks a requested page size against {@link #MAX_SIZE}.
+     */
+    public static void checkSize(int pageSize){
+        if(pageSize<=0 || pageSize>MAX_SIZE){
+            throw new IllegalArgumentException("Page size must be between 1 and "+MAX_SIZE+".");
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "Page{"+"items="+items.size()+", nextKey="+nextKey+'}';
+    }
+
+    /**
+     * Position of a row in (timestamp, id) order. A page requested after a key holds only rows that sort below it.
+     */
+    public static class Key {
+        private final LocalDateTime timestamp;
+        private final int id;
+
+        public Key(LocalDateTime timestamp, int id){
+            this.timestamp=Objects.requireNonNull(timestamp,"timestamp");
+            this.id=id;
+        }
+
+        public LocalDateTime getTimestamp(){
+            return timestamp;
+        }
+        public int getId(){
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this==o) return true;
+            if(o==null || getClass()!=o.getClass()) return false;
+            Key key=(Key) o;
+            return id==key.id && timestamp.equals(key.timestamp);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(timestamp,id);
+        }
+
+        @Override
+        public String toString(){
+            return "Key{"+"timestamp="+timestamp+", id="+id+'}';
+        }
+    }
+}
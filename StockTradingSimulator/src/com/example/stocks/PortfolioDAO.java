@@ -1,12 +1,16 @@
 package com.example.stocks;
 
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
@@ -27,7 +31,7 @@ public class PortfolioDAO {
                 return portfolioItem;
             }
         }else{
-            String sql="INSERT INTO Portfolios (user_id, stock_id, quantity VALUES(?,?,?)";
+            String sql="INSERT INTO Portfolios (user_id, stock_id, quantity) VALUES(?,?,?)";
             try(Connection connection=DatabaseManager.getConnection();
             PreparedStatement stmt=connection.prepareStatement(sql)){
                 stmt.setInt(1,portfolioItem.getUserId());
@@ -46,7 +50,7 @@ public class PortfolioDAO {
 
     }
     public static Optional<PortfolioItem> findByUserIDAndStockId(int userId, int stockId) throws SQLException{
-        String sql="SELECT user_id, stock_id,quantity FROM Portfolios WHERE user_id=? AND stock_is=?";
+        String sql="SELECT user_id, stock_id,quantity FROM Portfolios WHERE user_id=? AND stock_id=?";
         try(Connection connection=DatabaseManager.getConnection();
         PreparedStatement stmt=connection.prepareStatement(sql)){
             stmt.setInt(1,userId);
@@ -76,8 +80,62 @@ public class PortfolioDAO {
         return portfolioItems;
     }
 
+    /**
+     * Reads a user's holdings together with each stock's symbol, name and current price in one query,
+     * joining Portfolios to Stocks instead of looking each stock up separately.
+     * Users is joined in as well, so a missing user is told apart from one with no holdings without another query.
+     *
+     * @return The holdings ordered by stock ID, or empty if the user does not exist.
+     */
+    public Optional<List<PortfolioService.PortfolioDetail>> findDetailsByUserId(int userId) throws SQLException{
+        String sql="SELECT u.id AS user_id, p.quantity, s.symbol, s.company_name, s.current_price FROM Users u "+
+                "LEFT JOIN Portfolios p ON p.user_id=u.id LEFT JOIN Stocks s ON s.id=p.stock_id "+
+                "WHERE u.id=? ORDER BY p.stock_id";
+        try(Connection connection=DatabaseManager.getConnection();
+        PreparedStatement stmt=connection.prepareStatement(sql)){
+            stmt.setInt(1,userId);
+            try(ResultSet rs=stmt.executeQuery()){
+                if(!rs.next()){
+                    return Optional.empty();
+                }
+                List<PortfolioService.PortfolioDetail> details=new ArrayList<>();
+                do{
+                    if(rs.getString("symbol")!=null){ // A user with no holdings comes back as one row of NULLs.
+                        details.add(new PortfolioService.PortfolioDetail(rs.getString("symbol"),rs.getString("company_name"),
+                                rs.getInt("quantity"),rs.getBigDecimal("current_price")));
+                    }
+                }while(rs.next());
+                return Optional.of(details);
+            }
+        }
+    }
+
+    /**
+     * Values the portfolios of many users at current stock prices in one query, summing quantity times price per user.
+     *
+     * @return The total value per user ID. Users without holdings, or who do not exist, are left out.
+     */
+    public Map<Integer, BigDecimal> findPortfolioValues(Collection<Integer> userIds) throws SQLException{
+        Map<Integer, BigDecimal> values=new HashMap<>();
+        if(userIds.isEmpty()){
+            return values;
+        }
+        String sql="SELECT p.user_id, SUM(p.quantity*s.current_price) AS total_value FROM Portfolios p "+
+                "JOIN Stocks s ON s.id=p.stock_id WHERE p.user_id=ANY(?) GROUP BY p.user_id";
+        try(Connection connection=DatabaseManager.getConnection();
+        PreparedStatement stmt=connection.prepareStatement(sql)){
+            stmt.setObject(1,userIds.toArray(new Integer[0])); // One array parameter, however many users.
+            try(ResultSet rs=stmt.executeQuery()){
+                while(rs.next()){
+                    values.put(rs.getInt("user_id"),rs.getBigDecimal("total_value"));
+                }
+            }
+        }
+        return values;
+    }
+
     public boolean delete(int userId, int stockId) throws SQLException{
-        String sql="DELETE FROM Portfolios WHERE user_is=? AND stock_is=?";
+        String sql="DELETE FROM Portfolios WHERE user_id=? AND stock_id=?";
         try(Connection connection=DatabaseManager.getConnection();
         PreparedStatement stmt=connection.prepareStatement(sql)){
             stmt.setInt(1,userId);
@@ -87,6 +145,59 @@ public class PortfolioDAO {
             return affectedRows>0;
         }
     }
+    /**
+     * Adds shares to holdings as one JDBC batch on the caller's connection.
+     * Each item's quantity is the number of shares to add; the row is created if the user holds none yet.
+     */
+    public void addShares(Connection connection, Collection<PortfolioItem> additions) throws SQLException{
+        String sql="MERGE INTO Portfolios p USING (VALUES (CAST(? AS INT), CAST(? AS INT), CAST(? AS INT))) AS a(user_id, stock_id, quantity) "+
+                "ON p.user_id=a.user_id AND p.stock_id=a.stock_id "+
+                "WHEN MATCHED THEN UPDATE SET p.quantity=p.quantity+a.quantity "+
+                "WHEN NOT MATCHED THEN INSERT (user_id, stock_id, quantity) VALUES (a.user_id, a.stock_id, a.quantity)";
+        try(PreparedStatement stmt=connection.prepareStatement(sql)){
+            for(PortfolioItem item: additions){
+                stmt.setInt(1,item.getUserId());
+                stmt.setInt(2,item.getStockId());
+                stmt.setInt(3,item.getQuantity());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Removes shares from holdings as one JDBC batch on the caller's connection, then deletes holdings that reached zero.
+     * Each item's quantity is the number of shares to remove.
+     *
+     * @throws SQLException If a user does not hold enough shares, or a database error occurs.
+     */
+    public void removeShares(Connection connection, Collection<PortfolioItem> removals) throws SQLException{
+        String updateSql="UPDATE Portfolios SET quantity=quantity-? WHERE user_id=? AND stock_id=? AND quantity>=?";
+        String deleteSql="DELETE FROM Portfolios WHERE user_id=? AND stock_id=? AND quantity=0";
+        try(PreparedStatement updateStmt=connection.prepareStatement(updateSql);
+        PreparedStatement deleteStmt=connection.prepareStatement(deleteSql)){
+            PortfolioItem[] items=removals.toArray(new PortfolioItem[0]);
+            for(PortfolioItem item: items){
+                updateStmt.setInt(1,item.getQuantity());
+                updateStmt.setInt(2,item.getUserId());
+                updateStmt.setInt(3,item.getStockId());
+                updateStmt.setInt(4,item.getQuantity());
+                updateStmt.addBatch();
+
+                deleteStmt.setInt(1,item.getUserId());
+                deleteStmt.setInt(2,item.getStockId());
+                deleteStmt.addBatch();
+            }
+            int[] affectedRows=updateStmt.executeBatch();
+            for(int i=0;i<affectedRows.length;i++){
+                if(affectedRows[i]==0){
+                    throw new SQLException("User ID "+items[i].getUserId()+" does not hold "+items[i].getQuantity()+" shares of Stock ID "+items[i].getStockId());
+                }
+            }
+            deleteStmt.executeBatch();
+        }
+    }
+
     private static PortfolioItem mapResultSetToPortfolioItem(ResultSet rs) throws SQLException{
         int userId=rs.getInt("user_id");
         int stockId=rs.getInt("stock_id");
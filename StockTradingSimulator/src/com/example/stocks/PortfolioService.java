@@ -1,37 +1,56 @@
 package com.example.stocks;
 import java.math.BigDecimal;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 public class PortfolioService {
     private final PortfolioDAO portfolioDAO;
     private final UserDAO userDAO;
-    private final StockDAO stockDAO;
+    private final StockService stockService;
+    private PortfolioTracker portfolioTracker;
 
-    public  PortfolioService(PortfolioDAO portfolioDAO,UserDAO userDAO,StockDAO stockDAO){
+    public  PortfolioService(PortfolioDAO portfolioDAO,UserDAO userDAO,StockService stockService){
         this.portfolioDAO=portfolioDAO;
         this.userDAO=userDAO;
-        this.stockDAO=stockDAO;
+        this.stockService=stockService;
+    }
+
+    public void setPortfolioTracker(PortfolioTracker portfolioTracker){
+        this.portfolioTracker=portfolioTracker;
     }
 
     public List<PortfolioDetail> getUserPortfolio(int userId) throws SQLException,IllegalArgumentException{
-        Optional<User> userOptional=userDAO.findById(userId);
-        if(!userOptional.isPresent()){
+        Optional<List<PortfolioDetail>> details=portfolioDAO.findDetailsByUserId(userId);
+        if(!details.isPresent()){
             throw new IllegalArgumentException("user with ID "+userId+" not found");
         }
-        List<PortfolioItem> items=portfolioDAO.findByUserId(userId);
-        List<PortfolioDetail> portfolioDetails=new ArrayList<>();
-        for(PortfolioItem item:items){
-            Optional<Stock> stockOptional=stockDAO.findById(item.getStockId());
-            if(stockOptional.isPresent()){
-                Stock stock=stockOptional.get();
-                portfolioDetails.add(new PortfolioDetail(stock.getSymbol(),stock.getCompanyName(),item.getQuantity(),stock.getCurrentPrice()));
-            }else{
-                System.err.println("Warning: Stock with Id "+item.getStockId()+" not found for user "+ userId+" in portfolio");
-            }
+        return details.get();
+    }
+
+    /**
+     * The user's market value, cost basis and profit and loss, kept up to date by the PortfolioTracker
+     * as trades settle and prices move, so this does not query the database once the user is tracked.
+     */
+    public PortfolioTracker.Valuation getValuation(int userId) throws SQLException{
+        if(portfolioTracker==null){
+            throw new IllegalStateException("Portfolio tracking is not enabled.");
+        }
+        return portfolioTracker.getValuation(userId);
+    }
+
+    /**
+     * Values many users' portfolios at once at current stock prices, for reporting.
+     *
+     * @return The total value for each requested user ID; zero for users without holdings.
+     */
+    public Map<Integer, BigDecimal> getPortfolioValues(Collection<Integer> userIds) throws SQLException{
+        Map<Integer, BigDecimal> values=portfolioDAO.findPortfolioValues(userIds);
+        for(Integer userId: userIds){
+            values.putIfAbsent(userId,BigDecimal.ZERO);
         }
-        return portfolioDetails;
+        return values;
     }
 
 
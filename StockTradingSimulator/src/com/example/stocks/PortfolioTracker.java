@@ -0,0 +1,350 @@
+package com.example.stocks;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps every tracked user's positions marked to market in memory: quantity, cost basis (average cost),
+ * realized and unrealized profit and loss, all in ticks (see Prices).
+ * <p>
+ * Nothing is recomputed on read. TradeService reports each settled trade and MarketDataSimulator each new price,
+ * and only the accounts involved are updated: a trade touches its buyer and seller, and a price tick touches
+ * only the holders of that stock, found through a stock ID to holders index. Reading a valuation is O(1).
+ * <p>
+ * A user is tracked from their first valuation request. Shares only change hands through trades, so their
+ * positions are rebuilt by replaying their trade history in trade ID order; trades settled while the replay
+ * runs are held back and applied afterwards unless the replay already saw them.
+ */
+public class PortfolioTracker {
+    private final TradeService tradeService;
+    private final StockService stockService;
+    private final ConcurrentMap<Integer, Account> accounts=new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Set<Account>> holders=new ConcurrentHashMap<>(); // Stock ID -> accounts with a position.
+    private final ConcurrentMap<Integer, Long> marks=new ConcurrentHashMap<>(); // Stock ID -> latest price in ticks.
+
+    public PortfolioTracker(TradeService tradeService, StockService stockService){
+        this.tradeService=tradeService;
+        this.stockService=stockService;
+    }
+
+    /**
+     * @return The user's current valuation, loading their positions first if they are not tracked yet.
+     */
+    public Valuation getValuation(int userId) throws SQLException{
+        Account account=load(userId);
+        synchronized (account){
+            return account.valuation();
+        }
+    }
+
+    /**
+     * @return The user's position in a stock, or empty if they hold none.
+     */
+    public Optional<Position> getPosition(int userId, int stockId) throws SQLException{
+        Account account=load(userId);
+        synchronized (account){
+            Position position=account.positions.get(stockId);
+            return position==null? Optional.empty():Optional.of(position.copy());
+        }
+    }
+
+    /**
+     * Applies trades that have just been committed. Users who are not tracked are skipped; their trades are
+     * read from the database when they are first valued.
+     */
+    public void onTrades(List<Trade> trades){
+        for(Trade trade: trades){
+            Account buyer=accounts.get(trade.getBuyerUserId());
+            if(buyer!=null){
+                buyer.offer(trade);
+            }
+            Account seller=accounts.get(trade.getSellerUserId());
+            if(seller!=null){
+                seller.offer(trade);
+            }
+        }
+    }
+
+    /**
+     * Marks every holder of a stock to its new price.
+     */
+    public void onPriceTick(int stockId, long priceTicks){
+        // The mark is published before the holders are walked; a position opened concurrently registers as a holder
+        // before reading the mark, so it sees either the new price here or the new mark when it opens.
+        marks.put(stockId,priceTicks);
+        Set<Account> stockHolders=holders.get(stockId);
+        if(stockHolders==null){
+            return;
+        }
+        for(Account account: stockHolders){
+            synchronized (account){
+                account.mark(stockId,priceTicks);
+            }
+        }
+    }
+
+    public int getTrackedUserCount(){
+        return accounts.size();
+    }
+
+    private Account load(int userId) throws SQLException{
+        Account account=accounts.computeIfAbsent(userId,Account::new);
+        synchronized (account.loadLock){
+            if(account.loaded){
+                return account;
+            }
+            // Trades settled from here on are buffered by the account, so none fall between the replay and going live.
+            List<Trade> history=new ArrayList<>();
+            tradeService.forEachTradeByUserId(userId,history::add);
+            history.sort(Comparator.comparingInt(Trade::getId));
+            synchronized (account){
+                int lastId=0;
+                for(Trade trade: history){
+                    if(trade.getId()!=lastId){ // A trade being archived during the read can turn up in both tiers.
+                        account.apply(trade);
+                        lastId=trade.getId();
+                    }
+                }
+                account.goLive(lastId);
+            }
+            return account;
+        }
+    }
+
+    private long markFor(int stockId){
+        Long mark=marks.get(stockId);
+        if(mark!=null){
+            return mark;
+        }
+        try{
+            Optional<Stock> stock=stockService.getStockById(stockId);
+            if(stock.isPresent()){
+                mark=marks.putIfAbsent(stockId,stock.get().getCurrentPriceTicks());
+                return mark!=null? mark:stock.get().getCurrentPriceTicks();
+            }
+        }catch (SQLException e){
+            System.err.println("Could not read price of Stock ID "+stockId+" for portfolio tracking: "+e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * One user's positions and running totals. Guarded by its own monitor.
+     */
+    private final class Account {
+        private final int userId;
+        private final Object loadLock=new Object();
+        private final Map<Integer, Position> positions=new HashMap<>();
+        private List<Trade> pending=new ArrayList<>(); // Trades that arrived while loading; null once live.
+        private volatile boolean loaded;
+        private int replayedUpTo; // Highest trade ID seen by the replay.
+        private long marketValueTicks;
+        private long costBasisTicks;
+        private long realizedTicks;
+        private long uncoveredQuantity; // Shares sold with no known cost, left out of realized P&L.
+
+        private Account(int userId){
+            this.userId=userId;
+        }
+
+        private synchronized void offer(Trade trade){
+            if(pending!=null){
+                pending.add(trade);
+            }else if(trade.getId()>replayedUpTo){
+                apply(trade);
+            }
+        }
+
+        private void goLive(int lastReplayedId){
+            replayedUpTo=lastReplayedId;
+            for(Trade trade: pending){
+                if(trade.getId()>replayedUpTo){
+                    apply(trade);
+                }
+            }
+            pending=null;
+            loaded=true;
+        }
+
+        private void apply(Trade trade){
+            if(trade.getBuyerUserId()==userId){
+                buy(trade.getStockId(),trade.getQuantity(),trade.getPriceTicks());
+            }else if(trade.getSellerUserId()==userId){
+                sell(trade.getStockId(),trade.getQuantity(),trade.getPriceTicks());
+            }
+        }
+
+        private void buy(int stockId, int quantity, long priceTicks){
+            Position position=positions.get(stockId);
+            if(position==null){
+                holders.computeIfAbsent(stockId,id->ConcurrentHashMap.newKeySet()).add(this);
+                position=new Position(stockId,markFor(stockId));
+                positions.put(stockId,position);
+            }
+            long cost=Prices.notional(priceTicks,quantity);
+            position.quantity+=quantity;
+            position.costTicks+=cost;
+            costBasisTicks+=cost;
+            marketValueTicks+=Prices.notional(position.markTicks,quantity);
+        }
+
+        // Average cost: the shares sold take their proportional share of the position's cost basis with them.
+        // Shares sold beyond the tracked position never came through a trade (e.g. seeded in Portfolios), so their
+        // cost is unknown: they are counted as uncovered rather than booked as pure profit.
+        private void sell(int stockId, int quantity, long priceTicks){
+            Position position=positions.get(stockId);
+            int sold=position==null? 0:Math.min(quantity,position.quantity);
+            uncoveredQuantity+=quantity-sold;
+            if(sold==0){
+                return;
+            }
+            long proceeds=Prices.notional(priceTicks,sold);
+            long soldCost=sold==position.quantity? position.costTicks:proportion(position.costTicks,sold,position.quantity);
+            realizedTicks+=proceeds-soldCost;
+            position.realizedTicks+=proceeds-soldCost;
+            position.costTicks-=soldCost;
+            costBasisTicks-=soldCost;
+            marketValueTicks-=Prices.notional(position.markTicks,sold);
+            position.quantity-=sold;
+            if(position.quantity==0){
+                positions.remove(stockId);
+                Set<Account> stockHolders=holders.get(stockId);
+                if(stockHolders!=null){
+                    stockHolders.remove(this);
+                }
+            }
+        }
+
+        private void mark(int stockId, long priceTicks){
+            Position position=positions.get(stockId);
+            if(position!=null){
+                marketValueTicks+=Prices.notional(priceTicks-position.markTicks,position.quantity);
+                position.markTicks=priceTicks;
+            }
+        }
+
+        private Valuation valuation(){
+            return new Valuation(userId,positions.size(),marketValueTicks,costBasisTicks,realizedTicks,uncoveredQuantity);
+        }
+    }
+
+    // amount * part / whole, rounded down, without overflowing the intermediate product.
+    private static long proportion(long amount, int part, int whole){
+        return amount/whole*part+amount%whole*part/whole;
+    }
+
+    /**
+     * A holding in one stock. Copies are handed out, so callers never see one change.
+     */
+    public static final class Position {
+        private final int stockId;
+        private int quantity;
+        private long costTicks;
+        private long markTicks;
+        private long realizedTicks;
+
+        private Position(int stockId, long markTicks){
+            this.stockId=stockId;
+            this.markTicks=markTicks;
+        }
+
+        private Position copy(){
+            Position copy=new Position(stockId,markTicks);
+            copy.quantity=quantity;
+            copy.costTicks=costTicks;
+            copy.realizedTicks=realizedTicks;
+            return copy;
+        }
+
+        public int getStockId(){
+            return stockId;
+        }
+        public int getQuantity(){
+            return quantity;
+        }
+        public BigDecimal getCostBasis(){
+            return Prices.toBigDecimal(costTicks);
+        }
+        public BigDecimal getMarketValue(){
+            return Prices.toBigDecimal(Prices.notional(markTicks,quantity));
+        }
+        public BigDecimal getUnrealizedPnl(){
+            return Prices.toBigDecimal(Prices.notional(markTicks,quantity)-costTicks);
+        }
+        /**
+         * @return Profit or loss booked by sales since the position was last opened.
+         */
+        public BigDecimal getRealizedPnl(){
+            return Prices.toBigDecimal(realizedTicks);
+        }
+
+        @Override
+        public String toString(){
+            return "Position{"+"stockId="+stockId+", quantity="+quantity+", costBasis="+getCostBasis()+
+                    ", marketValue="+getMarketValue()+", realizedPnl="+getRealizedPnl()+'}';
+        }
+    }
+
+    /**
+     * A user's portfolio totals at one moment.
+     */
+    public static final class Valuation {
+        private final int userId;
+        private final int positionCount;
+        private final long marketValueTicks;
+        private final long costBasisTicks;
+        private final long realizedTicks;
+        private final long uncoveredQuantity;
+
+        private Valuation(int userId, int positionCount, long marketValueTicks, long costBasisTicks, long realizedTicks, long uncoveredQuantity){
+            this.userId=userId;
+            this.positionCount=positionCount;
+            this.marketValueTicks=marketValueTicks;
+            this.costBasisTicks=costBasisTicks;
+            this.realizedTicks=realizedTicks;
+            this.uncoveredQuantity=uncoveredQuantity;
+        }
+
+        public int getUserId(){
+            return userId;
+        }
+        public int getPositionCount(){
+            return positionCount;
+        }
+        public BigDecimal getMarketValue(){
+            return Prices.toBigDecimal(marketValueTicks);
+        }
+        public BigDecimal getCostBasis(){
+            return Prices.toBigDecimal(costBasisTicks);
+        }
+        public BigDecimal getUnrealizedPnl(){
+            return Prices.toBigDecimal(marketValueTicks-costBasisTicks);
+        }
+        public BigDecimal getRealizedPnl(){
+            return Prices.toBigDecimal(realizedTicks);
+        }
+        /**
+         * @return Shares sold that the user's trade history never showed them buying. Their cost is unknown,
+         * so those sales are not part of the realized P&L.
+         */
+        public long getUncoveredQuantity(){
+            return uncoveredQuantity;
+        }
+
+        @Override
+        public String toString(){
+            return "Valuation{"+"userId="+userId+", positions="+positionCount+", marketValue="+getMarketValue()+
+                    ", costBasis="+getCostBasis()+", unrealizedPnl="+getUnrealizedPnl()+", realizedPnl="+getRealizedPnl()+
+                    ", uncoveredQuantity="+uncoveredQuantity+'}';
+        }
+    }
+}
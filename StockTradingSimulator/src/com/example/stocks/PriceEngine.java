@@ -0,0 +1,191 @@
+package com.example.stocks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Generates simulated prices for many stocks at once with geometric Brownian motion.
+ * <p>
+ * Each step moves every price by {@code exp(drift - volatility^2/2 + volatility*z)}, where drift and volatility are per
+ * stock and per step. The shock z is correlated across stocks through one market factor:
+ * {@code z = beta*m + sqrt(1-beta^2)*e}, with m drawn once per step and e drawn per stock, so a stock's beta is its
+ * correlation with the market. State is held in parallel primitive arrays indexed by stock, and a step runs over
+ * fixed-size chunks of those arrays in parallel. Each chunk has its own SplittableRandom, split from the engine's
+ * seed, so a run is reproducible however the chunks are scheduled.
+ * <p>
+ * Not thread-safe: one thread adds stocks and calls step (MarketDataSimulator's timer thread).
+ */
+public class PriceEngine {
+
+    private static final int CHUNK_SIZE=4096;
+    private static final int INITIAL_CAPACITY=64;
+    private static final long MIN_PRICE_TICKS=100;  // 0.01, the smallest displayed price.
+    private static final long PRICE_STEP_TICKS=100; // Prices are published in whole cents.
+
+    // Ranges for stocks added without explicit parameters. Volatility per step is around the old +/-2% uniform move.
+    private static final double MIN_VOLATILITY=0.004;
+    private static final double MAX_VOLATILITY=0.015;
+    private static final double MAX_ABS_DRIFT=0.0002;
+    private static final double MIN_BETA=0.3;
+    private static final double MAX_BETA=0.8;
+
+    private final SplittableRandom random;
+    private final Map<Integer, Integer> indexByStockId=new HashMap<>();
+    private SplittableRandom[] chunkRandoms=new SplittableRandom[0];
+
+    private int size;
+    private int[] stockIds=new int[INITIAL_CAPACITY];
+    private double[] prices=new double[INITIAL_CAPACITY];
+    private long[] priceTicks=new long[INITIAL_CAPACITY]; // Last published price.
+    private boolean[] changed=new boolean[INITIAL_CAPACITY]; // Whether the last step changed the published price.
+    private double[] driftTerms=new double[INITIAL_CAPACITY]; // drift - volatility^2/2, precomputed.
+    private double[] volatilities=new double[INITIAL_CAPACITY];
+    private double[] betas=new double[INITIAL_CAPACITY];
+    private double[] idiosyncratic=new double[INITIAL_CAPACITY]; // sqrt(1 - beta^2), precomputed.
+
+    public PriceEngine(long seed){
+        this.random=new SplittableRandom(seed);
+    }
+
+    public PriceEngine(){
+        this(System.nanoTime());
+    }
+
+    /**
+     * Adds a stock with randomly chosen drift, volatility and beta.
+     */
+    public void addStock(int stockId, long priceTicks){
+        double volatility=random.nextDouble(MIN_VOLATILITY,MAX_VOLATILITY);
+        double drift=random.nextDouble(-MAX_ABS_DRIFT,MAX_ABS_DRIFT);
+        double beta=random.nextDouble(MIN_BETA,MAX_BETA);
+        addStock(stockId,priceTicks,drift,volatility,beta);
+    }
+
+    /**
+     * @param priceTicks Starting price in ticks (see Prices).
+     * @param drift Expected log return per step.
+     * @param volatility Standard deviation of the log return per step.
+     * @param beta Correlation of the stock's shocks with the market factor, between -1 and 1.
+     */
+    public void addStock(int stockId, long priceTicks, double drift, double volatility, double beta){
+        if(indexByStockId.containsKey(stockId)){
+            throw new IllegalArgumentException("Stock ID "+stockId+" is already in the price engine.");
+        }
+        if(priceTicks<=0 || volatility<0 || beta<-1 || beta>1){
+            throw new IllegalArgumentException("Invalid price parameters for stock ID "+stockId+": price="+priceTicks+
+                    ", volatility="+volatility+", beta="+beta);
+        }
+        if(size==stockIds.length){
+            grow();
+        }
+        int i=size++;
+        stockIds[i]=stockId;
+        prices[i]=priceTicks;
+        this.priceTicks[i]=priceTicks;
+        driftTerms[i]=drift-volatility*volatility/2;
+        volatilities[i]=volatility;
+        betas[i]=beta;
+        idiosyncratic[i]=Math.sqrt(1-beta*beta);
+        indexByStockId.put(stockId,i);
+    }
+
+    public boolean contains(int stockId){
+        return indexByStockId.containsKey(stockId);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return The last published price of a stock in ticks, or -1 if the engine does not have it.
+     */
+    public long getPriceTicks(int stockId){
+        Integer index=indexByStockId.get(stockId);
+        return index!=null? priceTicks[index]:-1;
+    }
+
+    /**
+     * Advances every price by one step.
+     *
+     * @return The new price in ticks of every stock whose published (whole-cent) price changed, by stock ID.
+     */
+    public Map<Integer, Long> step(){
+        int chunks=(size+CHUNK_SIZE-1)/CHUNK_SIZE;
+        while(chunkRandoms.length<chunks){
+            chunkRandoms=Arrays.copyOf(chunkRandoms,chunkRandoms.length+1);
+            chunkRandoms[chunkRandoms.length-1]=random.split();
+        }
+        double market=gaussian(random);
+        if(chunks==1){
+            stepChunk(0,market); // Not worth handing to the common pool.
+        }else{
+            IntStream.range(0,chunks).parallel().forEach(chunk->stepChunk(chunk,market));
+        }
+        Map<Integer, Long> changes=new HashMap<>();
+        for(int i=0;i<size;i++){
+            if(changed[i]){
+                changes.put(stockIds[i],priceTicks[i]);
+            }
+        }
+        return changes;
+    }
+
+    private void stepChunk(int chunk, double market){
+        SplittableRandom chunkRandom=chunkRandoms[chunk];
+        int from=chunk*CHUNK_SIZE;
+        int to=Math.min(size,from+CHUNK_SIZE);
+        for(int i=from;i<to;i+=2){
+            // The polar method yields normals in pairs.
+            double u;
+            double v;
+            double s;
+            do{
+                u=chunkRandom.nextDouble()*2-1;
+                v=chunkRandom.nextDouble()*2-1;
+                s=u*u+v*v;
+            }while(s>=1 || s==0);
+            double scale=Math.sqrt(-2*Math.log(s)/s);
+            move(i,market,u*scale);
+            if(i+1<to){
+                move(i+1,market,v*scale);
+            }
+        }
+    }
+
+    private void move(int i, double market, double noise){
+        double shock=betas[i]*market+idiosyncratic[i]*noise;
+        double price=prices[i]*Math.exp(driftTerms[i]+volatilities[i]*shock);
+        prices[i]=price;
+        long ticks=Math.max(MIN_PRICE_TICKS,Math.round(price/PRICE_STEP_TICKS)*PRICE_STEP_TICKS);
+        changed[i]=ticks!=priceTicks[i];
+        priceTicks[i]=ticks;
+    }
+
+    private void grow(){
+        int capacity=stockIds.length*2;
+        stockIds=Arrays.copyOf(stockIds,capacity);
+        prices=Arrays.copyOf(prices,capacity);
+        priceTicks=Arrays.copyOf(priceTicks,capacity);
+        changed=Arrays.copyOf(changed,capacity);
+        driftTerms=Arrays.copyOf(driftTerms,capacity);
+        volatilities=Arrays.copyOf(volatilities,capacity);
+        betas=Arrays.copyOf(betas,capacity);
+        idiosyncratic=Arrays.copyOf(idiosyncratic,capacity);
+    }
+
+    private static double gaussian(SplittableRandom random){
+        double u;
+        double v;
+        double s;
+        do{
+            u=random.nextDouble()*2-1;
+            v=random.nextDouble()*2-1;
+            s=u*u+v*v;
+        }while(s>=1 || s==0);
+        return u*Math.sqrt(-2*Math.log(s)/s);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.stocks;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point price helpers for the matching and settlement hot paths.
+ * A price is held as a long number of ticks with 4 decimal places (1 tick = 0.0001),
+ * which is the same scale as the DECIMAL(19, 4) columns. Comparing and multiplying longs
+ * allocates nothing, so BigDecimal is only used at the DAO and UI boundary.
+ */
+public final class Prices {
+
+    public static final int SCALE=4;
+    public static final long TICKS_PER_UNIT=10_000L;
+
+    private Prices(){
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Converts a BigDecimal amount to ticks, rounding half-up to 4 decimal places as the database would.
+     *
+     * @throws ArithmeticException If the amount does not fit in a long number of ticks.
+     */
+    public static long toTicks(BigDecimal amount){
+        return amount.setScale(SCALE,RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converts ticks back to a BigDecimal with scale 4.
+     */
+    public static BigDecimal toBigDecimal(long ticks){
+        return BigDecimal.valueOf(ticks,SCALE);
+    }
+
+    /**
+     * @return price * quantity, in ticks.
+     * @throws ArithmeticException If the result overflows.
+     */
+    public static long notional(long priceTicks, int quantity){
+        return Math.multiplyExact(priceTicks,(long)quantity);
+    }
+}
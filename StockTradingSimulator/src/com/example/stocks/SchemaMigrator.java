@@ -0,0 +1,111 @@
+package com.example.stocks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the database schema up to date by applying every Migration that is not yet recorded in schema_version.
+ * <p>
+ * Migrations run in version order, one at a time, each followed by its schema_version row. Before anything runs,
+ * the checksums of migrations that were already applied are compared with the code, and startup fails on a mismatch
+ * rather than silently running against a schema that differs from what the code expects.
+ */
+public class SchemaMigrator {
+
+    private final List<Migration> migrations;
+
+    public SchemaMigrator(List<Migration> migrations){
+        this.migrations=new ArrayList<>(migrations);
+        this.migrations.sort(Comparator.comparingInt(Migration::getVersion));
+        for(int i=1;i<this.migrations.size();i++){
+            if(this.migrations.get(i).getVersion()==this.migrations.get(i-1).getVersion()){
+                throw new IllegalArgumentException("Duplicate migration version "+this.migrations.get(i).getVersion());
+            }
+        }
+    }
+
+    /**
+     * Applies all pending migrations.
+     *
+     * @return The number of migrations applied.
+     * @throws SQLException If an applied migration's checksum changed, or a migration fails.
+     */
+    public int migrate(Connection connection) throws SQLException{
+        try(Statement statement=connection.createStatement()){
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY," +
+                    "description VARCHAR(255) NOT NULL," +
+                    "checksum VARCHAR(8) NOT NULL," +
+                    "installed_on TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                    "execution_ms BIGINT NOT NULL" +
+                    ")");
+        }
+        Map<Integer, String> applied=findAppliedChecksums(connection);
+        for(Migration migration: migrations){
+            String checksum=applied.get(migration.getVersion());
+            if(checksum!=null && !checksum.equals(migration.getChecksum())){
+                throw new SQLException("Checksum mismatch for applied migration "+migration+": database has "+checksum+
+                        ", code has "+migration.getChecksum()+". Applied migrations must not be edited; add a new one instead.");
+            }
+        }
+        int count=0;
+        for(Migration migration: migrations){
+            if(applied.containsKey(migration.getVersion())){
+                continue;
+            }
+            long start=System.currentTimeMillis();
+            try{
+                migration.apply(connection);
+            }catch (SQLException e){
+                System.err.println("Migration "+migration+" failed: "+e.getMessage());
+                throw e;
+            }
+            long elapsed=System.currentTimeMillis()-start;
+            recordApplied(connection,migration,elapsed);
+            System.out.println("Applied migration "+migration+" in "+elapsed+" ms.");
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The highest applied version, or 0 if none.
+     */
+    public int getCurrentVersion(Connection connection) throws SQLException{
+        int version=0;
+        for(int applied: findAppliedChecksums(connection).keySet()){
+            version=Math.max(version,applied);
+        }
+        return version;
+    }
+
+    private Map<Integer, String> findAppliedChecksums(Connection connection) throws SQLException{
+        Map<Integer, String> applied=new HashMap<>();
+        try(Statement statement=connection.createStatement();
+            ResultSet rs=statement.executeQuery("SELECT version, checksum FROM schema_version")){
+            while(rs.next()){
+                applied.put(rs.getInt("version"),rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private void recordApplied(Connection connection, Migration migration, long elapsedMillis) throws SQLException{
+        String sql="INSERT INTO schema_version (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)";
+        try(PreparedStatement stmt=connection.prepareStatement(sql)){
+            stmt.setInt(1,migration.getVersion());
+            stmt.setString(2,migration.getDescription());
+            stmt.setString(3,migration.getChecksum());
+            stmt.setLong(4,elapsedMillis);
+            stmt.executeUpdate();
+        }
+    }
+}
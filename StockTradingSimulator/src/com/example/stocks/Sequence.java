@@ -0,0 +1,53 @@
+package com.example.stocks;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A padded, concurrently readable sequence counter used by OrderCommandRingBuffer.
+ * The padding keeps the hot value on its own cache line so the producer cursor and the
+ * consumer sequence do not false-share when they are updated from different cores.
+ */
+public class Sequence {
+
+    private static final AtomicLongFieldUpdater<Sequence> VALUE_UPDATER=
+            AtomicLongFieldUpdater.newUpdater(Sequence.class,"value");
+
+    // Cache line padding before and after the value.
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+    private volatile long value;
+    @SuppressWarnings("unused")
+    private long p9, p10, p11, p12, p13, p14, p15;
+
+    public Sequence(long initialValue){
+        this.value=initialValue;
+    }
+
+    public long get(){
+        return value;
+    }
+
+    public void set(long newValue){
+        value=newValue;
+    }
+
+    /**
+     * Ordered (store-store) write; cheaper than a volatile write and enough for a single writer.
+     */
+    public void setOrdered(long newValue){
+        VALUE_UPDATER.lazySet(this,newValue);
+    }
+
+    public boolean compareAndSet(long expected, long newValue){
+        return VALUE_UPDATER.compareAndSet(this,expected,newValue);
+    }
+
+    public long getAndIncrement(){
+        return VALUE_UPDATER.getAndIncrement(this);
+    }
+
+    @Override
+    public String toString(){
+        return Long.toString(value);
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.stocks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence stage between the matching shards and the database.
+ * <p>
+ * Shards match in memory and hand each Fill (and any other order state change) to this writer instead of
+ * waiting for a commit. A single writer thread drains the queue and settles everything it collected with one
+ * TradeService.settle call, i.e. one transaction: a batch is flushed once it holds {@code maxBatchSize} entries
+ * or {@code maxBatchDelayMillis} after its first entry arrived, whichever comes first. One writer keeps
+ * settlements in the order the shards produced them. If a batch fails, its entries are retried one at a time
+ * so a single bad fill cannot hold back the others. A fill that still fails is handed back to the
+ * FailedFillListener, so the shard that matched it can undo it in memory; other entries that still fail are
+ * logged and counted.
+ * <p>
+ * Every transaction also records the last EventJournal sequence it settles for each stock. Each stock's entries come
+ * from one shard in journal order, so after a crash the journaled fills and cancels past that sequence are exactly
+ * the ones the database never saw.
+ * The queue is bounded, so a database that falls behind slows matching down rather than exhausting memory.
+ */
+public class SettlementWriter implements Runnable {
+
+    /**
+     * Told, on the writer thread, about a fill the database rejected even when settled on its own.
+     * The orders are the live ones the fill was matched from; the writer never reads them.
+     */
+    public interface FailedFillListener {
+        void onFillFailed(Fill fill, Order buyerOrder, Order sellerOrder);
+    }
+
+    private final TradeService tradeService;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final BlockingQueue<Entry> queue;
+    private final Thread thread;
+    private volatile boolean running=true;
+    private volatile FailedFillListener failedFillListener; // May be null.
+
+    // --- Metrics ---
+    private final AtomicLong batchesCommitted=new AtomicLong();
+    private final AtomicLong entriesCommitted=new AtomicLong();
+    private final AtomicLong entriesFailed=new AtomicLong();
+
+    private static final long IDLE_POLL_MILLIS=100;
+
+    /**
+     * @param maxBatchSize Most entries settled in one transaction.
+     * @param maxBatchDelayMillis Longest an entry waits for others to join its batch.
+     * @param queueCapacity Entries that may be waiting before producers block.
+     */
+    public SettlementWriter(TradeService tradeService, int maxBatchSize, long maxBatchDelayMillis, int queueCapacity){
+        if(maxBatchSize<=0 || maxBatchDelayMillis<0 || queueCapacity<=0){
+            throw new IllegalArgumentException("Invalid settlement writer settings: batchSize="+maxBatchSize+
+                    ", delayMs="+maxBatchDelayMillis+", capacity="+queueCapacity);
+        }
+        this.tradeService=tradeService;
+        this.maxBatchSize=maxBatchSize;
+        this.maxBatchDelayNanos=TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        this.queue=new LinkedBlockingQueue<>(queueCapacity);
+        this.thread=new Thread(this,"settlement-writer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start(){
+        thread.start();
+    }
+
+    /**
+     * Sets who is told about fills that cannot be settled. Call before start.
+     */
+    public void setFailedFillListener(FailedFillListener failedFillListener){
+        this.failedFillListener=failedFillListener;
+    }
+
+    /**
+     * Queues a fill for settlement, blocking while the queue is full.
+     *
+     * @param journalSequence The fill's journal record, or 0 if it was not journaled.
+     * @param buyerOrder The buy order the fill was matched from, handed back with the fill if it cannot be settled.
+     * @param sellerOrder The sell order the fill was matched from.
+     */
+    public void submitFill(Fill fill, long journalSequence, Order buyerOrder, Order sellerOrder){
+        enqueue(new Entry(fill,buyerOrder,sellerOrder,null,fill.getStockId(),journalSequence,null));
+    }
+
+    /**
+     * Queues an order status / quantity change that is not part of a fill, blocking while the queue is full.
+     *
+     * @param stockId The order's stock.
+     * @param journalSequence The journal record of the change, or 0 if it was not journaled.
+     */
+    public void submitOrderStateChange(OrderStateChange change, int stockId, long journalSequence){
+        enqueue(new Entry(null,null,null,change,stockId,journalSequence,null));
+    }
+
+    /**
+     * @return Completes once everything queued before this call has been settled or handed to the FailedFillListener.
+     */
+    public CompletableFuture<Void> barrier(){
+        CompletableFuture<Void> future=new CompletableFuture<>();
+        enqueue(new Entry(null,null,null,null,0,0,future));
+        return future;
+    }
+
+    /**
+     * Stops the writer once everything already queued has been settled.
+     */
+    public void shutdown(){
+        running=false;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException{
+        thread.join(unit.toMillis(timeout));
+        return !thread.isAlive();
+    }
+
+    public void shutdownNow(){
+        running=false;
+        thread.interrupt();
+    }
+
+    public int getBacklog(){
+        return queue.size();
+    }
+    public long getBatchesCommitted(){
+        return batchesCommitted.get();
+    }
+    public long getEntriesCommitted(){
+        return entriesCommitted.get();
+    }
+    public long getEntriesFailed(){
+        return entriesFailed.get();
+    }
+
+    @Override
+    public void run(){
+        List<Entry> batch=new ArrayList<>(maxBatchSize);
+        while(true){
+            try{
+                Entry first=queue.poll(IDLE_POLL_MILLIS,TimeUnit.MILLISECONDS);
+                if(first==null){
+                    if(!running){
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collectBatch(batch);
+            }catch (InterruptedException e){
+                queue.drainTo(batch);
+                flush(batch);
+                System.err.println("Settlement writer interrupted; "+queue.size()+" queued entries were not settled.");
+                return;
+            }
+            flush(batch);
+            batch.clear();
+        }
+        System.out.println("Settlement writer stopped. "+this);
+    }
+
+    @Override
+    public String toString(){
+        return "SettlementWriter{"+"backlog="+getBacklog()+", batches="+getBatchesCommitted()+
+                ", committed="+getEntriesCommitted()+", failed="+getEntriesFailed()+'}';
+    }
+
+    private void enqueue(Entry entry){
+        try{
+            queue.put(entry);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            entriesFailed.incrementAndGet();
+            System.err.println("Interrupted while queueing for settlement, dropped: "+entry);
+            if(entry.barrier!=null){
+                entry.barrier.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Keeps adding entries until the batch is full or its delay has passed. Stops waiting once shutdown was requested.
+    private void collectBatch(List<Entry> batch) throws InterruptedException{
+        long deadline=System.nanoTime()+maxBatchDelayNanos;
+        while(batch.size()<maxBatchSize){
+            if(queue.drainTo(batch,maxBatchSize-batch.size())>0){
+                continue;
+            }
+            long remaining=deadline-System.nanoTime();
+            if(remaining<=0 || !running){
+                return;
+            }
+            Entry next=queue.poll(remaining,TimeUnit.NANOSECONDS);
+            if(next==null){
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Entry> batch){
+        if(batch.isEmpty()){
+            return;
+        }
+        List<Fill> fills=new ArrayList<>(batch.size());
+        List<OrderStateChange> orderStateChanges=new ArrayList<>(batch.size()*2);
+        Map<Integer, Long> journalSequences=new HashMap<>();
+        List<Entry> entries=new ArrayList<>(batch.size());
+        for(Entry entry: batch){
+            if(entry.barrier==null){
+                entry.collect(fills,orderStateChanges,journalSequences);
+                entries.add(entry);
+            }
+        }
+        if(!entries.isEmpty()){
+            try{
+                tradeService.settle(fills,orderStateChanges,journalSequences);
+                batchesCommitted.incrementAndGet();
+                entriesCommitted.addAndGet(entries.size());
+            }catch (SQLException e){
+                System.err.println("Settlement batch of "+entries.size()+" failed, settling entries one at a time: "+e.getMessage());
+                for(Entry entry: entries){
+                    settleAlone(entry);
+                }
+            }
+        }
+        for(Entry entry: batch){
+            if(entry.barrier!=null){
+                entry.barrier.complete(null);
+            }
+        }
+    }
+
+    private void settleAlone(Entry entry){
+        List<Fill> fills=new ArrayList<>(1);
+        List<OrderStateChange> orderStateChanges=new ArrayList<>(2);
+        Map<Integer, Long> journalSequences=new HashMap<>(2);
+        entry.collect(fills,orderStateChanges,journalSequences);
+        try{
+            tradeService.settle(fills,orderStateChanges,journalSequences);
+            batchesCommitted.incrementAndGet();
+            entriesCommitted.incrementAndGet();
+        }catch (SQLException e){
+            entriesFailed.incrementAndGet();
+            System.err.println("Could not settle "+entry+": "+e.getMessage());
+            FailedFillListener listener=failedFillListener;
+            if(entry.fill!=null && listener!=null){
+                try{
+                    listener.onFillFailed(entry.fill,entry.buyerOrder,entry.sellerOrder);
+                }catch (RuntimeException listenerError){
+                    System.err.println("Failed fill listener error for "+entry+": "+listenerError.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * One queued item: a fill (with the orders it came from), a standalone order state change, or a barrier.
+     */
+    private static final class Entry {
+        private final Fill fill;
+        private final Order buyerOrder;
+        private final Order sellerOrder;
+        private final OrderStateChange change;
+        private final int stockId;
+        private final long journalSequence; // 0 if not journaled.
+        private final CompletableFuture<Void> barrier;
+
+        private Entry(Fill fill, Order buyerOrder, Order sellerOrder, OrderStateChange change, int stockId,
+                      long journalSequence, CompletableFuture<Void> barrier){
+            this.fill=fill;
+            this.buyerOrder=buyerOrder;
+            this.sellerOrder=sellerOrder;
+            this.change=change;
+            this.stockId=stockId;
+            this.journalSequence=journalSequence;
+            this.barrier=barrier;
+        }
+
+        private void collect(List<Fill> fills, List<OrderStateChange> orderStateChanges, Map<Integer, Long> journalSequences){
+            if(fill!=null){
+                fills.add(fill);
+                orderStateChanges.add(fill.getBuyerOrderState());
+                orderStateChanges.add(fill.getSellerOrderState());
+            }else{
+                orderStateChanges.add(change);
+            }
+            if(journalSequence>0){
+                journalSequences.merge(stockId,journalSequence,Math::max);
+            }
+        }
+
+        @Override
+        public String toString(){
+            return fill!=null? fill.toString():change!=null? change.toString():"barrier";
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.stocks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes EngineSnapshot files.
+ * <p>
+ * A snapshot is one compact binary file named after its base journal sequence ({@code snapshot-00000000000000001234.bin}),
+ * ending with a CRC32 of its contents. It is written to a temporary file, synced and then atomically renamed,
+ * so a crash never leaves a half-written snapshot behind under the real name. The newest {@code retainedSnapshots}
+ * files are kept; if the newest cannot be read, loading falls back to the one before it.
+ */
+public class SnapshotStore {
+
+    private static final int MAGIC=0x534E4150; // "SNAP"
+    private static final int VERSION=1;
+    private static final String SNAPSHOT_PREFIX="snapshot-";
+    private static final String SNAPSHOT_SUFFIX=".bin";
+    private static final int DEFAULT_RETAINED_SNAPSHOTS=2;
+
+    private final Path directory;
+    private final int retainedSnapshots;
+
+    public SnapshotStore(Path directory) throws IOException{
+        this(directory,DEFAULT_RETAINED_SNAPSHOTS);
+    }
+
+    public SnapshotStore(Path directory, int retainedSnapshots) throws IOException{
+        if(retainedSnapshots<=0){
+            throw new IllegalArgumentException("At least one snapshot must be retained.");
+        }
+        this.directory=directory;
+        this.retainedSnapshots=retainedSnapshots;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Writes a snapshot and removes snapshots beyond the retention count.
+     */
+    public synchronized void write(EngineSnapshot snapshot) throws IOException{
+        Path target=snapshotPath(snapshot.getBaseSequence());
+        Path temp=directory.resolve(target.getFileName()+".tmp");
+        try(FileOutputStream file=new FileOutputStream(temp.toFile())){
+            CheckedOutputStream checked=new CheckedOutputStream(new BufferedOutputStream(file),new CRC32());
+            DataOutputStream out=new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshot.getBaseSequence());
+            out.writeInt(snapshot.getReconciledUpTo());
+            out.writeLong(snapshot.getCreatedAtMillis());
+            out.writeInt(snapshot.getBooks().size());
+            for(OrderBookImage book: snapshot.getBooks()){
+                out.writeInt(book.getStockId());
+                out.writeUTF(book.getSymbol());
+                out.writeLong(book.getJournalSequence());
+                out.writeInt(book.getOrderCount());
+                for(int i=0;i<book.getOrderCount();i++){
+                    out.writeInt(book.getOrderId(i));
+                    out.writeInt(book.getUserId(i));
+                    out.writeByte(book.getOrderType(i));
+                    out.writeLong(book.getPriceTicks(i));
+                    out.writeInt(book.getQuantity(i));
+                    out.writeByte(book.getStatus(i));
+                    out.writeLong(book.getTimestampSeconds(i));
+                    out.writeInt(book.getTimestampNanos(i));
+                }
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp,target,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        List<Long> snapshots=listSnapshots();
+        for(int i=0;i<snapshots.size()-retainedSnapshots;i++){
+            Files.deleteIfExists(snapshotPath(snapshots.get(i)));
+        }
+    }
+
+    /**
+     * @return The newest readable snapshot, or null if there is none.
+     */
+    public synchronized EngineSnapshot loadLatest() throws IOException{
+        List<Long> snapshots=listSnapshots();
+        for(int i=snapshots.size()-1;i>=0;i--){
+            Path path=snapshotPath(snapshots.get(i));
+            try{
+                return read(path);
+            }catch (IOException e){
+                System.err.println("Skipping unreadable snapshot "+path+": "+e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The base sequence of the oldest retained snapshot, or -1 if there is none.
+     * Journal records after it must be kept.
+     */
+    public synchronized long getOldestRetainedSequence() throws IOException{
+        List<Long> snapshots=listSnapshots();
+        return snapshots.isEmpty()? -1:snapshots.get(0);
+    }
+
+    private EngineSnapshot read(Path path) throws IOException{
+        try(InputStream file=Files.newInputStream(path)){
+            CheckedInputStream checked=new CheckedInputStream(new BufferedInputStream(file),new CRC32());
+            DataInputStream in=new DataInputStream(checked);
+            if(in.readInt()!=MAGIC){
+                throw new IOException("Not a snapshot file.");
+            }
+            int version=in.readInt();
+            if(version!=VERSION){
+                throw new IOException("Unsupported snapshot version "+version);
+            }
+            long baseSequence=in.readLong();
+            int reconciledUpTo=in.readInt();
+            long createdAtMillis=in.readLong();
+            int bookCount=in.readInt();
+            List<OrderBookImage> books=new ArrayList<>(bookCount);
+            for(int b=0;b<bookCount;b++){
+                int stockId=in.readInt();
+                String symbol=in.readUTF();
+                long journalSequence=in.readLong();
+                int size=in.readInt();
+                int[] orderIds=new int[size];
+                int[] userIds=new int[size];
+                byte[] orderTypes=new byte[size];
+                long[] priceTicks=new long[size];
+                int[] quantities=new int[size];
+                byte[] statuses=new byte[size];
+                long[] timestampSeconds=new long[size];
+                int[] timestampNanos=new int[size];
+                for(int i=0;i<size;i++){
+                    orderIds[i]=in.readInt();
+                    userIds[i]=in.readInt();
+                    orderTypes[i]=in.readByte();
+                    priceTicks[i]=in.readLong();
+                    quantities[i]=in.readInt();
+                    statuses[i]=in.readByte();
+                    timestampSeconds[i]=in.readLong();
+                    timestampNanos[i]=in.readInt();
+                }
+                books.add(new OrderBookImage(stockId,symbol,journalSequence,orderIds,userIds,orderTypes,priceTicks,quantities,
+                        statuses,timestampSeconds,timestampNanos));
+            }
+            long expected=checked.getChecksum().getValue();
+            if(in.readLong()!=expected){
+                throw new IOException("Snapshot checksum mismatch.");
+            }
+            return new EngineSnapshot(baseSequence,reconciledUpTo,createdAtMillis,books);
+        }
+    }
+
+    private List<Long> listSnapshots() throws IOException{
+        List<Long> snapshots=new ArrayList<>();
+        try(DirectoryStream<Path> stream=Files.newDirectoryStream(directory,SNAPSHOT_PREFIX+"*"+SNAPSHOT_SUFFIX)){
+            for(Path path: stream){
+                String name=path.getFileName().toString();
+                try{
+                    snapshots.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(),name.length()-SNAPSHOT_SUFFIX.length())));
+                }catch (NumberFormatException e){
+                    System.err.println("Ignoring unexpected file in snapshot directory: "+name);
+                }
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private Path snapshotPath(long baseSequence){
+        return directory.resolve(String.format("%s%020d%s",SNAPSHOT_PREFIX,baseSequence,SNAPSHOT_SUFFIX));
+    }
+}
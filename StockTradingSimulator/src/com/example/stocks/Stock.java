@@ -8,6 +8,7 @@ public class Stock {
     private String symbol;
     private String companyName;
     private BigDecimal currentPrice;
+    private long currentPriceTicks;
 
     //Constructor for creating a NEW Stock (e.g., when initializing the market with new stocks).
     //The 'id' is typically auto-generated by the database, so it's not passed here.
@@ -15,6 +16,7 @@ public class Stock {
         this.symbol=symbol;
         this.companyName=companyName;
         this.currentPrice=initialPrice;
+        this.currentPriceTicks=Prices.toTicks(initialPrice);
     }
 
     public Stock(int id,String symbol,String companyName, BigDecimal initialPrice){
@@ -22,6 +24,7 @@ public class Stock {
         this.symbol=symbol;
         this.companyName=companyName;
         this.currentPrice=initialPrice;
+        this.currentPriceTicks=Prices.toTicks(initialPrice);
     }
 
     public int getId(){
@@ -36,6 +39,9 @@ public class Stock {
     public BigDecimal getCurrentPrice(){
         return currentPrice;
     }
+    public long getCurrentPriceTicks(){
+        return currentPriceTicks;
+    }
     public void setCompanyName(String companyName){
         this.companyName=companyName;
     }
@@ -44,6 +50,7 @@ public class Stock {
             throw new IllegalArgumentException("Stock price cannot be negative");
         }
         this.currentPrice=currentPrice;
+        this.currentPriceTicks=Prices.toTicks(currentPrice);
     }
 
     @Override
@@ -0,0 +1,155 @@
+package com.example.stocks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Resident read-through cache of the Stocks table, used by StockService so stock lookups are map reads.
+ * A stock's ID, symbol and company name do not change once it is listed, so they live in an immutable entry;
+ * the price is the one live field, kept separately and updated in place whenever StockService changes it.
+ * Lookups return a new Stock built from the entry, so callers cannot change the cached copy.
+ */
+public class StockCache {
+    private final StockDAO stockDAO;
+    private final ConcurrentMap<Integer, Entry> byId=new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Entry> bySymbol=new ConcurrentSkipListMap<>(); // Sorted, like StockDAO.findAll.
+    // Prices written while a stock was not cached. A lookup racing that write may have read the older row, so the entry takes this price instead.
+    private final ConcurrentMap<Integer, Long> uncachedPrices=new ConcurrentHashMap<>();
+    private volatile boolean complete; // Every stock in the table is cached, so getAll needs no query.
+
+    public StockCache(StockDAO stockDAO){
+        this.stockDAO=stockDAO;
+    }
+
+    public Optional<Stock> getById(int stockId) throws SQLException{
+        Entry entry=byId.get(stockId);
+        if(entry==null){
+            Optional<Stock> stock=stockDAO.findById(stockId);
+            if(!stock.isPresent()){
+                return Optional.empty();
+            }
+            entry=put(stock.get());
+        }
+        return Optional.of(entry.toStock());
+    }
+
+    /**
+     * @param symbol The symbol, already upper case.
+     */
+    public Optional<Stock> getBySymbol(String symbol) throws SQLException{
+        Entry entry=bySymbol.get(symbol);
+        if(entry==null){
+            Optional<Stock> stock=stockDAO.findBySymbol(symbol);
+            if(!stock.isPresent()){
+                return Optional.empty();
+            }
+            entry=put(stock.get());
+        }
+        return Optional.of(entry.toStock());
+    }
+
+    /**
+     * @return Every stock, ordered by symbol. The table is read once; after that this is served from memory.
+     */
+    public List<Stock> getAll() throws SQLException{
+        if(!complete){
+            for(Stock stock: stockDAO.findAll()){
+                put(stock);
+            }
+            complete=true;
+        }
+        List<Stock> stocks=new ArrayList<>(bySymbol.size());
+        for(Entry entry: bySymbol.values()){
+            stocks.add(entry.toStock());
+        }
+        return stocks;
+    }
+
+    /**
+     * Caches a stock read from or just saved to the database. If the stock is already cached the existing entry
+     * is kept, as its price may be newer than the one read; likewise a price written since the stock was last
+     * cached wins over the one read.
+     *
+     * @return The cached entry.
+     */
+    Entry put(Stock stock){
+        Entry entry=byId.computeIfAbsent(stock.getId(),id->{
+            Entry created=new Entry(stock);
+            Long written=uncachedPrices.remove(id);
+            if(written!=null){
+                created.priceTicks=written;
+            }
+            return created;
+        });
+        bySymbol.putIfAbsent(entry.symbol,entry);
+        return entry;
+    }
+
+    /**
+     * Records a price change that has been written to the database. If the stock is not cached yet the price is kept
+     * for when it is, so a lookup that read the row just before the write cannot cache the older price.
+     */
+    public void updatePrice(int stockId, long priceTicks){
+        // Atomic with put for the same ID, so the price lands either in the entry or where put will find it.
+        byId.compute(stockId,(id,entry)->{
+            if(entry!=null){
+                entry.priceTicks=priceTicks;
+            }else{
+                uncachedPrices.put(id,priceTicks);
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Drops a stock, e.g. after it is deleted, so the next lookup goes back to the database.
+     */
+    public void invalidate(int stockId){
+        Entry entry=byId.remove(stockId);
+        if(entry!=null){
+            bySymbol.remove(entry.symbol,entry);
+        }
+        uncachedPrices.remove(stockId);
+        complete=false;
+    }
+
+    public int size(){
+        return byId.size();
+    }
+
+    /**
+     * @return The number of stocks in the table, reading it once if it has not been read in full yet.
+     */
+    public int count() throws SQLException{
+        if(!complete){
+            getAll();
+        }
+        return byId.size();
+    }
+
+    /**
+     * Immutable stock metadata plus the live price.
+     */
+    static final class Entry {
+        final int id;
+        final String symbol;
+        final String companyName;
+        volatile long priceTicks;
+
+        Entry(Stock stock){
+            this.id=stock.getId();
+            this.symbol=stock.getSymbol();
+            this.companyName=stock.getCompanyName();
+            this.priceTicks=stock.getCurrentPriceTicks();
+        }
+
+        Stock toStock(){
+            return new Stock(id,symbol,companyName,Prices.toBigDecimal(priceTicks));
+        }
+    }
+}
@@ -9,7 +9,9 @@ import java.sql.Statement;         // Used for executing simple SQL statements.
 import java.math.BigDecimal;       // For handling monetary values.
 import java.util.ArrayList;        // For returning lists of stocks.
 import java.util.List;             // For returning lists of stocks.
+import java.util.Map;              // For batched price updates keyed by stock ID.
 import java.util.Optional;         // For methods that might return no result.
+import java.util.function.Consumer; // For streaming results row by row.
 
 /**
  * Data Access Object (DAO) for the Stock entity.
@@ -143,6 +145,29 @@ public class StockDAO {
         return stocks; // Return the list of stocks.
     }
 
+    /**
+     * Streaming variant of {@link #findAll()}: hands each stock to the consumer as it is read, ordered by symbol.
+     *
+     * @param fetchSize Rows fetched per round trip, e.g. DatabaseManager.STREAM_FETCH_SIZE.
+     * @param consumer Receives each Stock.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void forEachStock(int fetchSize, Consumer<? super Stock> consumer) throws SQLException {
+        String sql = "SELECT id, symbol, company_name, current_price FROM Stocks ORDER BY symbol";
+        try (Connection connection = DatabaseManager.getConnection()) {
+            try (PreparedStatement stmt = DatabaseManager.prepareStreaming(connection, sql, fetchSize);
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    consumer.accept(new Stock(rs.getInt("id"), rs.getString("symbol"), rs.getString("company_name"),
+                            rs.getBigDecimal("current_price")));
+                }
+            } finally {
+                DatabaseManager.endStreaming(connection);
+            }
+        }
+    }
+
     /**
      * Updates an existing stock's current price in the database.
      * This is crucial for the MarketDataSimulator.
@@ -164,6 +189,47 @@ public class StockDAO {
         }
     }
 
+    /**
+     * Updates the current price of many stocks as one JDBC batch in a single transaction,
+     * so a whole market tick is one round trip instead of one statement and connection per stock.
+     *
+     * @param priceTicksByStockId New prices in ticks (see Prices), by stock ID.
+     * @return The IDs of the stocks that were updated; stocks that no longer exist are skipped.
+     * @throws SQLException If a database access error occurs; no price is changed in that case.
+     */
+    public List<Integer> updatePrices(Map<Integer, Long> priceTicksByStockId) throws SQLException {
+        if (priceTicksByStockId.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = "UPDATE Stocks SET current_price = ? WHERE id = ?";
+        try (Connection connection = DatabaseManager.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                List<Integer> stockIds = new ArrayList<>(priceTicksByStockId.size());
+                for (Map.Entry<Integer, Long> entry : priceTicksByStockId.entrySet()) {
+                    stmt.setBigDecimal(1, Prices.toBigDecimal(entry.getValue()));
+                    stmt.setInt(2, entry.getKey());
+                    stmt.addBatch();
+                    stockIds.add(entry.getKey());
+                }
+                int[] affectedRows = stmt.executeBatch(); // One count per statement, in the order they were added.
+                List<Integer> updated = new ArrayList<>(stockIds.size());
+                for (int i = 0; i < affectedRows.length; i++) {
+                    if (affectedRows[i] > 0) {
+                        updated.add(stockIds.get(i));
+                    }
+                }
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
     /**
      * Deletes a stock from the database by ID.
      *
@@ -2,15 +2,21 @@ package com.example.stocks;
 
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class StockService {
 
     private final StockDAO stockDAO;
+    private final StockCache stockCache; // Lookups are served from here; every change below goes through it too.
 
     public StockService(StockDAO stockDAO){
         this.stockDAO=stockDAO;
+        this.stockCache=new StockCache(stockDAO);
     }
 
     public Stock addNewStock(String symbol, String companyName,BigDecimal initialPrice) throws SQLException{
@@ -24,13 +30,14 @@ public class StockService {
             throw new IllegalArgumentException("Initial price must be positive.");
         }
 
-        Optional<Stock> existingStock=stockDAO.findBySymbol(symbol);
+        Optional<Stock> existingStock=stockCache.getBySymbol(symbol.toUpperCase());
         if(existingStock.isPresent()){
             throw new IllegalArgumentException("Stock symbol '" + symbol + "' already exists. Please choose another.");
         }
 
         Stock newStock=new Stock(symbol.toUpperCase(),companyName,initialPrice);
         Stock savedStock=stockDAO.save(newStock);
+        stockCache.put(savedStock);
         System.out.println("Stock "+savedStock.getSymbol()+" added successfully with ID: "+savedStock.getId());
         return savedStock;
     }
@@ -39,20 +46,56 @@ public class StockService {
         if(symbol==null || symbol.trim().isEmpty()){
             return Optional.empty();
         }
-        return stockDAO.findBySymbol(symbol.toUpperCase());
+        return stockCache.getBySymbol(symbol.toUpperCase());
     }
 
     public Optional<Stock> getStockById(int stockId) throws SQLException{
         if(stockId<=0){
             return Optional.empty();
         }
-        return stockDAO.findById(stockId);
+        return stockCache.getById(stockId);
     }
 
     public List<Stock> getAllStocks() throws SQLException{
-        return stockDAO.findAll();
+        return stockCache.getAll();
     }
 
+    /**
+     * @return How many stocks are listed. Served from the cache once every stock has been read.
+     */
+    public int getStockCount() throws SQLException{
+        return stockCache.count();
+    }
+
+    /**
+     * Writes new prices for many stocks in one batched transaction and then updates the cache.
+     *
+     * @param priceTicksByStockId New prices in ticks (see Prices), by stock ID. Each must be positive.
+     * @return The number of stocks updated. Stocks that no longer exist are skipped and dropped from the cache.
+     */
+    public int updateStockPrices(Map<Integer, Long> priceTicksByStockId) throws SQLException{
+        for(Map.Entry<Integer, Long> entry: priceTicksByStockId.entrySet()){
+            if(entry.getValue()<=0){
+                throw new IllegalArgumentException("New price for stock ID "+entry.getKey()+" must be positive");
+            }
+        }
+        List<Integer> updated=stockDAO.updatePrices(priceTicksByStockId);
+        for(int stockId: updated){
+            stockCache.updatePrice(stockId,priceTicksByStockId.get(stockId));
+        }
+        if(updated.size()<priceTicksByStockId.size()){
+            Set<Integer> missing=new HashSet<>(priceTicksByStockId.keySet());
+            missing.removeAll(updated);
+            for(int stockId: missing){
+                stockCache.invalidate(stockId); // The row is gone.
+            }
+        }
+        return updated.size();
+    }
+
+    /**
+     * Updates one stock's price by ID. The row is not read first; a missing stock simply updates nothing.
+     */
     public boolean updateStockPrice(int stockId, BigDecimal newPrice) throws SQLException{
         if(stockId<=0){
             throw new IllegalArgumentException("Invalid stock ID for price update");
@@ -60,15 +103,11 @@ public class StockService {
         if(newPrice==null || newPrice.compareTo(BigDecimal.ZERO)<=0){
             throw new IllegalArgumentException("New stock price must be positive.");
         }
-        Optional<Stock> stockOptional=stockDAO.findById(stockId);
-        if(stockOptional.isPresent()){
-            Stock stockToUpdate=stockOptional.get();
-            stockToUpdate.setCurrentPrice(newPrice);
-            return stockDAO.updatePrice(stockToUpdate);
-        }else{
-            System.err.println("Stock with ID "+stockId+" not found for price update");
-            return false;
+        if(updateStockPrices(Collections.singletonMap(stockId,Prices.toTicks(newPrice)))==1){
+            return true;
         }
+        System.err.println("Stock with ID "+stockId+" not found for price update");
+        return false;
     }
 
 
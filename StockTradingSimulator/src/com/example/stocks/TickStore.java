@@ -0,0 +1,476 @@
+package com.example.stocks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price history for charts and backtests, rolled up into OHLCV candles (see Candle) as ticks arrive.
+ * <p>
+ * MarketDataSimulator reports every simulated price and TradeService every settled trade. Each tick is stamped with
+ * the current time and folded straight into the stock's 1s, 1m, 5m and 1h candles, which are held in fixed-size ring
+ * buffers of primitive arrays (one array per field), so a chart query is a binary search and a copy of the candles
+ * asked for. Each ring keeps the most recent {@code Resolution.getCapacity()} candles and grows to that size only as
+ * history builds up.
+ * <p>
+ * A background thread appends candles to disk once they close. Each resolution has its own files of fixed-size
+ * records, one file per ring's worth of time ({@code candles-1m-<segment start millis>.bin}), so the files are the full
+ * history and startup only has to read the newest two of each to refill the rings. On stop the open candles are
+ * written too; if they are later extended, the newer record wins when the files are read back.
+ */
+public class TickStore {
+
+    static final int FILE_MAGIC=0x434E444C; // "CNDL"
+    static final int VERSION=1;
+    static final int HEADER_SIZE=8;
+    static final int RECORD_SIZE=4+6*8;     // stock ID, start, open, high, low, close, volume
+
+    private static final String FILE_PREFIX="candles-";
+    private static final String FILE_SUFFIX=".bin";
+    private static final long FLUSH_INTERVAL_SECONDS=10;
+
+    private final Path directory;
+    private final ConcurrentMap<Integer, History> histories=new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Opens the store and reloads recent candles from the directory.
+     */
+    public TickStore(Path directory) throws IOException{
+        this.directory=directory;
+        Files.createDirectories(directory);
+        this.scheduler=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable,"tick-store-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    public void start(){
+        scheduler.scheduleWithFixedDelay(this::runFlush,FLUSH_INTERVAL_SECONDS,FLUSH_INTERVAL_SECONDS,TimeUnit.SECONDS);
+        System.out.println("Tick store started. Writing candles to "+directory);
+    }
+
+    /**
+     * Stops the flusher and writes every candle not yet on disk, including the open ones.
+     */
+    public void stop(){
+        scheduler.shutdown();
+        try{
+            if(!scheduler.awaitTermination(30,TimeUnit.SECONDS)){
+                scheduler.shutdownNow();
+            }
+        }catch (InterruptedException e){
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try{
+            flush(true);
+        }catch (IOException e){
+            System.err.println("Error writing candles on stop: "+e.getMessage());
+        }
+        System.out.println("Tick store stopped.");
+    }
+
+    /**
+     * Records simulated price moves. They move the candles' prices but add no volume.
+     *
+     * @param priceTicksByStockId New prices in ticks, by stock ID.
+     */
+    public void onPrices(Map<Integer, Long> priceTicksByStockId){
+        for(Map.Entry<Integer, Long> entry: priceTicksByStockId.entrySet()){
+            record(entry.getKey(),entry.getValue(),0);
+        }
+    }
+
+    /**
+     * Records settled trades at their price, adding their quantity to the candles' volume.
+     */
+    public void onTrades(List<Trade> trades){
+        for(Trade trade: trades){
+            record(trade.getStockId(),trade.getPriceTicks(),trade.getQuantity());
+        }
+    }
+
+    /**
+     * Folds one tick into every resolution's current candle for the stock.
+     */
+    public void record(int stockId, long priceTicks, long quantity){
+        if(priceTicks<=0 || quantity<0){
+            throw new IllegalArgumentException("Invalid tick for stock ID "+stockId+": price="+priceTicks+", quantity="+quantity);
+        }
+        History history=history(stockId);
+        synchronized (history){
+            // Stamped under the lock, so each stock's ticks arrive in time order whichever thread reports them.
+            long now=System.currentTimeMillis();
+            for(Series series: history.series){
+                series.add(now,priceTicks,quantity);
+            }
+        }
+    }
+
+    /**
+     * @return The stock's candles that start in [fromMillis, toMillis), oldest first. Intervals without ticks have no candle.
+     */
+    public List<Candle> getCandles(int stockId, Candle.Resolution resolution, long fromMillis, long toMillis){
+        History history=histories.get(stockId);
+        if(history==null){
+            return Collections.emptyList();
+        }
+        synchronized (history){
+            Series series=history.series[resolution.ordinal()];
+            int from=series.lowerBound(fromMillis);
+            int to=series.lowerBound(toMillis);
+            return series.copy(stockId,from,Math.max(from,to));
+        }
+    }
+
+    /**
+     * @return Up to {@code count} of the stock's most recent candles, oldest first. The last one may still be open.
+     */
+    public List<Candle> getRecentCandles(int stockId, Candle.Resolution resolution, int count){
+        if(count<=0){
+            throw new IllegalArgumentException("Count must be positive.");
+        }
+        History history=histories.get(stockId);
+        if(history==null){
+            return Collections.emptyList();
+        }
+        synchronized (history){
+            Series series=history.series[resolution.ordinal()];
+            return series.copy(stockId,Math.max(0,series.count-count),series.count);
+        }
+    }
+
+    public int getStockCount(){
+        return histories.size();
+    }
+
+    /**
+     * Appends every closed candle not yet on disk.
+     *
+     * @return The number of candles written.
+     */
+    public int flush() throws IOException{
+        return flush(false);
+    }
+
+    private synchronized int flush(boolean includeOpen) throws IOException{
+        long now=System.currentTimeMillis();
+        Map<Path, ByteArrayOutputStream> records=new LinkedHashMap<>();
+        int written=0;
+        for(Map.Entry<Integer, History> entry: histories.entrySet()){
+            History history=entry.getValue();
+            synchronized (history){
+                for(Series series: history.series){
+                    written+=series.drain(entry.getKey(),now,includeOpen,records);
+                }
+            }
+        }
+        for(Map.Entry<Path, ByteArrayOutputStream> entry: records.entrySet()){
+            append(entry.getKey(),entry.getValue());
+        }
+        return written;
+    }
+
+    private void runFlush(){
+        try{
+            flush(false);
+        }catch (IOException e){
+            System.err.println("Error writing candles: "+e.getMessage());
+        }
+    }
+
+    private void append(Path path, ByteArrayOutputStream records) throws IOException{
+        try(FileOutputStream file=new FileOutputStream(path.toFile(),true)){
+            if(file.getChannel().size()==0){
+                file.write(ByteBuffer.allocate(HEADER_SIZE).putInt(FILE_MAGIC).putInt(VERSION).array());
+            }
+            records.writeTo(file);
+            file.getFD().sync();
+        }
+    }
+
+    private History history(int stockId){
+        History history=histories.get(stockId);
+        return history!=null? history:histories.computeIfAbsent(stockId,id->new History());
+    }
+
+    private void load() throws IOException{
+        long start=System.currentTimeMillis();
+        int loaded=0;
+        for(Candle.Resolution resolution: Candle.Resolution.values()){
+            List<Path> files=new ArrayList<>(listFiles(resolution).values());
+            // A ring holds one segment's worth of time, which the newest two segments always cover.
+            for(Path path: files.subList(Math.max(0,files.size()-2),files.size())){
+                try{
+                    loaded+=read(path,resolution);
+                }catch (IOException e){
+                    System.err.println("Skipping unreadable candle file "+path+": "+e.getMessage());
+                }
+            }
+        }
+        for(History history: histories.values()){
+            for(Series series: history.series){
+                series.markLoaded();
+            }
+        }
+        if(loaded>0){
+            System.out.println("Loaded "+loaded+" candles for "+histories.size()+" stocks in "+(System.currentTimeMillis()-start)+" ms.");
+        }
+    }
+
+    private int read(Path path, Candle.Resolution resolution) throws IOException{
+        long size=Files.size(path);
+        int records=(int)((size-HEADER_SIZE)/RECORD_SIZE);
+        try(DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            if(size<HEADER_SIZE || in.readInt()!=FILE_MAGIC){
+                throw new IOException("Not a candle file.");
+            }
+            int version=in.readInt();
+            if(version!=VERSION){
+                throw new IOException("Unsupported candle file version "+version);
+            }
+            for(int i=0;i<records;i++){
+                int stockId=in.readInt();
+                history(stockId).series[resolution.ordinal()].put(in.readLong(),in.readLong(),in.readLong(),in.readLong(),
+                        in.readLong(),in.readLong());
+            }
+        }
+        if((size-HEADER_SIZE)%RECORD_SIZE!=0){
+            // A record cut short by a crash; drop it so the next append starts on a record boundary.
+            try(FileChannel channel=FileChannel.open(path,StandardOpenOption.WRITE)){
+                channel.truncate(HEADER_SIZE+(long)records*RECORD_SIZE);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return The resolution's candle files, keyed and sorted by segment start.
+     */
+    private TreeMap<Long, Path> listFiles(Candle.Resolution resolution) throws IOException{
+        TreeMap<Long, Path> files=new TreeMap<>();
+        String prefix=FILE_PREFIX+resolution.getLabel()+"-";
+        try(DirectoryStream<Path> stream=Files.newDirectoryStream(directory,prefix+"*"+FILE_SUFFIX)){
+            for(Path path: stream){
+                String name=path.getFileName().toString();
+                try{
+                    files.put(Long.parseLong(name.substring(prefix.length(),name.length()-FILE_SUFFIX.length())),path);
+                }catch (NumberFormatException e){
+                    System.err.println("Ignoring unexpected file in candle directory: "+name);
+                }
+            }
+        }
+        return files;
+    }
+
+    private Path filePath(Candle.Resolution resolution, long candleStart){
+        long segmentMillis=resolution.getMillis()*resolution.getCapacity();
+        long segmentStart=candleStart-Math.floorMod(candleStart,segmentMillis);
+        return directory.resolve(FILE_PREFIX+resolution.getLabel()+"-"+segmentStart+FILE_SUFFIX);
+    }
+
+    /**
+     * All of one stock's candle series. Guarded by its own monitor.
+     */
+    private final class History {
+        private final Series[] series;
+
+        private History(){
+            Candle.Resolution[] resolutions=Candle.Resolution.values();
+            series=new Series[resolutions.length];
+            for(int i=0;i<resolutions.length;i++){
+                series[i]=new Series(resolutions[i]);
+            }
+        }
+    }
+
+    /**
+     * A ring buffer of one stock's candles at one resolution, oldest first from {@code head}.
+     */
+    private final class Series {
+        private static final int INITIAL_CAPACITY=16;
+
+        private final Candle.Resolution resolution;
+        private long[] starts=new long[INITIAL_CAPACITY];
+        private long[] opens=new long[INITIAL_CAPACITY];
+        private long[] highs=new long[INITIAL_CAPACITY];
+        private long[] lows=new long[INITIAL_CAPACITY];
+        private long[] closes=new long[INITIAL_CAPACITY];
+        private long[] volumes=new long[INITIAL_CAPACITY];
+        private int head;
+        private int count;
+        private long unflushedFrom=Long.MIN_VALUE; // Candles starting here or later are not on disk (or have changed since).
+
+        private Series(Candle.Resolution resolution){
+            this.resolution=resolution;
+        }
+
+        private void add(long timeMillis, long priceTicks, long quantity){
+            long start=resolution.bucketStart(timeMillis);
+            if(count>0){
+                int last=physical(count-1);
+                // If the clock stepped back, keep adding to the latest candle rather than reopening an old one.
+                if(starts[last]>=start){
+                    highs[last]=Math.max(highs[last],priceTicks);
+                    lows[last]=Math.min(lows[last],priceTicks);
+                    closes[last]=priceTicks;
+                    volumes[last]+=quantity;
+                    return;
+                }
+            }
+            append(start,priceTicks,priceTicks,priceTicks,priceTicks,quantity);
+        }
+
+        /**
+         * Adds a candle read from disk. A candle with the same start as the latest replaces it, as it was written later.
+         */
+        private void put(long start, long open, long high, long low, long close, long volume){
+            if(count>0){
+                int last=physical(count-1);
+                if(starts[last]==start){
+                    opens[last]=open;
+                    highs[last]=high;
+                    lows[last]=low;
+                    closes[last]=close;
+                    volumes[last]=volume;
+                    return;
+                }
+                if(starts[last]>start){
+                    return;
+                }
+            }
+            append(start,open,high,low,close,volume);
+        }
+
+        private void markLoaded(){
+            // The latest loaded candle may have been written while still open, so write it again once it closes.
+            if(count>0){
+                unflushedFrom=starts[physical(count-1)];
+            }
+        }
+
+        private void append(long start, long open, long high, long low, long close, long volume){
+            int index;
+            if(count==starts.length && count<resolution.getCapacity()){
+                grow();
+            }
+            if(count==starts.length){
+                index=head; // Full: overwrite the oldest.
+                head=head+1==starts.length? 0:head+1;
+            }else{
+                index=physical(count++);
+            }
+            starts[index]=start;
+            opens[index]=open;
+            highs[index]=high;
+            lows[index]=low;
+            closes[index]=close;
+            volumes[index]=volume;
+        }
+
+        /**
+         * Encodes the candles not yet on disk, closed ones only unless {@code includeOpen}, into the records for their files.
+         *
+         * @return The number of candles encoded.
+         */
+        private int drain(int stockId, long now, boolean includeOpen, Map<Path, ByteArrayOutputStream> records) throws IOException{
+            int drained=0;
+            for(int i=lowerBound(unflushedFrom);i<count;i++){
+                int index=physical(i);
+                boolean closed=starts[index]+resolution.getMillis()<=now;
+                if(!closed && !includeOpen){
+                    break;
+                }
+                ByteArrayOutputStream bytes=records.computeIfAbsent(filePath(resolution,starts[index]),path->new ByteArrayOutputStream());
+                DataOutputStream out=new DataOutputStream(bytes);
+                out.writeInt(stockId);
+                out.writeLong(starts[index]);
+                out.writeLong(opens[index]);
+                out.writeLong(highs[index]);
+                out.writeLong(lows[index]);
+                out.writeLong(closes[index]);
+                out.writeLong(volumes[index]);
+                drained++;
+                // An open candle will change, so it is written again once it closes.
+                unflushedFrom=closed? starts[index]+resolution.getMillis():starts[index];
+            }
+            return drained;
+        }
+
+        private List<Candle> copy(int stockId, int from, int to){
+            List<Candle> candles=new ArrayList<>(to-from);
+            for(int i=from;i<to;i++){
+                int index=physical(i);
+                candles.add(new Candle(stockId,resolution,starts[index],opens[index],highs[index],lows[index],closes[index],volumes[index]));
+            }
+            return candles;
+        }
+
+        /**
+         * @return The position (0 is the oldest) of the first candle starting at or after the given time, or count if none does.
+         */
+        private int lowerBound(long timeMillis){
+            int low=0;
+            int high=count;
+            while(low<high){
+                int mid=(low+high)>>>1;
+                if(starts[physical(mid)]<timeMillis){
+                    low=mid+1;
+                }else{
+                    high=mid;
+                }
+            }
+            return low;
+        }
+
+        private int physical(int position){
+            int index=head+position;
+            return index>=starts.length? index-starts.length:index;
+        }
+
+        private void grow(){
+            int capacity=Math.min(resolution.getCapacity(),starts.length*2);
+            starts=unroll(starts,capacity);
+            opens=unroll(opens,capacity);
+            highs=unroll(highs,capacity);
+            lows=unroll(lows,capacity);
+            closes=unroll(closes,capacity);
+            volumes=unroll(volumes,capacity);
+            head=0;
+        }
+
+        // Copies the ring into a larger array with the oldest candle first.
+        private long[] unroll(long[] values, int capacity){
+            long[] copy=Arrays.copyOf(values,capacity);
+            if(head>0){
+                System.arraycopy(values,head,copy,0,count-head);
+                System.arraycopy(values,0,copy,count-head,head);
+            }
+            return copy;
+        }
+    }
+}
@@ -9,6 +9,7 @@ public class Trade {
     private int sellerUserId;
     private int stockId;
     private BigDecimal price;
+    private long priceTicks;
     private int quantity;
     private LocalDateTime timestamp;
 
@@ -17,16 +18,22 @@ public class Trade {
         this.sellerUserId = sellerUserId;
         this.stockId = stockId;
         this.price = price;
+        this.priceTicks = Prices.toTicks(price);
         this.quantity = quantity;
         this.timestamp = null; // Will be set by the database (CURRENT_TIMESTAMP)
     }
 
+    public Trade(int buyerUserId, int sellerUserId, int stockId, long priceTicks, int quantity) {
+        this(buyerUserId, sellerUserId, stockId, Prices.toBigDecimal(priceTicks), quantity);
+    }
+
     public Trade(int id, int buyerUserId, int sellerUserId, int stockId, BigDecimal price, int quantity, LocalDateTime timestamp) {
         this.id = id;
         this.buyerUserId = buyerUserId;
         this.sellerUserId = sellerUserId;
         this.stockId = stockId;
         this.price = price;
+        this.priceTicks = Prices.toTicks(price);
         this.quantity = quantity;
         this.timestamp = timestamp;
     }
@@ -50,6 +57,10 @@ public class Trade {
         return price;
     }
 
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
     public int getQuantity() {
         return quantity;
     }
@@ -0,0 +1,77 @@
+package com.example.stocks;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background roll-over job for the trade history tiers.
+ * Trades older than the hot retention window are moved from Transactions into Transactions_Archive in small
+ * chunks, so the hot table (and every recent-history query) stays the size of the window rather than
+ * the size of all history.
+ */
+public class TradeArchiver {
+    private final TradeDAO tradeDAO;
+    private final Duration hotRetention;
+    private final ScheduledExecutorService scheduler;
+
+    private static final long ARCHIVE_INTERVAL_MINUTES=60;
+    private static final int ARCHIVE_CHUNK_SIZE=5000;
+
+    public TradeArchiver(TradeDAO tradeDAO, Duration hotRetention){
+        if(hotRetention.isNegative()){
+            throw new IllegalArgumentException("Hot retention must not be negative.");
+        }
+        this.tradeDAO=tradeDAO;
+        this.hotRetention=hotRetention;
+        this.scheduler=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable,"trade-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(){
+        scheduler.scheduleWithFixedDelay(this::runArchive,0,ARCHIVE_INTERVAL_MINUTES,TimeUnit.MINUTES);
+        System.out.println("Trade archiver started. Keeping "+hotRetention.toDays()+" days of trades in the hot table.");
+    }
+
+    public void stop(){
+        scheduler.shutdown();
+        try{
+            if(!scheduler.awaitTermination(30,TimeUnit.SECONDS)){
+                scheduler.shutdownNow();
+            }
+        }catch (InterruptedException e){
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Trade archiver stopped.");
+    }
+
+    /**
+     * Moves every trade older than the retention window to the archive now.
+     *
+     * @return The number of trades moved.
+     */
+    public int archiveNow() throws SQLException{
+        LocalDateTime cutoff=LocalDateTime.now().minus(hotRetention);
+        long start=System.currentTimeMillis();
+        int moved=tradeDAO.archiveTradesBefore(cutoff,ARCHIVE_CHUNK_SIZE);
+        if(moved>0){
+            System.out.println("Archived "+moved+" trades older than "+cutoff+" in "+(System.currentTimeMillis()-start)+" ms.");
+        }
+        return moved;
+    }
+
+    private void runArchive(){
+        try{
+            archiveNow();
+        }catch (SQLException e){
+            System.err.println("Error archiving trades: "+e.getMessage());
+        }
+    }
+}
@@ -10,10 +10,24 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class TradeDAO {
 
+    // Recent trades live in Transactions; TradeArchiver moves older ones to Transactions_Archive.
+    private static final String HOT_TABLE="Transactions";
+    private static final String ARCHIVE_TABLE="Transactions_Archive";
+    private static final String[] TIERS={HOT_TABLE,ARCHIVE_TABLE}; // Newest first.
+    // Trade_Archive_State's initial watermark: nothing has been archived yet.
+    private static final LocalDateTime NOTHING_ARCHIVED=LocalDateTime.of(1970,1,1,0,0);
+    private static final String COLUMNS="id, buyer_user_id, seller_user_id, stock_id, price, quantity, timestamp";
+
+    // Settlement_Progress key whose sequence applies to every stock.
+    static final int ALL_STOCKS=0;
+
 
     public Trade save(Trade trade) throws SQLException{
         String sql="INSERT INTO Transactions (buyer_user_id, seller_user_id,stock_id, price,quantity) VALUES(?,?,?,?,?)";
@@ -47,57 +61,406 @@ public class TradeDAO {
         }
     }
 
-    public Optional<Trade> findById(int id) throws SQLException{
-        String sql="SELECT id, buyer_user_id, seller_user_id,stock_id,price,quantity,timestamp FROM Transactions WHERE id=?";
+    /**
+     * Inserts several trades as one JDBC batch on the caller's connection, so they commit with the rest of
+     * a settlement. The timestamp is set here rather than by the database, so the saved trades can be
+     * returned without reading them back.
+     */
+    public List<Trade> saveAll(Connection connection, List<Trade> trades) throws SQLException{
+        String sql="INSERT INTO Transactions (buyer_user_id, seller_user_id,stock_id, price,quantity,timestamp) VALUES(?,?,?,?,?,?)";
+        LocalDateTime now=LocalDateTime.now();
+        List<Trade> savedTrades=new ArrayList<>(trades.size());
+        try(PreparedStatement stmt=connection.prepareStatement(sql,Statement.RETURN_GENERATED_KEYS)){
+            for(Trade trade: trades){
+                stmt.setInt(1,trade.getBuyerUserId());
+                stmt.setInt(2,trade.getSellerUserId());
+                stmt.setInt(3,trade.getStockId());
+                stmt.setBigDecimal(4,trade.getPrice());
+                stmt.setInt(5,trade.getQuantity());
+                stmt.setTimestamp(6,Timestamp.valueOf(now));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            try(ResultSet generatedKeys=stmt.getGeneratedKeys()){
+                for(Trade trade: trades){
+                    if(!generatedKeys.next()){
+                        throw new SQLException("Creating trade failed, no ID obtained.");
+                    }
+                    savedTrades.add(new Trade(generatedKeys.getInt(1),trade.getBuyerUserId(),trade.getSellerUserId(),
+                            trade.getStockId(),trade.getPrice(),trade.getQuantity(),now));
+                }
+            }
+        }
+        return savedTrades;
+    }
+
+    /**
+     * Records on the caller's connection, so it commits with the settlement, the last journal sequence now settled for each stock.
+     */
+    public void saveSettledJournalSequences(Connection connection, Map<Integer, Long> sequences) throws SQLException{
+        String sql="MERGE INTO Settlement_Progress (stock_id, journal_sequence) KEY (stock_id) VALUES (?, ?)";
+        try(PreparedStatement stmt=connection.prepareStatement(sql)){
+            for(Map.Entry<Integer, Long> entry: sequences.entrySet()){
+                stmt.setInt(1,entry.getKey());
+                stmt.setLong(2,entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * @return The last journal sequence settled, by stock ID. The entry for ALL_STOCKS, if any, is a floor for every stock.
+     */
+    public Map<Integer, Long> findSettledJournalSequences() throws SQLException{
+        Map<Integer, Long> sequences=new HashMap<>();
+        String sql="SELECT stock_id, journal_sequence FROM Settlement_Progress";
         try(Connection connection=DatabaseManager.getConnection();
-        PreparedStatement stmt=connection.prepareStatement(sql)){
-            stmt.setInt(1,id);
-            try(ResultSet rs=stmt.executeQuery()){
-                if(rs.next()){
-                    return Optional.of(mapResultSetToTrade(rs));
+        PreparedStatement stmt=connection.prepareStatement(sql);
+        ResultSet rs=stmt.executeQuery()){
+            while(rs.next()){
+                sequences.put(rs.getInt(1),rs.getLong(2));
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Forgets every stock's progress and marks everything up to {@code floor} as settled for all stocks.
+     */
+    public void resetSettledJournalSequences(long floor) throws SQLException{
+        try(Connection connection=DatabaseManager.getConnection()){
+            connection.setAutoCommit(false);
+            try{
+                try(Statement stmt=connection.createStatement()){
+                    stmt.executeUpdate("DELETE FROM Settlement_Progress");
+                }
+                try(PreparedStatement stmt=connection.prepareStatement("INSERT INTO Settlement_Progress (stock_id, journal_sequence) VALUES (?, ?)")){
+                    stmt.setInt(1,ALL_STOCKS);
+                    stmt.setLong(2,floor);
+                    stmt.executeUpdate();
+                }
+                connection.commit();
+            }catch (SQLException e){
+                connection.rollback();
+                throw e;
+            }finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    public Optional<Trade> findById(int id) throws SQLException{
+        try(Connection connection=DatabaseManager.getConnection()){
+            for(String table: TIERS){
+                String sql="SELECT "+COLUMNS+" FROM "+table+" WHERE id=?";
+                try(PreparedStatement stmt=connection.prepareStatement(sql)){
+                    stmt.setInt(1,id);
+                    try(ResultSet rs=stmt.executeQuery()){
+                        if(rs.next()){
+                            return Optional.of(mapResultSetToTrade(rs));
+                        }
+                    }
                 }
             }
         }
         return Optional.empty();
     }
 
+    /**
+     * A user's full trade history across the hot and archive tiers, newest first.
+     */
     public List<Trade> findTradesByUserId(int userId) throws SQLException{
-        List<Trade> trades= new ArrayList<>();
-        String sql="SELECT id, buyer_user_id,seller_user_id,stock_id,price,quantity,timestamp FROM Transactions "+
-                "WHERE buyer_user_id=? OR seller_user_id=? ORDER BY timestamp DESC";
-        try(Connection connection=DatabaseManager.getConnection();
-        PreparedStatement stmt=connection.prepareStatement(sql)){
-            stmt.setInt(1,userId);
-            stmt.setInt(2,userId);
+        return findTradesByUserId(userId,null);
+    }
 
-            try(ResultSet rs=stmt.executeQuery()){
-                while(rs.next()){
-                    trades.add(mapResultSetToTrade(rs));
+    /**
+     * A user's trades at or after {@code since}, newest first. The archive is only read if it can hold such trades.
+     *
+     * @param since The oldest timestamp wanted, or null for the full history.
+     */
+    public List<Trade> findTradesByUserId(int userId, LocalDateTime since) throws SQLException{
+        List<Trade> trades= new ArrayList<>();
+        String range=since!=null? " AND timestamp>=?":"";
+        try(Connection connection=DatabaseManager.getConnection()){
+            List<String> tiers=tiersSince(connection,since);
+            // An OR across two columns cannot use a single index, so each side gets its own indexed branch.
+            // The seller branches skip rows the buyer branches already returned.
+            StringBuilder sql=new StringBuilder();
+            for(String table: tiers){
+                if(sql.length()>0){
+                    sql.append(" UNION ALL ");
+                }
+                sql.append(userBranch(table,range));
+            }
+            sql.append(" ORDER BY timestamp DESC");
+            try(PreparedStatement stmt=connection.prepareStatement(sql.toString())){
+                int index=1;
+                for(int i=0;i<tiers.size();i++){
+                    stmt.setInt(index++,userId);
+                    index=setSinceParameter(stmt,index,since);
+                    stmt.setInt(index++,userId);
+                    stmt.setInt(index++,userId);
+                    index=setSinceParameter(stmt,index,since);
+                }
+                try(ResultSet rs=stmt.executeQuery()){
+                    while(rs.next()){
+                        trades.add(mapResultSetToTrade(rs));
+                    }
                 }
             }
-
         }
         return trades;
 
     }
+
+    /**
+     * One page of a user's trades, newest first, using keyset pagination on (timestamp, id). The hot table
+     * is read first and the archive only once it runs out of rows for the page, so this stays fast however much history there is.
+     *
+     * @param after The key of the last trade on the previous page, or null for the newest page.
+     */
+    public Page<Trade> findTradesByUserId(int userId, Page.Key after, int pageSize) throws SQLException{
+        List<Trade> trades=new ArrayList<>();
+        String seek=after!=null? " AND (timestamp, id)<(?, ?)":""; // Row value comparison, so the index can seek to the page.
+        try(Connection connection=DatabaseManager.getConnection()){
+            for(String table: TIERS){
+                int remaining=pageSize+1-trades.size(); // One extra row shows whether another page follows.
+                if(remaining<=0){
+                    break;
+                }
+                String sql="SELECT "+COLUMNS+" FROM "+table+" WHERE buyer_user_id=?"+seek+" "+
+                        "UNION ALL "+
+                        "SELECT "+COLUMNS+" FROM "+table+" WHERE seller_user_id=? AND buyer_user_id<>?"+seek+" "+
+                        "ORDER BY timestamp DESC, id DESC LIMIT ?";
+                try(PreparedStatement stmt=connection.prepareStatement(sql)){
+                    int index=1;
+                    stmt.setInt(index++,userId);
+                    index=setSeekParameters(stmt,index,after);
+                    stmt.setInt(index++,userId);
+                    stmt.setInt(index++,userId);
+                    index=setSeekParameters(stmt,index,after);
+                    stmt.setInt(index,remaining);
+                    try(ResultSet rs=stmt.executeQuery()){
+                        while(rs.next()){
+                            trades.add(mapResultSetToTrade(rs));
+                        }
+                    }
+                }
+            }
+        }
+        return Page.of(trades,pageSize,trade->new Page.Key(trade.getTimestamp(),trade.getId()));
+    }
+
+    /**
+     * Streaming variant of {@link #findTradesByUserId(int)}: hands each of the user's trades to the consumer as it
+     * is read, newest first. Each tier is read in turn (the archive only holds older trades), so only one tier's
+     * rows are ever sorted, and that by H2, which spills large sorts to disk rather than holding them in memory.
+     */
+    public void forEachTradeByUserId(int userId, int fetchSize, Consumer<? super Trade> consumer) throws SQLException{
+        try(Connection connection=DatabaseManager.getConnection()){
+            try{
+                for(String table: tiersSince(connection,null)){
+                    String sql=userBranch(table,"")+" ORDER BY timestamp DESC";
+                    try(PreparedStatement stmt=DatabaseManager.prepareStreaming(connection,sql,fetchSize)){
+                        setUserBranchParameters(stmt,0,userId);
+                        try(ResultSet rs=stmt.executeQuery()){
+                            while(rs.next()){
+                                consumer.accept(mapResultSetToTrade(rs));
+                            }
+                        }
+                    }
+                }
+            }finally {
+                DatabaseManager.endStreaming(connection);
+            }
+        }
+    }
+
     public List<Trade> findTradeByStockId(int stockId) throws SQLException{
+        return findTradeByStockId(stockId,null);
+    }
+
+    /**
+     * A stock's trades at or after {@code since}, newest first. The archive is only read if it can hold such trades.
+     *
+     * @param since The oldest timestamp wanted, or null for the full history.
+     */
+    public List<Trade> findTradeByStockId(int stockId, LocalDateTime since) throws SQLException{
         List<Trade> trades=new ArrayList<>();
-        String sql="SELECT id, buyer_user_id, seller_user_id, stock_id,price,quantity,timestamp FROM Transactions"+
-                "WHERE stock_id=? ORDER BY timestamp DESC";
+        String range=since!=null? " AND timestamp>=?":"";
+        try(Connection connection=DatabaseManager.getConnection()){
+            List<String> tiers=tiersSince(connection,since);
+            StringBuilder sql=new StringBuilder();
+            for(String table: tiers){
+                if(sql.length()>0){
+                    sql.append(" UNION ALL ");
+                }
+                sql.append("SELECT ").append(COLUMNS).append(" FROM ").append(table).append(" WHERE stock_id=?").append(range);
+            }
+            sql.append(" ORDER BY timestamp DESC");
+            try(PreparedStatement stmt=connection.prepareStatement(sql.toString())){
+                int index=1;
+                for(int i=0;i<tiers.size();i++){
+                    stmt.setInt(index++,stockId);
+                    index=setSinceParameter(stmt,index,since);
+                }
+                try(ResultSet rs=stmt.executeQuery()){
+                    while(rs.next()){
+                        trades.add(mapResultSetToTrade(rs));
+                    }
+                }
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * Up to {@code limit} trades with an ID above {@code afterId} from both tiers, in ascending ID order.
+     * Used to export trade history in ID ranges (see TradeTapeExporter).
+     */
+    public List<Trade> findTradesAfterId(int afterId, int limit) throws SQLException{
+        List<Trade> trades=new ArrayList<>();
+        String sql="SELECT "+COLUMNS+" FROM "+ARCHIVE_TABLE+" WHERE id>? "+
+                "UNION ALL SELECT "+COLUMNS+" FROM "+HOT_TABLE+" WHERE id>? ORDER BY id LIMIT ?";
         try(Connection connection=DatabaseManager.getConnection();
         PreparedStatement stmt=connection.prepareStatement(sql)){
-            stmt.setInt(1,stockId);
+            stmt.setInt(1,afterId);
+            stmt.setInt(2,afterId);
+            stmt.setInt(3,limit);
 
             try(ResultSet rs=stmt.executeQuery()){
                 while(rs.next()){
                     trades.add(mapResultSetToTrade(rs));
                 }
             }
-
         }
         return trades;
     }
 
+    /**
+     * @return The tiers that can hold trades at or after {@code since} (null for any trade), newest first.
+     * The archive only ever holds trades older than the watermark, so it is skipped for anything newer.
+     */
+    private List<String> tiersSince(Connection connection, LocalDateTime since) throws SQLException{
+        LocalDateTime watermark=findArchiveWatermark(connection);
+        List<String> tiers=new ArrayList<>(TIERS.length);
+        tiers.add(HOT_TABLE);
+        if(since==null? watermark.isAfter(NOTHING_ARCHIVED):since.isBefore(watermark)){
+            tiers.add(ARCHIVE_TABLE);
+        }
+        return tiers;
+    }
+
+    /**
+     * @return The archive cutoff: the archive holds no trade at or after it, and once the archive run that set it
+     * finishes, every trade older than it is in Transactions_Archive.
+     */
+    private LocalDateTime findArchiveWatermark(Connection connection) throws SQLException{
+        String sql="SELECT archived_before FROM Trade_Archive_State WHERE id=1";
+        try(PreparedStatement stmt=connection.prepareStatement(sql);
+        ResultSet rs=stmt.executeQuery()){
+            if(!rs.next()){
+                throw new SQLException("Trade archive state is missing.");
+            }
+            return rs.getTimestamp(1).toLocalDateTime();
+        }
+    }
+
+    /**
+     * Moves trades older than {@code cutoff} from Transactions to Transactions_Archive, at most {@code chunkSize}
+     * rows per transaction so the hot table is never locked for long. Each row is in exactly one tier at any time.
+     * The watermark is advanced to the cutoff with the first chunk, before any trade older than it reaches the archive,
+     * so readers that skip the archive for newer ranges never miss a row.
+     *
+     * @return The number of trades moved.
+     */
+    public int archiveTradesBefore(LocalDateTime cutoff, int chunkSize) throws SQLException{
+        String findChunkSql="SELECT id FROM "+HOT_TABLE+" WHERE timestamp<? ORDER BY id LIMIT 1 OFFSET ?";
+        String copySql="INSERT INTO "+ARCHIVE_TABLE+" ("+COLUMNS+") SELECT "+COLUMNS+" FROM "+HOT_TABLE+" WHERE timestamp<? AND id<=?";
+        String deleteSql="DELETE FROM "+HOT_TABLE+" WHERE timestamp<? AND id<=?";
+        String watermarkSql="UPDATE Trade_Archive_State SET archived_before=? WHERE id=1 AND archived_before<?";
+        Timestamp cutoffSql=Timestamp.valueOf(cutoff);
+        int moved=0;
+        try(Connection connection=DatabaseManager.getConnection()){
+            connection.setAutoCommit(false);
+            try{
+                // Committed with the first chunk.
+                try(PreparedStatement stmt=connection.prepareStatement(watermarkSql)){
+                    stmt.setTimestamp(1,cutoffSql);
+                    stmt.setTimestamp(2,cutoffSql);
+                    stmt.executeUpdate();
+                }
+                while(true){
+                    // Upper ID of the next chunk: the chunkSize-th oldest row to move, or everything left if fewer remain.
+                    int upperId=Integer.MAX_VALUE;
+                    try(PreparedStatement stmt=connection.prepareStatement(findChunkSql)){
+                        stmt.setTimestamp(1,cutoffSql);
+                        stmt.setInt(2,chunkSize-1);
+                        try(ResultSet rs=stmt.executeQuery()){
+                            if(rs.next()){
+                                upperId=rs.getInt(1);
+                            }
+                        }
+                    }
+                    int copied;
+                    try(PreparedStatement stmt=connection.prepareStatement(copySql)){
+                        stmt.setTimestamp(1,cutoffSql);
+                        stmt.setInt(2,upperId);
+                        copied=stmt.executeUpdate();
+                    }
+                    try(PreparedStatement stmt=connection.prepareStatement(deleteSql)){
+                        stmt.setTimestamp(1,cutoffSql);
+                        stmt.setInt(2,upperId);
+                        if(stmt.executeUpdate()!=copied){
+                            throw new SQLException("Trade archive chunk changed while it was being moved.");
+                        }
+                    }
+                    connection.commit();
+                    moved+=copied;
+                    if(upperId==Integer.MAX_VALUE){
+                        break;
+                    }
+                }
+            }catch (SQLException e){
+                connection.rollback();
+                throw e;
+            }finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return moved;
+    }
+
+    private static String userBranch(String table, String condition){
+        return "SELECT "+COLUMNS+" FROM "+table+" WHERE buyer_user_id=?"+condition+" "+
+                "UNION ALL "+
+                "SELECT "+COLUMNS+" FROM "+table+" WHERE seller_user_id=? AND buyer_user_id<>?"+condition;
+    }
+
+    private static void setUserBranchParameters(PreparedStatement stmt, int offset, int userId) throws SQLException{
+        stmt.setInt(offset+1,userId);
+        stmt.setInt(offset+2,userId);
+        stmt.setInt(offset+3,userId);
+    }
+
+    private static int setSinceParameter(PreparedStatement stmt, int index, LocalDateTime since) throws SQLException{
+        if(since==null){
+            return index;
+        }
+        stmt.setTimestamp(index,Timestamp.valueOf(since));
+        return index+1;
+    }
+
+    private static int setSeekParameters(PreparedStatement stmt, int index, Page.Key after) throws SQLException{
+        if(after==null){
+            return index;
+        }
+        stmt.setTimestamp(index,Timestamp.valueOf(after.getTimestamp()));
+        stmt.setInt(index+1,after.getId());
+        return index+2;
+    }
+
     private Trade mapResultSetToTrade(ResultSet rs) throws SQLException{
         int id=rs.getInt("id");
         int buyerUserId=rs.getInt("buyer_user_id");
@@ -1,12 +1,17 @@
 package com.example.stocks;
 
-import javax.sound.sampled.Port;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class TradeService {
     private final UserDAO userDAO;
@@ -14,6 +19,10 @@ public class TradeService {
     private final OrderDAO orderDAO;
     private final TradeDAO tradeDAO;
     private final PortfolioDAO portfolioDAO;
+    private PortfolioTracker portfolioTracker; // Told about every committed trade, if set.
+    private TickStore tickStore; // Records every committed trade for candles, if set.
+    private MarketDataBus marketDataBus; // Pushes every committed trade to subscribers, if set.
+    private final List<Consumer<List<Trade>>> tradeListeners=new CopyOnWriteArrayList<>(); // E.g. a logged-in dashboard.
 
     public TradeService(UserDAO userDAO,StockDAO stockDAO,OrderDAO orderDAO,TradeDAO tradeDAO,PortfolioDAO portfolioDAO){
         this.userDAO=userDAO;
@@ -23,11 +32,43 @@ public class TradeService {
         this.portfolioDAO=portfolioDAO;
 
     }
+    public void setPortfolioTracker(PortfolioTracker portfolioTracker){
+        this.portfolioTracker=portfolioTracker;
+    }
+    public void setTickStore(TickStore tickStore){
+        this.tickStore=tickStore;
+    }
+    public void setMarketDataBus(MarketDataBus marketDataBus){
+        this.marketDataBus=marketDataBus;
+    }
+
+    /**
+     * Registers a listener told about each batch of trades once it is committed, on the thread that settled it.
+     * Listeners must return quickly; a listener that throws is logged and skipped.
+     */
+    public void addTradeListener(Consumer<List<Trade>> listener){
+        tradeListeners.add(listener);
+    }
+    public void removeTradeListener(Consumer<List<Trade>> listener){
+        tradeListeners.remove(listener);
+    }
+
     public Trade executetrade(Order buyerOrder, Order sellerOrder, BigDecimal executedPrice, int executedQuantity) throws SQLException,IllegalArgumentException{
+        if(executedPrice==null|| executedPrice.compareTo(BigDecimal.ZERO)<=0){
+            throw new IllegalArgumentException("Executed price must be positive");
+        }
+        return executeTrade(buyerOrder,sellerOrder,Prices.toTicks(executedPrice),executedQuantity);
+    }
+
+    /**
+     * Settles one match. The price is in fixed-point ticks (see Prices) so the matching engine never
+     * has to build BigDecimals; amounts are only converted when they are written to the database.
+     */
+    public Trade executeTrade(Order buyerOrder, Order sellerOrder, long executedPriceTicks, int executedQuantity) throws SQLException,IllegalArgumentException{
         if(buyerOrder==null || sellerOrder==null){
             throw new IllegalArgumentException("Both buyer nas seller orders must be provided.");
         }
-        if(executedPrice==null|| executedPrice.compareTo(BigDecimal.ZERO)<=0){
+        if(executedPriceTicks<=0){
             throw new IllegalArgumentException("Executed price must be positive");
         }
         if(executedQuantity<=0){
@@ -36,89 +77,128 @@ public class TradeService {
         if(buyerOrder.getUserId()==sellerOrder.getUserId()){
             throw new IllegalArgumentException("Cannot execute trade between the same user.");
         }
-        if(buyerOrder.getStockId()==sellerOrder.getStockId()){
+        if(buyerOrder.getStockId()!=sellerOrder.getStockId()){
             throw new IllegalArgumentException("Cannot execute trade for different stocks.");
         }
         if(executedQuantity>buyerOrder.getQuantity() || executedQuantity>sellerOrder.getQuantity()){
             throw new IllegalArgumentException("Executed quantity exceeds available order quantity");
         }
+        Order.OrderStatus buyerStatus=buyerOrder.getStatus();
+        int buyerQuantity=buyerOrder.getQuantity();
+        Order.OrderStatus sellerStatus=sellerOrder.getStatus();
+        int sellerQuantity=sellerOrder.getQuantity();
+        Fill fill=Fill.apply(buyerOrder,sellerOrder,executedPriceTicks,executedQuantity);
+        try{
+            return settleFills(Collections.singletonList(fill)).get(0);
+        }catch (SQLException e){
+            // Nothing was written, so put both orders back the way they were.
+            buyerOrder.setStatus(buyerStatus);
+            buyerOrder.setQuantity(buyerQuantity);
+            sellerOrder.setStatus(sellerStatus);
+            sellerOrder.setQuantity(sellerQuantity);
+            throw e;
+        }
+    }
+
+    /**
+     * Settles fills, writing the order state each fill left its buyer and seller order in.
+     *
+     * @return The saved trades, in the same order as the fills.
+     */
+    public List<Trade> settleFills(List<Fill> fills) throws SQLException{
+        List<OrderStateChange> orderStateChanges=new ArrayList<>(fills.size()*2);
+        for(Fill fill: fills){
+            orderStateChanges.add(fill.getBuyerOrderState());
+            orderStateChanges.add(fill.getSellerOrderState());
+        }
+        return settle(fills,orderStateChanges);
+    }
+
+    /**
+     * Settles fills and order state changes atomically on a single connection: balances, portfolios, order statuses
+     * and Transactions rows are each written as one JDBC batch and committed together, so either every write lands or none does.
+     * Balance and share changes are applied relative to the stored values, so no rows are read first.
+     * Only fills and snapshots are read here, never live Order objects, so this can run on a different thread from the matching engine.
+     *
+     * @param orderStateChanges Order updates in the order they happened; when an order appears more than once the last state wins.
+     * @return The saved trades, in the same order as the fills.
+     */
+    public List<Trade> settle(List<Fill> fills, List<OrderStateChange> orderStateChanges) throws SQLException{
+        return settle(fills,orderStateChanges,Collections.<Integer, Long>emptyMap());
+    }
+
+    /**
+     * Settles fills and order state changes as above and, in the same transaction, records how far into the
+     * EventJournal each stock is now settled.
+     *
+     * @param journalSequences The last journal sequence these fills and changes settle, by stock ID.
+     */
+    public List<Trade> settle(List<Fill> fills, List<OrderStateChange> orderStateChanges, Map<Integer, Long> journalSequences) throws SQLException{
+        Map<Integer, Long> balanceChanges=new HashMap<>();
+        Map<PortfolioItem, Integer> sharesBought=new LinkedHashMap<>();
+        Map<PortfolioItem, Integer> sharesSold=new LinkedHashMap<>();
+        Map<Integer, OrderStateChange> latestOrderStates=new LinkedHashMap<>();
+        List<Trade> trades=new ArrayList<>(fills.size());
+
+        for(Fill fill: fills){
+            long cost=fill.getNotionalTicks();
+            balanceChanges.merge(fill.getBuyerUserId(),-cost,Long::sum);
+            balanceChanges.merge(fill.getSellerUserId(),cost,Long::sum);
+            sharesBought.merge(new PortfolioItem(fill.getBuyerUserId(),fill.getStockId(),0),fill.getQuantity(),Integer::sum);
+            sharesSold.merge(new PortfolioItem(fill.getSellerUserId(),fill.getStockId(),0),fill.getQuantity(),Integer::sum);
+            trades.add(new Trade(fill.getBuyerUserId(),fill.getSellerUserId(),fill.getStockId(),fill.getPriceTicks(),fill.getQuantity()));
+        }
+        for(OrderStateChange change: orderStateChanges){
+            latestOrderStates.put(change.getOrderId(),change);
+        }
+
         Connection connection=null;
         try{
             connection=DatabaseManager.getConnection();
             connection.setAutoCommit(false);
-            // 1. Update Buyer's Balance (Decrease)
-            Optional<User> buyerOptional=userDAO.findById(buyerOrder.getUserId());
-            if(!buyerOptional.isPresent()){
-                throw new SQLException("buyer user not found for ID:"+buyerOrder.getUserId());
+            List<Trade> savedTrades=Collections.emptyList();
+            if(!fills.isEmpty()){
+                // 1. Balances: buyers pay, sellers receive.
+                userDAO.adjustBalances(connection,balanceChanges);
+                // 2. Portfolios: buyers gain shares, sellers must hold the shares they sell.
+                portfolioDAO.addShares(connection,toPortfolioItems(sharesBought));
+                portfolioDAO.removeShares(connection,toPortfolioItems(sharesSold));
             }
-            User buyer=buyerOptional.get();
-            BigDecimal cost=executedPrice.multiply(new BigDecimal(executedQuantity));
-            buyer.setBalance(buyer.getBalance().subtract(cost));
-            userDAO.updateBalance(buyer);
-
-            //2. update seller's Balance(increase)
-            Optional<User> sellerOptional=userDAO.findById(sellerOrder.getUserId());
-            if(!sellerOptional.isPresent()){
-                throw new SQLException("Seller user not found for ID: "+sellerOrder.getUserId());
+            // 3. Order statuses and remaining quantities.
+            if(!latestOrderStates.isEmpty()){
+                orderDAO.updateStatusAndQuantity(connection,latestOrderStates.values());
             }
-            User seller=sellerOptional.get();
-            BigDecimal revenue=executedPrice.multiply(new BigDecimal(executedQuantity));
-            seller.setBalance(seller.getBalance().add(revenue));
-            userDAO.updateBalance(seller);
-
-            // 3. Update Buyer's Portfolio (Add Stock)
-            // Get current portfolio item for buyer-stock.
-            Optional<PortfolioItem> buyerPortfolioItemOptional=PortfolioDAO.findByUserIDAndStockId(buyer.getId(),buyerOrder.getStockId());
-            PortfolioItem buyerPortfolioItem;
-            if(buyerPortfolioItemOptional.isPresent()){
-                buyerPortfolioItem=buyerPortfolioItemOptional.get();
-                buyerPortfolioItem.setQuantity(buyerPortfolioItem.getQuantity()+executedQuantity);
-            }else{
-                buyerPortfolioItem=new PortfolioItem(buyer.getId(),buyerOrder.getStockId(),executedQuantity);
+            // 4. Record the trades.
+            if(!trades.isEmpty()){
+                savedTrades=tradeDAO.saveAll(connection,trades);
             }
-            portfolioDAO.saveOrUpdate(buyerPortfolioItem);
-
-            // 4. Update Seller's Portfolio (Remove Stock)
-            // Seller MUST have this stock.
-
-            Optional<PortfolioItem> sellerPortfolioItemOptional=portfolioDAO.findByUserIDAndStockId(seller.getId(),sellerOrder.getStockId());
-            if(!sellerPortfolioItemOptional.isPresent()){
-                throw new SQLException("Seller does not hold the stock being sold for ID: "+ seller.getId()+", Stock ID: "+sellerOrder.getStockId());
-
+            // 5. How far into the journal the database now is.
+            if(!journalSequences.isEmpty()){
+                tradeDAO.saveSettledJournalSequences(connection,journalSequences);
             }
-            PortfolioItem sellerPortfolioItem=sellerPortfolioItemOptional.get();
-            sellerPortfolioItem.setQuantity(sellerPortfolioItem.getQuantity()-executedQuantity);
-            if(sellerPortfolioItem.getQuantity()==0){
-                portfolioDAO.delete(sellerPortfolioItem.getUserId(),sellerPortfolioItem.getStockId());
-            }else if(sellerPortfolioItem.getQuantity()<0){
-                throw new SQLException("Seller's portfolio quantity became negative after trade.");
-            }else{
-                portfolioDAO.saveOrUpdate(sellerPortfolioItem);
+            connection.commit();
+            for(Trade trade: savedTrades){
+                System.out.println("Trade executed successfully: "+trade.getQuantity()+" of Stock ID "+trade.getStockId()+" at "+trade.getPrice());
             }
-            // 5. Update Order Statuses and Quantities
-            // Update buyer order.
-            if(executedQuantity==buyerOrder.getQuantity()){
-                buyerOrder.setStatus(Order.OrderStatus.EXECUTED);
-            }else{
-                buyerOrder.setStatus(Order.OrderStatus.PARTIAL_FILL);
-                buyerOrder.setQuantity(buyerOrder.getQuantity()-executedQuantity);
+            if(portfolioTracker!=null && !savedTrades.isEmpty()){
+                portfolioTracker.onTrades(savedTrades);
             }
-            orderDAO.updateStatusAndQuantity(buyerOrder);
-
-            if(executedQuantity==sellerOrder.getQuantity()){
-                sellerOrder.setStatus(Order.OrderStatus.EXECUTED);
-            }else{
-                sellerOrder.setStatus(Order.OrderStatus.PARTIAL_FILL);
-                sellerOrder.setQuantity(sellerOrder.getQuantity()-executedQuantity);
+            if(tickStore!=null && !savedTrades.isEmpty()){
+                tickStore.onTrades(savedTrades);
             }
-            orderDAO.updateStatusAndQuantity(sellerOrder);
-
-            // 6. Record the Trade
-            Trade newTrade=new Trade(buyer.getId(), seller.getId(),buyerOrder.getStockId(),executedPrice,executedQuantity);
-            Trade savedTrade=tradeDAO.save(newTrade);
-            connection.commit();
-            System.out.println("Trade executed successfully: "+executedQuantity+" of Stock ID "+buyerOrder.getStockId()+" at "+executedPrice);
-            return savedTrade;
+            if(marketDataBus!=null && !savedTrades.isEmpty()){
+                marketDataBus.publishTrades(savedTrades);
+            }
+            if(!savedTrades.isEmpty()){
+                for(Consumer<List<Trade>> listener: tradeListeners){
+                    try{
+                        listener.accept(savedTrades);
+                    }catch (RuntimeException e){
+                        System.err.println("Trade listener failed: "+e.getMessage()); // The trades are committed either way.
+                    }
+                }
+            }
+            return savedTrades;
         }catch (SQLException e){
             if(connection!=null){
                 try{
@@ -141,8 +221,52 @@ public class TradeService {
         }
     }
 
+    private static List<PortfolioItem> toPortfolioItems(Map<PortfolioItem, Integer> quantities){
+        List<PortfolioItem> items=new ArrayList<>(quantities.size());
+        for(Map.Entry<PortfolioItem, Integer> entry: quantities.entrySet()){
+            items.add(new PortfolioItem(entry.getKey().getUserId(),entry.getKey().getStockId(),entry.getValue()));
+        }
+        return items;
+    }
+
     public List<Trade> findTradesByUserId(int userId) throws SQLException {
         return tradeDAO.findTradesByUserId(userId);
     }
 
+    /**
+     * A user's trades at or after {@code since}, newest first. Ranges newer than the archive cutoff never touch the archive.
+     */
+    public List<Trade> findTradesByUserId(int userId, LocalDateTime since) throws SQLException {
+        return tradeDAO.findTradesByUserId(userId, since);
+    }
+
+    /**
+     * One page of a user's trades, newest first. Pass the previous page's next key to read further back.
+     */
+    public Page<Trade> findTradesByUserId(int userId, Page.Key after, int pageSize) throws SQLException {
+        Page.checkSize(pageSize);
+        return tradeDAO.findTradesByUserId(userId, after, pageSize);
+    }
+
+    /**
+     * Streams a user's full trade history, newest first, for exports and reports over long histories.
+     */
+    public void forEachTradeByUserId(int userId, Consumer<? super Trade> consumer) throws SQLException {
+        tradeDAO.forEachTradeByUserId(userId, DatabaseManager.STREAM_FETCH_SIZE, consumer);
+    }
+
+    /**
+     * @return The last journal sequence settled, by stock ID; the entry for stock ID 0, if any, is a floor for every stock.
+     */
+    public Map<Integer, Long> getSettledJournalSequences() throws SQLException {
+        return tradeDAO.findSettledJournalSequences();
+    }
+
+    /**
+     * Marks everything in the journal up to {@code floor} as settled, e.g. once the books were loaded from the database.
+     */
+    public void resetSettledJournalSequences(long floor) throws SQLException {
+        tradeDAO.resetSettledJournalSequences(floor);
+    }
+
 }
@@ -0,0 +1,91 @@
+package com.example.stocks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that appends new trades from both tiers of the trade history to the trade tape
+ * (see TradeTapeWriter), so analytics can read the tape instead of querying Transactions.
+ * Trades are read in ID order, one tape file per batch; the last trade ID on the tape is where the next run resumes.
+ */
+public class TradeTapeExporter {
+    private final TradeDAO tradeDAO;
+    private final Path directory;
+    private final ScheduledExecutorService scheduler;
+    private int exportedUpTo=-1; // Last trade ID on the tape, or -1 until read from the directory.
+
+    private static final long EXPORT_INTERVAL_MINUTES=5;
+    private static final int TRADES_PER_FILE=TradeTapeWriter.BLOCK_ROWS*16;
+
+    public TradeTapeExporter(TradeDAO tradeDAO, Path directory){
+        this.tradeDAO=tradeDAO;
+        this.directory=directory;
+        this.scheduler=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable,"trade-tape-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(){
+        scheduler.scheduleWithFixedDelay(this::runExport,0,EXPORT_INTERVAL_MINUTES,TimeUnit.MINUTES);
+        System.out.println("Trade tape exporter started. Writing to "+directory);
+    }
+
+    public void stop(){
+        scheduler.shutdown();
+        try{
+            if(!scheduler.awaitTermination(30,TimeUnit.SECONDS)){
+                scheduler.shutdownNow();
+            }
+        }catch (InterruptedException e){
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Trade tape exporter stopped.");
+    }
+
+    /**
+     * Writes every trade not yet on the tape.
+     *
+     * @return The number of trades exported.
+     */
+    public synchronized int exportNow() throws SQLException, IOException{
+        if(exportedUpTo<0){
+            Map.Entry<Integer, Path> newest=TradeTapeWriter.listTapes(directory).lastEntry();
+            exportedUpTo=newest!=null? newest.getKey():0;
+        }
+        long start=System.currentTimeMillis();
+        int exported=0;
+        while(true){
+            List<Trade> trades=tradeDAO.findTradesAfterId(exportedUpTo,TRADES_PER_FILE);
+            if(trades.isEmpty()){
+                break;
+            }
+            TradeTapeWriter.write(directory,trades);
+            exportedUpTo=trades.get(trades.size()-1).getId();
+            exported+=trades.size();
+            if(trades.size()<TRADES_PER_FILE){
+                break;
+            }
+        }
+        if(exported>0){
+            System.out.println("Exported "+exported+" trades to the trade tape in "+(System.currentTimeMillis()-start)+" ms.");
+        }
+        return exported;
+    }
+
+    private void runExport(){
+        try{
+            exportNow();
+        }catch (SQLException | IOException e){
+            System.err.println("Error exporting trade tape: "+e.getMessage());
+        }
+    }
+}
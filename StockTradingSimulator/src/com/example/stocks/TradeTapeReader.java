@@ -0,0 +1,397 @@
+package com.example.stocks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Scans the trade tape written by TradeTapeWriter for volume and VWAP, without going through the database.
+ * <p>
+ * Every tape file in the directory is memory-mapped and its block checksums are verified once, when the reader
+ * is opened. A scan then skips blocks whose zone map rules them out, and only decodes the columns it needs
+ * (never the IDs or user IDs, and timestamps only for blocks that straddle the time range) into primitive arrays.
+ * The reader sees the tape files that existed when it was opened; open a new one to pick up later exports.
+ * Scans may run concurrently.
+ */
+public class TradeTapeReader implements Closeable {
+
+    private static final int TIMESTAMP_COLUMN=1;
+    private static final int STOCK_COLUMN=2;
+    private static final int PRICE_COLUMN=3;
+    private static final int QUANTITY_COLUMN=4;
+
+    private final List<Block> blocks=new ArrayList<>();
+    private long tradeCount;
+
+    private TradeTapeReader(){
+    }
+
+    /**
+     * Opens every tape file in the directory.
+     *
+     * @throws IOException if a file cannot be read or a block fails its checksum.
+     */
+    public static TradeTapeReader open(Path directory) throws IOException{
+        TradeTapeReader reader=new TradeTapeReader();
+        CRC32 checksum=new CRC32();
+        for(Path path: TradeTapeWriter.listTapes(directory).values()){
+            try(FileChannel channel=FileChannel.open(path,StandardOpenOption.READ)){
+                // The mapping stays valid after the channel is closed.
+                MappedByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+                reader.index(path,buffer,checksum);
+            }
+        }
+        return reader;
+    }
+
+    private void index(Path path, ByteBuffer buffer, CRC32 checksum) throws IOException{
+        if(buffer.limit()<4 || buffer.getInt(0)!=TradeTapeWriter.FILE_MAGIC){
+            throw new IOException("Not a trade tape file: "+path);
+        }
+        int position=4;
+        byte[] scratch=new byte[0];
+        while(position<buffer.limit()){
+            if(buffer.limit()-position<8 || buffer.getInt(position)!=TradeTapeWriter.BLOCK_MAGIC){
+                throw new IOException("Corrupt block header at offset "+position+" in trade tape "+path);
+            }
+            int length=buffer.getInt(position+4);
+            int start=position+8;
+            if(length<4 || length>buffer.limit()-start){
+                throw new IOException("Truncated block at offset "+position+" in trade tape "+path);
+            }
+            if(scratch.length<length){
+                scratch=new byte[length];
+            }
+            ByteBuffer view=buffer.duplicate();
+            view.position(start);
+            view.get(scratch,0,length);
+            checksum.reset();
+            checksum.update(scratch,0,length-4);
+            if((int)checksum.getValue()!=buffer.getInt(start+length-4)){
+                throw new IOException("Checksum mismatch in block at offset "+position+" in trade tape "+path);
+            }
+            Block block=new Block(buffer,start);
+            blocks.add(block);
+            tradeCount+=block.rows;
+            position=start+length;
+        }
+    }
+
+    /**
+     * @return The number of trades on the tape.
+     */
+    public long getTradeCount(){
+        return tradeCount;
+    }
+
+    /**
+     * Totals the trades in one stock between {@code from} (inclusive) and {@code to} (exclusive).
+     * Either bound may be null for no limit.
+     */
+    public Aggregate aggregate(int stockId, LocalDateTime from, LocalDateTime to){
+        long fromMillis=from!=null? from.toInstant(ZoneOffset.UTC).toEpochMilli():Long.MIN_VALUE;
+        long toMillis=to!=null? to.toInstant(ZoneOffset.UTC).toEpochMilli():Long.MAX_VALUE;
+        Aggregate aggregate=new Aggregate();
+        byte[] bytes=new byte[0];
+        long[] timestamps=new long[TradeTapeWriter.BLOCK_ROWS];
+        long[] codes=new long[TradeTapeWriter.BLOCK_ROWS];
+        long[] prices=new long[TradeTapeWriter.BLOCK_ROWS];
+        long[] quantities=new long[TradeTapeWriter.BLOCK_ROWS];
+        for(Block block: blocks){
+            if(block.maxTimestamp<fromMillis || block.minTimestamp>=toMillis){
+                continue;
+            }
+            int code=Arrays.binarySearch(block.dictionary,stockId);
+            if(code<0){
+                continue;
+            }
+            int rows=block.rows;
+            boolean checkTime=block.minTimestamp<fromMillis || block.maxTimestamp>=toMillis;
+            boolean checkStock=block.dictionary.length>1;
+
+            // Each column is decoded into a primitive array by its own tight loop, then one pass totals the matching rows.
+            bytes=block.read(PRICE_COLUMN,bytes);
+            decodeFixedWidth(bytes,9,rows,bytes[8],getLong(bytes,0),prices);
+            bytes=block.read(QUANTITY_COLUMN,bytes);
+            decodeQuantities(bytes,block.columnLength(QUANTITY_COLUMN),rows,quantities);
+            if(checkStock){
+                bytes=block.read(STOCK_COLUMN,bytes);
+                decodeFixedWidth(bytes,0,rows,block.wideCodes? 2:1,0,codes);
+            }
+            if(checkTime){
+                bytes=block.read(TIMESTAMP_COLUMN,bytes);
+                decodeDeltas(bytes,block.columnLength(TIMESTAMP_COLUMN),timestamps);
+            }
+
+            long volume=0;
+            long notional=0;
+            long trades=0;
+            if(!checkStock && !checkTime){
+                for(int row=0;row<rows;row++){
+                    volume+=quantities[row];
+                    notional+=prices[row]*quantities[row];
+                }
+                trades=rows;
+            }else{
+                for(int row=0;row<rows;row++){
+                    // Branch-free match: rows of several stocks are interleaved, so a branch would mispredict often.
+                    long match=checkStock? ((codes[row]^code)-1)>>>63:1;
+                    if(checkTime && (timestamps[row]<fromMillis || timestamps[row]>=toMillis)){
+                        match=0;
+                    }
+                    long quantity=quantities[row]*match;
+                    trades+=match;
+                    volume+=quantity;
+                    notional+=prices[row]*quantity;
+                }
+            }
+            aggregate.add(trades,volume,notional);
+        }
+        return aggregate;
+    }
+
+    /**
+     * The total volume traded in one stock over the range; see {@link #aggregate}.
+     */
+    public long volume(int stockId, LocalDateTime from, LocalDateTime to){
+        return aggregate(stockId,from,to).getVolume();
+    }
+
+    /**
+     * The volume-weighted average price of one stock over the range, or null if it did not trade; see {@link #aggregate}.
+     */
+    public BigDecimal vwap(int stockId, LocalDateTime from, LocalDateTime to){
+        return aggregate(stockId,from,to).getVwap();
+    }
+
+    /**
+     * Drops the reader's references to the mapped files. The mappings themselves are released when they are garbage collected.
+     */
+    @Override
+    public void close(){
+        blocks.clear();
+    }
+
+    /**
+     * Expands the quantity column, run-length encoded or fixed width, into one value per row.
+     */
+    private static void decodeQuantities(byte[] bytes, int length, int rows, long[] quantities){
+        int width=bytes[0];
+        if(width!=TradeTapeWriter.QUANTITY_RLE){
+            decodeFixedWidth(bytes,1,rows,width,0,quantities);
+            return;
+        }
+        int position=1;
+        int row=0;
+        while(position<length && row<rows){
+            long value=bytes[position++];
+            if(value<0){
+                value&=0x7F;
+                int shift=7;
+                byte b;
+                do{
+                    b=bytes[position++];
+                    value|=(long)(b&0x7F)<<shift;
+                    shift+=7;
+                }while(b<0);
+            }
+            long run=bytes[position++];
+            if(run<0){
+                run&=0x7F;
+                int shift=7;
+                byte b;
+                do{
+                    b=bytes[position++];
+                    run|=(long)(b&0x7F)<<shift;
+                    shift+=7;
+                }while(b<0);
+            }
+            long quantity=unzigzag(value);
+            int end=(int)Math.min(rows,row+run);
+            while(row<end){
+                quantities[row++]=quantity;
+            }
+        }
+    }
+
+    /**
+     * Decodes {@code rows} unsigned big-endian values of the given width starting at {@code from}, adding {@code base} to each.
+     */
+    private static void decodeFixedWidth(byte[] bytes, int from, int rows, int width, long base, long[] values){
+        switch (width){
+            case 1:
+                for(int row=0;row<rows;row++){
+                    values[row]=base+(bytes[from+row]&0xFF);
+                }
+                break;
+            case 2:
+                for(int row=0;row<rows;row++){
+                    int position=from+row*2;
+                    values[row]=base+(((bytes[position]&0xFF)<<8)|(bytes[position+1]&0xFF));
+                }
+                break;
+            case 4:
+                for(int row=0;row<rows;row++){
+                    values[row]=base+(getInt(bytes,from+row*4)&0xFFFFFFFFL);
+                }
+                break;
+            default:
+                for(int row=0;row<rows;row++){
+                    values[row]=base+getLong(bytes,from+row*8);
+                }
+                break;
+        }
+    }
+
+    private static int getInt(byte[] bytes, int position){
+        return ((bytes[position]&0xFF)<<24)|((bytes[position+1]&0xFF)<<16)|((bytes[position+2]&0xFF)<<8)|(bytes[position+3]&0xFF);
+    }
+
+    private static long getLong(byte[] bytes, int position){
+        return ((long)getInt(bytes,position)<<32)|(getInt(bytes,position+4)&0xFFFFFFFFL);
+    }
+
+    /**
+     * Decodes zigzag varint deltas into the running values they describe.
+     */
+    private static void decodeDeltas(byte[] bytes, int length, long[] values){
+        int count=decodeVarLongs(bytes,length,values);
+        long previous=0;
+        for(int i=0;i<count;i++){
+            previous+=unzigzag(values[i]);
+            values[i]=previous;
+        }
+    }
+
+    /**
+     * Decodes unsigned varints.
+     *
+     * @return The number of values decoded.
+     */
+    private static int decodeVarLongs(byte[] bytes, int length, long[] values){
+        int position=0;
+        int count=0;
+        while(position<length){
+            long value=bytes[position++];
+            if(value<0){
+                // Multi-byte varint; small values (the common case) fit in the single byte above.
+                value&=0x7F;
+                int shift=7;
+                byte b;
+                do{
+                    b=bytes[position++];
+                    value|=(long)(b&0x7F)<<shift;
+                    shift+=7;
+                }while(b<0);
+            }
+            values[count++]=value;
+        }
+        return count;
+    }
+
+    private static long unzigzag(long value){
+        return (value>>>1)^-(value&1);
+    }
+
+    /**
+     * Location and zone map of one block in a mapped tape file.
+     */
+    private static class Block {
+        final ByteBuffer buffer;
+        final int rows;
+        final long minTimestamp;
+        final long maxTimestamp;
+        final int[] dictionary;
+        final boolean wideCodes;
+        final int[] columnOffsets=new int[TradeTapeWriter.COLUMN_COUNT];
+
+        Block(ByteBuffer buffer, int start){
+            this.buffer=buffer;
+            int position=start;
+            rows=buffer.getInt(position);
+            minTimestamp=buffer.getLong(position+4);
+            maxTimestamp=buffer.getLong(position+12);
+            dictionary=new int[buffer.getInt(position+20)];
+            position+=24;
+            for(int i=0;i<dictionary.length;i++){
+                dictionary[i]=buffer.getInt(position);
+                position+=4;
+            }
+            wideCodes=buffer.get(position++)==2;
+            for(int column=0;column<columnOffsets.length;column++){
+                columnOffsets[column]=position;
+                position+=4+buffer.getInt(position);
+            }
+        }
+
+        int columnLength(int column){
+            return buffer.getInt(columnOffsets[column]);
+        }
+
+        /**
+         * Copies a column's bytes into {@code into}, or into a larger array that is returned instead.
+         */
+        byte[] read(int column, byte[] into){
+            int length=columnLength(column);
+            if(into.length<length){
+                into=new byte[Math.max(length,into.length*2)];
+            }
+            ByteBuffer view=buffer.duplicate();
+            view.position(columnOffsets[column]+4);
+            view.get(into,0,length);
+            return into;
+        }
+    }
+
+    /**
+     * Trade count, volume and notional (in ticks) over a scan.
+     */
+    public static class Aggregate {
+        private long tradeCount;
+        private long volume;
+        private long notionalTicks;
+
+        void add(long trades, long volume, long notionalTicks){
+            this.tradeCount+=trades;
+            this.volume+=volume;
+            this.notionalTicks+=notionalTicks;
+        }
+
+        public long getTradeCount(){
+            return tradeCount;
+        }
+        public long getVolume(){
+            return volume;
+        }
+        public long getNotionalTicks(){
+            return notionalTicks;
+        }
+
+        /**
+         * @return The volume-weighted average price, or null if nothing traded.
+         */
+        public BigDecimal getVwap(){
+            if(volume==0){
+                return null;
+            }
+            return Prices.toBigDecimal(notionalTicks).divide(BigDecimal.valueOf(volume),Prices.SCALE,RoundingMode.HALF_UP);
+        }
+
+        @Override
+        public String toString(){
+            return "Aggregate{"+"tradeCount="+tradeCount+", volume="+volume+", vwap="+getVwap()+'}';
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.stocks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Writes trades to a columnar, compressed "trade tape" file for analytics (see TradeTapeReader).
+ * <p>
+ * A tape file is a sequence of blocks of up to {@code BLOCK_ROWS} trades. Each block starts with a zone map
+ * (row count, min/max timestamp and the sorted dictionary of stock IDs it contains) so a reader can skip it
+ * without decoding, followed by one length-prefixed column per field:
+ * <ul>
+ *     <li>trade ID and timestamp (epoch millis, reading the local timestamp as UTC): zigzag varint deltas
+ *     from the previous row</li>
+ *     <li>stock: index into the block's dictionary, one byte (or two for more than 256 stocks)</li>
+ *     <li>price: fixed-point ticks (see Prices), stored as the block's lowest price followed by a fixed-width
+ *     (1, 2, 4 or 8 byte) offset from it per row, so any row's price can be read without decoding the others</li>
+ *     <li>quantity: run-length encoded (value, run length) varint pairs, unless quantities repeat so rarely that
+ *     RLE does not halve the size, in which case fixed width (1, 2 or 4 bytes) per row; a leading byte says which</li>
+ *     <li>buyer and seller user IDs: zigzag varints</li>
+ * </ul>
+ * and a CRC32 of the block. Each file is named after the last trade ID it holds, and is written to a temporary
+ * name and renamed into place when complete, so the newest file name is the export watermark.
+ */
+public class TradeTapeWriter {
+
+    static final int FILE_MAGIC=0x54545031;  // "TTP1"
+    static final int BLOCK_MAGIC=0x54544231; // "TTB1"
+    static final int BLOCK_ROWS=65536;
+    static final int COLUMN_COUNT=7;         // id, timestamp, stock, price, quantity, buyer, seller
+    static final byte QUANTITY_RLE=0;        // Otherwise the quantity column's first byte is its fixed width.
+
+    private static final String TAPE_PREFIX="tape-";
+    private static final String TAPE_SUFFIX=".ttp";
+
+    private TradeTapeWriter(){
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Writes the trades, which must be in ascending ID order and all newer than any trade already in the
+     * directory, to a new tape file.
+     *
+     * @return The new file.
+     */
+    public static Path write(Path directory, List<Trade> trades) throws IOException{
+        if(trades.isEmpty()){
+            throw new IllegalArgumentException("Cannot write an empty trade tape.");
+        }
+        Files.createDirectories(directory);
+        Path file=tapePath(directory,trades.get(trades.size()-1).getId());
+        Path temp=file.resolveSibling(file.getFileName()+".tmp");
+        ByteBuffer block=ByteBuffer.allocate(maxBlockSize(Math.min(trades.size(),BLOCK_ROWS)));
+        try(OutputStream out=Files.newOutputStream(temp)){
+            ByteBuffer header=ByteBuffer.allocate(4).putInt(FILE_MAGIC);
+            out.write(header.array());
+            for(int from=0;from<trades.size();from+=BLOCK_ROWS){
+                encodeBlock(trades.subList(from,Math.min(trades.size(),from+BLOCK_ROWS)),block);
+                out.write(block.array(),0,block.position());
+            }
+        }
+        Files.move(temp,file,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    /**
+     * @return The tape files in the directory, keyed and sorted by the last trade ID each holds.
+     */
+    static TreeMap<Integer, Path> listTapes(Path directory) throws IOException{
+        TreeMap<Integer, Path> tapes=new TreeMap<>();
+        if(!Files.isDirectory(directory)){
+            return tapes;
+        }
+        try(DirectoryStream<Path> stream=Files.newDirectoryStream(directory,TAPE_PREFIX+"*"+TAPE_SUFFIX)){
+            for(Path path: stream){
+                String name=path.getFileName().toString();
+                try{
+                    tapes.put(Integer.parseInt(name.substring(TAPE_PREFIX.length(),name.length()-TAPE_SUFFIX.length())),path);
+                }catch (NumberFormatException e){
+                    System.err.println("Ignoring unexpected file in trade tape directory: "+name);
+                }
+            }
+        }
+        return tapes;
+    }
+
+    private static Path tapePath(Path directory, int lastTradeId){
+        return directory.resolve(String.format("%s%010d%s",TAPE_PREFIX,lastTradeId,TAPE_SUFFIX));
+    }
+
+    private static int maxBlockSize(int rows){
+        // Zone map with a full dictionary and the price base, plus a varint worst case of 10 bytes per value in every column.
+        return 64+rows*4+COLUMN_COUNT*(4+rows*10)+4;
+    }
+
+    private static void encodeBlock(List<Trade> trades, ByteBuffer block){
+        int rows=trades.size();
+        long[] timestamps=new long[rows];
+        int[] stockIds=new int[rows];
+        long minTimestamp=Long.MAX_VALUE;
+        long maxTimestamp=Long.MIN_VALUE;
+        for(int i=0;i<rows;i++){
+            Trade trade=trades.get(i);
+            LocalDateTime timestamp=trade.getTimestamp();
+            timestamps[i]=timestamp!=null? timestamp.toInstant(ZoneOffset.UTC).toEpochMilli():0L;
+            minTimestamp=Math.min(minTimestamp,timestamps[i]);
+            maxTimestamp=Math.max(maxTimestamp,timestamps[i]);
+            stockIds[i]=trade.getStockId();
+        }
+        int[] dictionary=Arrays.stream(stockIds).distinct().sorted().toArray();
+        boolean wideCodes=dictionary.length>256;
+
+        block.clear();
+        block.putInt(BLOCK_MAGIC);
+        int lengthPosition=block.position();
+        block.putInt(0); // Block length, filled in below.
+        int checkedFrom=block.position();
+        block.putInt(rows);
+        block.putLong(minTimestamp);
+        block.putLong(maxTimestamp);
+        block.putInt(dictionary.length);
+        for(int stockId: dictionary){
+            block.putInt(stockId);
+        }
+        block.put((byte)(wideCodes? 2:1));
+
+        // Trade IDs
+        int column=beginColumn(block);
+        long previous=0;
+        for(Trade trade: trades){
+            putVarLong(block,zigzag(trade.getId()-previous));
+            previous=trade.getId();
+        }
+        endColumn(block,column);
+
+        // Timestamps
+        column=beginColumn(block);
+        previous=0;
+        for(long timestamp: timestamps){
+            putVarLong(block,zigzag(timestamp-previous));
+            previous=timestamp;
+        }
+        endColumn(block,column);
+
+        // Stock dictionary codes
+        column=beginColumn(block);
+        for(int stockId: stockIds){
+            int code=Arrays.binarySearch(dictionary,stockId);
+            if(wideCodes){
+                block.putShort((short)code);
+            }else{
+                block.put((byte)code);
+            }
+        }
+        endColumn(block,column);
+
+        // Prices in ticks, frame of reference
+        column=beginColumn(block);
+        long minPrice=Long.MAX_VALUE;
+        long maxPrice=Long.MIN_VALUE;
+        for(Trade trade: trades){
+            minPrice=Math.min(minPrice,trade.getPriceTicks());
+            maxPrice=Math.max(maxPrice,trade.getPriceTicks());
+        }
+        int priceWidth=offsetWidth(maxPrice-minPrice);
+        block.putLong(minPrice);
+        block.put((byte)priceWidth);
+        for(Trade trade: trades){
+            long offset=trade.getPriceTicks()-minPrice;
+            switch (priceWidth){
+                case 1: block.put((byte)offset); break;
+                case 2: block.putShort((short)offset); break;
+                case 4: block.putInt((int)offset); break;
+                default: block.putLong(offset); break;
+            }
+        }
+        endColumn(block,column);
+
+        // Quantities, run-length encoded when that at least halves them, as fixed width is quicker to scan
+        column=beginColumn(block);
+        int rleSize=0;
+        long maxQuantity=0;
+        for(int i=0;i<rows;){
+            int quantity=trades.get(i).getQuantity();
+            int run=1;
+            while(i+run<rows && trades.get(i+run).getQuantity()==quantity){
+                run++;
+            }
+            rleSize+=varLongSize(zigzag(quantity))+varLongSize(run);
+            maxQuantity=Math.max(maxQuantity,quantity&0xFFFFFFFFL);
+            i+=run;
+        }
+        int quantityWidth=Math.min(4,offsetWidth(maxQuantity));
+        if(rleSize*2<=rows*quantityWidth){
+            block.put(QUANTITY_RLE);
+            for(int i=0;i<rows;){
+                int quantity=trades.get(i).getQuantity();
+                int run=1;
+                while(i+run<rows && trades.get(i+run).getQuantity()==quantity){
+                    run++;
+                }
+                putVarLong(block,zigzag(quantity));
+                putVarLong(block,run);
+                i+=run;
+            }
+        }else{
+            block.put((byte)quantityWidth);
+            for(Trade trade: trades){
+                switch (quantityWidth){
+                    case 1: block.put((byte)trade.getQuantity()); break;
+                    case 2: block.putShort((short)trade.getQuantity()); break;
+                    default: block.putInt(trade.getQuantity()); break;
+                }
+            }
+        }
+        endColumn(block,column);
+
+        // Buyer and seller user IDs
+        column=beginColumn(block);
+        for(Trade trade: trades){
+            putVarLong(block,zigzag(trade.getBuyerUserId()));
+        }
+        endColumn(block,column);
+        column=beginColumn(block);
+        for(Trade trade: trades){
+            putVarLong(block,zigzag(trade.getSellerUserId()));
+        }
+        endColumn(block,column);
+
+        CRC32 crc=new CRC32();
+        crc.update(block.array(),checkedFrom,block.position()-checkedFrom);
+        block.putInt((int)crc.getValue());
+        block.putInt(lengthPosition,block.position()-checkedFrom);
+    }
+
+    private static int offsetWidth(long range){
+        if(range<0 || range>=1L<<32){
+            return 8; // Also covers a range that overflowed.
+        }
+        return range<1<<8? 1:range<1<<16? 2:4;
+    }
+
+    private static int beginColumn(ByteBuffer block){
+        int position=block.position();
+        block.putInt(0);
+        return position;
+    }
+
+    private static void endColumn(ByteBuffer block, int lengthPosition){
+        block.putInt(lengthPosition,block.position()-lengthPosition-4);
+    }
+
+    static long zigzag(long value){
+        return (value<<1)^(value>>63);
+    }
+
+    private static int varLongSize(long value){
+        int size=1;
+        while((value & ~0x7FL)!=0){
+            size++;
+            value>>>=7;
+        }
+        return size;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value){
+        while((value & ~0x7FL)!=0){
+            buffer.put((byte)((value & 0x7F)|0x80));
+            value>>>=7;
+        }
+        buffer.put((byte)value);
+    }
+}
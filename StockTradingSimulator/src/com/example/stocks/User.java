@@ -21,7 +21,7 @@ public class User {
         this.id=id;
         this.username=username;
         this.passwordHash=passwordHash;
-        this.balance=new BigDecimal("10000.00");
+        this.balance=balance;
     }
 
     public int getId(){
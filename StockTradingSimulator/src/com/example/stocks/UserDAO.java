@@ -6,6 +6,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.math.BigDecimal;
+import java.util.Map;
 import java.util.Optional;
 
 public class UserDAO {
@@ -89,6 +90,35 @@ public class UserDAO {
         }
     }
 
+    /**
+     * Applies balance changes to several users as one JDBC batch on the caller's connection,
+     * so they take part in the caller's transaction. Each change is applied relative to the stored
+     * balance, so no prior read is needed, and a change that would make a balance negative is rejected.
+     *
+     * @param connection The open (transactional) connection to use. It is not closed here.
+     * @param deltaTicksByUserId Net balance change per user ID, in fixed-point ticks (see Prices).
+     * @throws SQLException If a user does not exist, a balance would become negative, or a database error occurs.
+     */
+    public void adjustBalances(Connection connection, Map<Integer, Long> deltaTicksByUserId) throws SQLException{
+        String sql="UPDATE Users SET balance=balance+? WHERE id=? AND balance+?>=0";
+        try(PreparedStatement stmt=connection.prepareStatement(sql)){
+            Integer[] userIds=deltaTicksByUserId.keySet().toArray(new Integer[0]);
+            for(Integer userId: userIds){
+                BigDecimal delta=Prices.toBigDecimal(deltaTicksByUserId.get(userId));
+                stmt.setBigDecimal(1,delta);
+                stmt.setInt(2,userId);
+                stmt.setBigDecimal(3,delta);
+                stmt.addBatch();
+            }
+            int[] affectedRows=stmt.executeBatch();
+            for(int i=0;i<affectedRows.length;i++){
+                if(affectedRows[i]==0){
+                    throw new SQLException("Balance update rejected for user ID "+userIds[i]+" (user not found or insufficient balance).");
+                }
+            }
+        }
+    }
+
     public boolean delete(int id) throws SQLException{
         String sql="DELETE FROM Users Where id=?";
         try(Connection connection=DatabaseManager.getConnection();
@@ -0,0 +1,23 @@
+package com.example.stocks;
+
+/**
+ * Decides how a ring buffer consumer waits for the next command to be published.
+ * Implementations trade CPU usage for wake-up latency.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until the given sequence has been published.
+     *
+     * @param sequence The next sequence the consumer wants to process.
+     * @param ringBuffer The ring buffer being consumed.
+     * @return The highest contiguous published sequence (at least {@code sequence}),
+     *         or -1 once the ring buffer is halted and every claimed command has been drained.
+     */
+    long waitFor(long sequence, OrderCommandRingBuffer ringBuffer);
+
+    /**
+     * Called by producers after publishing, for strategies that may have parked the consumer.
+     */
+    void signalAllWhenBlocking();
+}
@@ -0,0 +1,31 @@
+package com.example.stocks;
+
+/**
+ * Spins for a short while and then yields the CPU between checks.
+ * A good compromise between latency and CPU usage when there are spare cores.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    private static final int SPIN_TRIES=100;
+
+    @Override
+    public long waitFor(long sequence, OrderCommandRingBuffer ringBuffer){
+        int counter=SPIN_TRIES;
+        while(!ringBuffer.isAvailable(sequence)){
+            if(ringBuffer.isHaltedAndDrained(sequence)){
+                return -1; // Every command claimed before the halt is still drained.
+            }
+            if(counter>0){
+                counter--;
+            }else{
+                Thread.yield();
+            }
+        }
+        return ringBuffer.getHighestPublishedSequence(sequence);
+    }
+
+    @Override
+    public void signalAllWhenBlocking(){
+        // Nothing to wake: the consumer only yields.
+    }
+}